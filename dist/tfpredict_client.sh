@@ -0,0 +1,86 @@
+#!/bin/sh
+#
+# Thin client for the TFpredict prediction server (java -jar TFpredict.jar -server).
+# Accepts the arguments of the Galaxy mode and sends the input to the server given
+# by the environment variable TFPREDICT_SERVER (default: http://127.0.0.1:8642).
+#
+# Usage: tfpredict_client.sh (-fasta <fasta_file> | -sequence <sequence>)
+#                            [-htmlOutfile <file>] [-sabineOutfile <file>]
+#                            [-species <organism_name>] [-basedir <directory>]
+#
+# The server returns all reports in its response; they are written to the given
+# output files by this script (requires python3). -basedir is accepted for
+# compatibility with the Galaxy mode and ignored.
+#
+
+server=${TFPREDICT_SERVER:-http://127.0.0.1:8642}
+
+urlencode() {
+	printf '%s' "$1" | od -An -tx1 -v | tr -d ' \n' | sed 's/../%&/g'
+}
+
+fasta=""
+sequence=""
+query=""
+htmlOutfile=""
+sabineOutfile=""
+while [ $# -gt 0 ]; do
+	case "$1" in
+		-galaxy|-useWeb)
+			shift ;;
+		-fasta)
+			fasta="$2"; shift 2 ;;
+		-sequence)
+			sequence="$2"; shift 2 ;;
+		-species)
+			query="$query&species=$(urlencode "$2")"; shift 2 ;;
+		-htmlOutfile)
+			htmlOutfile="$2"; shift 2 ;;
+		-sabineOutfile)
+			sabineOutfile="$2"; shift 2 ;;
+		-basedir)
+			shift 2 ;;
+		*)
+			echo "Error. Invalid argument: $1" >&2
+			exit 1 ;;
+	esac
+done
+query=${query#&}
+
+response=$(mktemp) || exit 1
+trap 'rm -f "$response"' EXIT
+
+# sends the given curl data argument and prints the HTTP status of the response
+post() {
+	curl -sS --data-binary "$1" -H "Content-Type: text/plain" -o "$response" -w '%{http_code}' "$server/predict?$query"
+}
+
+if [ -n "$sequence" ]; then
+	status=$(printf '>Sequence_1\n%s\n' "$sequence" | post @-) || exit 1
+elif [ -n "$fasta" ]; then
+	status=$(post @"$fasta") || exit 1
+else
+	echo "Error. Input FASTA file or sequence has to be provided." >&2
+	exit 1
+fi
+
+# error reports of the server (e.g., the HTML report of invalid input) are shown instead of the reports
+case "$status" in
+	2??) ;;
+	*)
+		echo "Error. Server returned HTTP status $status:" >&2
+		cat "$response" >&2
+		exit 1 ;;
+esac
+
+# prints the console report and writes the other reports to the given files
+python3 - "$response" "$htmlOutfile" "$sabineOutfile" <<'PYTHON'
+import json, sys
+with open(sys.argv[1], encoding='utf-8') as f:
+	reports = json.load(f)
+for field, outfile in (('html', sys.argv[2]), ('sabine', sys.argv[3])):
+	if outfile and reports.get(field) is not None:
+		with open(outfile, 'w', encoding='utf-8') as f:
+			f.write(reports[field])
+sys.stdout.write(reports['console'])
+PYTHON
@@ -23,6 +23,9 @@
 package features;
 
 import io.BasicTools;
+import io.CostModel;
+import io.CpuBudget;
+import io.PsiBlastRunner;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,7 +33,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import data.TrainingDataGenerator;
 
@@ -48,7 +50,19 @@ public abstract class BLASTfeatureGenerator {
 	
 	protected String path2BLAST;
 	
-	protected static boolean silent = false;
+	protected boolean silent = false;
+	
+	// directory in which the PSI-BLAST hits of all sequences are cached
+	protected static String hitCacheDir = BlastHitCache.getDefaultCacheDir();
+	
+	// hits are computed by the in-process Smith-Waterman engine instead of PSI-BLAST (PSSMs still require BLAST)
+	protected static boolean useSmithWaterman = false;
+	
+	// only database sequences selected by a k-mer index are aligned by the Smith-Waterman engine
+	protected static boolean useKmerPrefilter = false;
+	
+	// directory to which the PSI-BLAST reports are copied for debugging (null: reports are only parsed from the output of PSI-BLAST)
+	protected static String blastReportDir = null;
 	
 	protected boolean pssmFeat;
 	protected boolean naiveFeat;
@@ -78,20 +92,41 @@ public abstract class BLASTfeatureGenerator {
 		return features;
 	}
 	
+	public static void setHitCacheDir(String hitCacheDir) {
+		BLASTfeatureGenerator.hitCacheDir = hitCacheDir;
+	}
+	
+	public static void setUseSmithWaterman(boolean useSmithWaterman) {
+		BLASTfeatureGenerator.useSmithWaterman = useSmithWaterman;
+	}
+	
+	public static void setUseKmerPrefilter(boolean useKmerPrefilter) {
+		BLASTfeatureGenerator.useKmerPrefilter = useKmerPrefilter;
+	}
+	
+	public static void setBlastReportDir(String blastReportDir) {
+		BLASTfeatureGenerator.blastReportDir = blastReportDir;
+	}
+	
 	public BLASTfeatureGenerator() {}
 	
 	public BLASTfeatureGenerator(String fastaFile, String featureFile, boolean superPred) {
 		path2BLAST = System.getenv("BLAST_DIR");
-		if ((path2BLAST == null) || (path2BLAST.length() == 0)) {
-			throw new RuntimeException("Cannot execute the BLAST tool, because no path to its local installation has been defined. Please define the environment variable BLAST_DIR to point to the BLAST directory on your OS and run this program again.");
+		if (!useSmithWaterman) {
+			checkBlastPath();
 		}
 
 		this.fastaFile = fastaFile;
 		this.featureFile = featureFile;
 		this.superPred = superPred;
 
-		// TODO
-		this.pathForTmpDir = "/rascratch/user/eichner/tmp/";
+		this.pathForTmpDir = System.getProperty("java.io.tmpdir");
+	}
+	
+	private void checkBlastPath() {
+		if ((path2BLAST == null) || (path2BLAST.length() == 0)) {
+			throw new RuntimeException("Cannot execute the BLAST tool, because no path to its local installation has been defined. Please define the environment variable BLAST_DIR to point to the BLAST directory on your OS and run this program again.");
+		}
 	}
 		
 	
@@ -110,6 +145,12 @@ public abstract class BLASTfeatureGenerator {
 		sequences = BasicTools.readFASTA(fastaFile, true);
 		seq2label = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequences.keySet(), superPred, false);
 		
+		// the Smith-Waterman engine searches the FASTA file directly
+		if (useSmithWaterman && !pssmFeat) {
+			return;
+		}
+		checkBlastPath();
+		
 		// create database
 		String dbName = new File(fastaFile).getName().replace(".fasta", ".db");
 		String cmd = path2BLAST + "bin/makeblastdb -in " + fastaFile  + " -out " + path2BLAST + "db/" + dbName + " -dbtype prot";
@@ -134,37 +175,46 @@ public abstract class BLASTfeatureGenerator {
 		if (pssmFeat) {
 			numIter = 2;
 		}
+		if (useSmithWaterman && !pssmFeat) {
+			runSmithWaterman();
+			return;
+		}
 		
+		// sequences are searched longest first, so that the time of the remaining searches is estimated well
+		if (!pssmFeat && !silent) {
+			printMakespanEstimate(CostModel.getStageName("iter" + numIter, fastaFile), "iter" + numIter, 1);
+		}
 		int seqCnt = 1;
-		for (String seqID: sequences.keySet()) {
+		for (String seqID: CostModel.getLongestFirst(sequences)) {
 		
-			// prepare temporary files for PSI-BLAST output
-			String tempFilePrefix = "";
-			File localTempDir = new File(pathForTmpDir);
-
-			try {
-				if (localTempDir.exists()) {
-					tempFilePrefix = File.createTempFile("psiblast_", "", localTempDir).getAbsolutePath();
-				
-				// use system default directory for temporary files
-				} else {
-					tempFilePrefix = File.createTempFile("psiblast_", "").getAbsolutePath();
-				}
-			
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			String infileFasta = tempFilePrefix + "_fasta.txt";
-			String outfileHits = tempFilePrefix + "_hits.txt";
-			String outfilePSSM = tempFilePrefix + "_pssm.txt";
-			
-			BasicTools.writeFASTA(seqID, sequences.get(seqID), infileFasta);
-			
 			// run PSI-BLAST current sequence
 			if (!silent) System.out.println("Processing sequence: " + seqID + "\t(" + seqCnt++ + "/" + sequences.size() + ")");
 			
 			String uniprotID = seqID.split("\\|")[TrainingDataGenerator.UniProtIDField];
 			if (pssmFeat) {
+				
+				// prepare temporary files for PSI-BLAST output (only the PSSM has to be written to a file)
+				String tempFilePrefix = "";
+				File localTempDir = new File(pathForTmpDir);
+
+				try {
+					if (localTempDir.exists()) {
+						tempFilePrefix = File.createTempFile("psiblast_", "", localTempDir).getAbsolutePath();
+					
+					// use system default directory for temporary files
+					} else {
+						tempFilePrefix = File.createTempFile("psiblast_", "").getAbsolutePath();
+					}
+				
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				String infileFasta = tempFilePrefix + "_fasta.txt";
+				String outfileHits = tempFilePrefix + "_hits.txt";
+				String outfilePSSM = tempFilePrefix + "_pssm.txt";
+				
+				BasicTools.writeFASTA(seqID, sequences.get(seqID), infileFasta);
+				
 				String pssmFile = localTempDir + "/psiblast_" + uniprotID + "_pssm.txt";
 				boolean pssmFileExists = false;
 				if (new File(pssmFile).exists()) {
@@ -174,51 +224,99 @@ public abstract class BLASTfeatureGenerator {
 				pssms.put(seqID, getPsiBlastPSSM(infileFasta, database, outfileHits, outfilePSSM, numIter, pssmFileExists).toArray(new int[][]{}));
 			
 			} else {
-				String hitsFile = localTempDir + "/psiblast_" + uniprotID + "_hits.txt";
-				boolean hitsFileExists = false;
-				if (new File(hitsFile).exists()) {
-					outfileHits = hitsFile;
-					hitsFileExists = true;
-				} 
-				hits.put(seqID, getPsiBlastHits(infileFasta, database, outfileHits, numIter, hitsFileExists));
+				// hits are only computed if the sequence was not yet searched against the database
+				BlastHitCache hitCache = BlastHitCache.getInstance(hitCacheDir);
+				try {
+					Map<String, Double> currHits = hitCache.get(sequences.get(seqID), fastaFile, numIter);
+					if (currHits == null) {
+						currHits = getPsiBlastHits(seqID, sequences.get(seqID), database, "psiblast_" + uniprotID + "_hits.txt", numIter);
+						hitCache.put(sequences.get(seqID), fastaFile, numIter, currHits);
+					}
+					hits.put(seqID, correctHitIDs(currHits));
+					
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
  		}
+		CostModel.getDefault().save();
 	}
 	
-	
-	private Map<String, Double> getPsiBlastHits(String fastaFile, String database, String hitsOutfile, int numIter, boolean useExistingHitsFile) {	
+	// prints the estimated time of the searches of all sequences which are not yet contained in the cache
+	private void printMakespanEstimate(String stage, String searchName, int numThreads) {
 		
-		if (! useExistingHitsFile) {
-			String cmd = path2BLAST + "bin/psiblast -query " + fastaFile + " -num_iterations " + numIter + " -db " + database + " -out " + hitsOutfile;
-			BasicTools.runCommand(cmd, false);
+		BlastHitCache hitCache = BlastHitCache.getInstance(hitCacheDir);
+		List<String> uncached = new ArrayList<String>();
+		try {
+			for (String sequence: sequences.values()) {
+				if (!hitCache.contains(sequence, fastaFile, searchName)) {
+					uncached.add(sequence);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
 		}
-		
-		// read PSI-BLAST output from temporary files
-		List<String> hitsTable = BasicTools.readFile2List(hitsOutfile, false);
-		Map<String, Double> currHits = new HashMap<String, Double>();
-		
-		int lineIdx = 0;
-		String line;
-		
-		// skip header
-		while (lineIdx < hitsTable.size() && !(line = hitsTable.get(lineIdx)).startsWith("Sequences producing significant alignments")) {
-			lineIdx++;
+		String estimate = CostModel.getDefault().getMakespanEstimate(stage, uncached, numThreads);
+		if (estimate != null && !uncached.isEmpty()) {
+			System.out.println(estimate + ".");
 		}
-		lineIdx = lineIdx + 2; 
-
-		while (lineIdx < hitsTable.size() && !hitsTable.get(lineIdx).isEmpty() && !(line = hitsTable.get(lineIdx)).startsWith(">")) {
+	}
+	
+	
+	// searches all sequences which are not yet contained in the cache at once using all processors
+	private void runSmithWaterman() {
+		
+		BlastHitCache hitCache = BlastHitCache.getInstance(hitCacheDir);
+		String searchName = useKmerPrefilter ? KmerIndex.searchName : SmithWatermanSearch.searchName;
+		try {
+			Map<String, String> uncached = new HashMap<String, String>();
+			for (String seqID: sequences.keySet()) {
+				Map<String, Double> currHits = hitCache.get(sequences.get(seqID), fastaFile, searchName);
+				if (currHits != null) {
+					hits.put(seqID, correctHitIDs(currHits));
+				} else {
+					uncached.put(seqID, sequences.get(seqID));
+				}
+			}
+			if (!silent) System.out.println("Searching " + uncached.size() + " / " + sequences.size() + " sequence(s) with Smith-Waterman.");
 			
-			StringTokenizer strtok = new StringTokenizer(line);
-			String hitID = strtok.nextToken();
-			// correct wrong UniProt ID for T03281 in factor.dat
-			if (hitID.equals("T03281|41817|TF|3.1.|TransFac")) {
-				hitID = "T03281|P41817|TF|3.1.|TransFac";
+			KmerIndex prefilter = useKmerPrefilter ? KmerIndex.getInstance(fastaFile) : null;
+			SmithWatermanSearch engine = SmithWatermanSearch.getInstance(fastaFile);
+			if (!silent && !uncached.isEmpty()) {
+				String estimate = CostModel.getDefault().getMakespanEstimate(engine.getStageName(prefilter), uncached.values(), CpuBudget.getGlobal().getSize());
+				if (estimate != null) System.out.println(estimate + ".");
 			}
-			String nextToken;
-			while ((nextToken = strtok.nextToken()).startsWith("GO:"));  // skip GO terms in non-TF headers
-			double hitScore = Double.parseDouble(nextToken); 
-			currHits.put(hitID, hitScore);
-			lineIdx++;
+			Map<String, Map<String, Double>> newHits = engine.search(uncached, CpuBudget.getGlobal().getSize(), prefilter);
+			CostModel.getDefault().save();
+			for (String seqID: newHits.keySet()) {
+				Map<String, Double> currHits = newHits.get(seqID);
+				hitCache.put(sequences.get(seqID), fastaFile, searchName, currHits);
+				hits.put(seqID, correctHitIDs(currHits));
+			}
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private Map<String, Double> getPsiBlastHits(String seqID, String sequence, String database, String reportName, int numIter) throws IOException {	
+		
+		// hits of the first iteration are parsed from the output of PSI-BLAST
+		PsiBlastRunner psiBlast = new PsiBlastRunner(path2BLAST, database, numIter, 1);
+		psiBlast.setCostModel(CostModel.getDefault(), CostModel.getStageName("iter" + numIter, fastaFile));
+		if (blastReportDir != null) {
+			psiBlast.setReportDir(new File(blastReportDir));
+		}
+		return psiBlast.search(seqID, sequence, reportName);
+	}
+	
+	// correct wrong UniProt ID for T03281 in factor.dat
+	private Map<String, Double> correctHitIDs(Map<String, Double> currHits) {
+		
+		Double hitScore = currHits.remove("T03281|41817|TF|3.1.|TransFac");
+		if (hitScore != null) {
+			currHits.put("T03281|P41817|TF|3.1.|TransFac", hitScore);
 		}
 		return currHits;
 	}
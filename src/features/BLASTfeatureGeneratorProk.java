@@ -23,6 +23,8 @@
 package features;
 
 import io.BasicTools;
+import io.CostModel;
+import io.PsiBlastRunner;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,7 +55,28 @@ public abstract class BLASTfeatureGeneratorProk {
 
 	protected String path2BLAST;
 
-	protected static boolean silent = false;
+	protected boolean silent = false;
+
+	// directory in which the PSI-BLAST hits of all sequences are cached
+	protected static String hitCacheDir = BlastHitCache.getDefaultCacheDir();
+
+	/**
+	 * Hits are computed by the in-process Smith-Waterman engine instead of
+	 * PSI-BLAST. PSSMs still require BLAST.
+	 */
+	protected static boolean useSmithWaterman = false;
+
+	/**
+	 * Only database sequences selected by a {@link KmerIndex} are aligned by
+	 * the Smith-Waterman engine.
+	 */
+	protected static boolean useKmerPrefilter = false;
+
+	/**
+	 * Directory to which the PSI-BLAST reports are copied for debugging. If
+	 * {@code null}, the reports are only parsed from the output of PSI-BLAST.
+	 */
+	protected static String blastReportDir = null;
 
 	protected boolean pssmFeat;
 	protected boolean naiveFeat;
@@ -84,6 +107,38 @@ public abstract class BLASTfeatureGeneratorProk {
 		return features;
 	}
 
+	/**
+	 * 
+	 * @param hitCacheDir directory in which the PSI-BLAST hits are cached
+	 */
+	public static void setHitCacheDir(String hitCacheDir) {
+		BLASTfeatureGeneratorProk.hitCacheDir = hitCacheDir;
+	}
+
+	/**
+	 * 
+	 * @param useSmithWaterman if true, hits are computed by {@link SmithWatermanSearch}
+	 */
+	public static void setUseSmithWaterman(boolean useSmithWaterman) {
+		BLASTfeatureGeneratorProk.useSmithWaterman = useSmithWaterman;
+	}
+
+	/**
+	 * 
+	 * @param useKmerPrefilter if true, only candidates selected by a {@link KmerIndex} are aligned
+	 */
+	public static void setUseKmerPrefilter(boolean useKmerPrefilter) {
+		BLASTfeatureGeneratorProk.useKmerPrefilter = useKmerPrefilter;
+	}
+
+	/**
+	 * 
+	 * @param blastReportDir directory to which the PSI-BLAST reports are copied
+	 */
+	public static void setBlastReportDir(String blastReportDir) {
+		BLASTfeatureGeneratorProk.blastReportDir = blastReportDir;
+	}
+
 	/**
 	 * 
 	 */
@@ -98,8 +153,8 @@ public abstract class BLASTfeatureGeneratorProk {
 	public BLASTfeatureGeneratorProk(String fastaFile, String featureFile, boolean superPred) {
 		this();
 		path2BLAST = System.getenv("BLAST_DIR");
-		if ((path2BLAST == null) || (path2BLAST.length() == 0)) {
-			throw new RuntimeException("Cannot execute the BLAST tool, because no path to its local installation has been defined. Please define the environment variable BLAST_DIR to point to the BLAST directory on your OS and run this program again.");
+		if (!useSmithWaterman) {
+			checkBlastPath();
 		}
 
 		this.fastaFile = fastaFile;
@@ -110,6 +165,15 @@ public abstract class BLASTfeatureGeneratorProk {
 		pathForTmpDir = System.getProperty("user.dir") + "/resources/tmp/";
 	}
 
+	/**
+	 * 
+	 */
+	private void checkBlastPath() {
+		if ((path2BLAST == null) || (path2BLAST.length() == 0)) {
+			throw new RuntimeException("Cannot execute the BLAST tool, because no path to its local installation has been defined. Please define the environment variable BLAST_DIR to point to the BLAST directory on your OS and run this program again.");
+		}
+	}
+
 	/**
 	 * @return the pathForTmpDir
 	 */
@@ -135,6 +199,12 @@ public abstract class BLASTfeatureGeneratorProk {
 		sequences = BasicTools.readFASTA(fastaFile, true);
 		seq2label = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequences.keySet(), superPred, false);
 
+		// the Smith-Waterman engine searches the FASTA file directly
+		if (useSmithWaterman && !pssmFeat) {
+			return;
+		}
+		checkBlastPath();
+
 		// create database
 		String dbName = new File(fastaFile).getName().replace(".fasta", ".db");
 		String cmd = path2BLAST + "bin/makeblastdb -in " + fastaFile  + " -out " + path2BLAST + "db/" + dbName + " -dbtype prot";
@@ -172,8 +242,14 @@ public abstract class BLASTfeatureGeneratorProk {
 		progress.setPrintInOneLine(true);
 		progress.DisplayBar("Completed 0 of " + sequences.size());
 
+		// the jobs are run in waves, which end when their longest search is finished
+		List<String> sequenceIDs = CostModel.getLongestFirst(sequences);
+		if (!pssmFeat) {
+			logMakespanEstimate(sequenceIDs, threadManager.getNumberOfSlots() - 1, getSearchName(numIter));
+		}
+
 		int seqCnt = 1;
-		for (String sequenceID: sequences.keySet()) {
+		for (String sequenceID: sequenceIDs) {
 			if (threads == threadManager.getNumberOfSlots() - 1) {
 				threadManager.awaitTermination();
 				//logger.info("Completed " + seqCnt + " of " + sequences.size());
@@ -216,10 +292,63 @@ public abstract class BLASTfeatureGeneratorProk {
 		
 		progress.DisplayBar("Completed all " + sequences.size());
 		progress.finished();
+		CostModel.getDefault().save();
 		
 		logger.warning("Did not find features for " + seqWithoutFeatures.size() + " of " + sequences.size() + " sequences.");
 	}
 
+	/**
+	 * 
+	 * @param numIter
+	 * @return name of the hit tables of the searches in the
+	 *         {@link BlastHitCache}
+	 */
+	private String getSearchName(int numIter) {
+		if (useSmithWaterman) {
+			return useKmerPrefilter ? KmerIndex.searchName : SmithWatermanSearch.searchName;
+		}
+		return "iter" + numIter;
+	}
+
+	/**
+	 * Logs the estimated time of the searches. As the sequences are ordered by
+	 * decreasing length, each wave takes as long as its first search of a
+	 * sequence whose hits are not cached.
+	 * 
+	 * @param sequenceIDs sequences in the order of the searches
+	 * @param waveSize number of searches per wave
+	 * @param searchName
+	 */
+	private void logMakespanEstimate(List<String> sequenceIDs, int waveSize, String searchName) {
+
+		CostModel costModel = CostModel.getDefault();
+		String stage = CostModel.getStageName(searchName, fastaFile);
+		if (!costModel.isFitted(stage)) {
+			return;
+		}
+		BlastHitCache hitCache = BlastHitCache.getInstance(hitCacheDir);
+		waveSize = Math.max(1, waveSize);
+		double makespan = 0;
+		try {
+			// the first sequence of each wave which is not cached determines the time of the wave
+			for (int start=0; start<sequenceIDs.size(); start+=waveSize) {
+				for (int i=start; i<Math.min(start + waveSize, sequenceIDs.size()); i++) {
+					String sequence = sequences.get(sequenceIDs.get(i));
+					if (!hitCache.contains(sequence, fastaFile, searchName)) {
+						makespan += costModel.estimate(stage, sequence.length());
+						break;
+					}
+				}
+			}
+		} catch (IOException exc) {
+			logger.warning(exc.getMessage());
+			return;
+		}
+		if (makespan > 0) {
+			logger.info("Estimated time of the searches: " + Math.round(makespan) + " s");
+		}
+	}
+
 	/**
 	 * 
 	 * @param numIter
@@ -228,30 +357,31 @@ public abstract class BLASTfeatureGeneratorProk {
 	 * @return
 	 */
 	private double[] runPsiBlast(final int numIter, final String seqID, final String sequence) {
-		// prepare temporary files for PSI-BLAST output
-		String tempFilePrefix = "";
-		File localTempDir = new File(getPathForTmpDir());
 
-		try {
-			if (localTempDir.exists()) {
-				tempFilePrefix = File.createTempFile("psiblast_", "", localTempDir).getAbsolutePath();
+		String uniprotID = seqID.split("\\|")[TrainingDataGenerator.UniProtIDField];
+		if (pssmFeat) {
+			// prepare temporary files for PSI-BLAST output (only the PSSM has to be written to a file)
+			String tempFilePrefix = "";
+			File localTempDir = new File(getPathForTmpDir());
 
-				// use system default directory for temporary files
-			} else {
-				tempFilePrefix = File.createTempFile("psiblast_", "").getAbsolutePath();
-			}
+			try {
+				if (localTempDir.exists()) {
+					tempFilePrefix = File.createTempFile("psiblast_", "", localTempDir).getAbsolutePath();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		String infileFasta = tempFilePrefix + "_fasta.txt";
-		String outfileHits = tempFilePrefix + "_hits.txt";
-		String outfilePSSM = tempFilePrefix + "_pssm.txt";
+					// use system default directory for temporary files
+				} else {
+					tempFilePrefix = File.createTempFile("psiblast_", "").getAbsolutePath();
+				}
 
-		BasicTools.writeFASTA(seqID, sequence, infileFasta);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			String infileFasta = tempFilePrefix + "_fasta.txt";
+			String outfileHits = tempFilePrefix + "_hits.txt";
+			String outfilePSSM = tempFilePrefix + "_pssm.txt";
+
+			BasicTools.writeFASTA(seqID, sequence, infileFasta);
 
-		String uniprotID = seqID.split("\\|")[TrainingDataGenerator.UniProtIDField];
-		if (pssmFeat) {
 			String pssmFile = localTempDir + "/psiblast_" + uniprotID + "_pssm.txt";
 			boolean pssmFileExists = false;
 			if (new File(pssmFile).exists()) {
@@ -261,14 +391,23 @@ public abstract class BLASTfeatureGeneratorProk {
 			pssms.put(seqID, getPsiBlastPSSM(infileFasta, database, outfileHits, outfilePSSM, numIter, pssmFileExists).toArray(new int[][]{}));
 
 		} else {
-			String hitsFile = localTempDir + "/psiblast_" + uniprotID + "_hits.txt";
-			boolean hitsFileExists = false;
-			if (new File(hitsFile).exists()) {
-				outfileHits = hitsFile;
-				hitsFileExists = true;
-			}
 			try {
-				Map<String, Double> currHits = getPsiBlastHits(infileFasta, database, new File(outfileHits), numIter, hitsFileExists);
+				// hits are only computed if the sequence was not yet searched against the database
+				BlastHitCache hitCache = BlastHitCache.getInstance(hitCacheDir);
+				String searchName = getSearchName(numIter);
+				Map<String, Double> currHits = hitCache.get(sequence, fastaFile, searchName);
+				if (currHits == null) {
+					if (useSmithWaterman) {
+						KmerIndex prefilter = useKmerPrefilter ? KmerIndex.getInstance(fastaFile) : null;
+						long start = System.nanoTime();
+						currHits = SmithWatermanSearch.getInstance(fastaFile).search(sequence, prefilter);
+						CostModel.getDefault().addObservation(CostModel.getStageName(searchName, fastaFile), sequence.length(), System.nanoTime() - start);
+						BasicTools.correctHitIDsProk(currHits);
+					} else {
+						currHits = getPsiBlastHits(seqID, sequence, database, "psiblast_" + uniprotID + "_hits.txt", numIter);
+					}
+					hitCache.put(sequence, fastaFile, searchName, currHits);
+				}
 
 				BlastResultFeature feature = computeFeaturesFromBlastResult(seqID, currHits);
 				logger.fine("Warnings: " + feature.getWarningCount());
@@ -283,22 +422,27 @@ public abstract class BLASTfeatureGeneratorProk {
 	}
 
 	/**
+	 * Searches the given sequence without temporary files (see
+	 * {@link PsiBlastRunner}).
 	 * 
-	 * @param fastaFile
+	 * @param seqID
+	 * @param sequence
 	 * @param database
-	 * @param hitsOutfile
+	 * @param reportName name of the report in the directory
+	 *        {@link #blastReportDir}
 	 * @param numIter
-	 * @param useExistingHitsFile
-	 * @return
-	 * @throws NumberFormatException
+	 * @return hits of the first iteration
 	 * @throws IOException
 	 */
-	protected Map<String, Double> getPsiBlastHits(String fastaFile, String database, File hitsOutfile, int numIter, boolean useExistingHitsFile) throws NumberFormatException, IOException {
-		if (!useExistingHitsFile) {
-			String cmd = path2BLAST + "bin/psiblast -query " + fastaFile + " -num_iterations " + numIter + " -db " + database + " -out " + hitsOutfile;
-			BasicTools.runCommand(cmd, false);
+	protected Map<String, Double> getPsiBlastHits(String seqID, String sequence, String database, String reportName, int numIter) throws IOException {
+		PsiBlastRunner psiBlast = new PsiBlastRunner(path2BLAST, database, numIter, 1);
+		psiBlast.setCostModel(CostModel.getDefault(), CostModel.getStageName("iter" + numIter, fastaFile));
+		if (blastReportDir != null) {
+			psiBlast.setReportDir(new File(blastReportDir));
 		}
-		return BasicTools.parseBLASTHitsProk(hitsOutfile);
+		Map<String, Double> blastHits = psiBlast.search(seqID, sequence, reportName);
+		BasicTools.correctHitIDsProk(blastHits);
+		return blastHits;
 	}
 
 	/**
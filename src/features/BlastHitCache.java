@@ -0,0 +1,437 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package features;
+
+import io.BlastDBcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of PSI-BLAST hit tables. The hits of a query sequence are
+ * stored per database and search method (e.g., number of PSI-BLAST iterations)
+ * in a file named by the digest of the sequence, so that a sequence is only
+ * searched once against a database regardless of its identifier and of the
+ * features computed from the hits.
+ * Each hit is stored as the index of the hit identifier in a dictionary of the
+ * database followed by the bit score. The dictionary is initialized with the
+ * identifiers of the database sequences and extended by unknown identifiers.
+ * <p>
+ * Databases are identified by the checksum of their FASTA file, so that the
+ * cached hits are invalidated automatically whenever a database changes.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class BlastHitCache {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(BlastHitCache.class.getName());
+
+	private static final String dictionaryFile = "hit_ids.txt";
+
+	/**
+	 * Caches shared by all feature generators and predictions of this JVM.
+	 */
+	private static final Map<String, BlastHitCache> instances = new HashMap<String, BlastHitCache>();
+
+	/**
+	 * Checksums of the database FASTA files which were already computed by this JVM.
+	 */
+	private static final Map<String, String> file2checksum = new ConcurrentHashMap<String, String>();
+
+	private String cacheDir;
+	private Map<String, HitDictionary> dictionaries = new HashMap<String, HitDictionary>();
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 *
+	 * @param cacheDir directory in which the hit tables are stored
+	 */
+	public BlastHitCache(String cacheDir) {
+		if (!cacheDir.endsWith("/")) cacheDir += "/";
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 *
+	 * @return the default cache directory located in the temporary directory of the system
+	 */
+	public static String getDefaultCacheDir() {
+		return System.getProperty("java.io.tmpdir") + File.separator + "TFpredict_blast_hits" + File.separator;
+	}
+
+	/**
+	 *
+	 * @param cacheDir
+	 * @return cache for the given directory which is shared within this JVM
+	 */
+	public static synchronized BlastHitCache getInstance(String cacheDir) {
+
+		String key = new File(cacheDir).getAbsolutePath();
+		BlastHitCache cache = instances.get(key);
+		if (cache == null) {
+			cache = new BlastHitCache(cacheDir);
+			instances.put(key, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 *
+	 * @param sequence query sequence
+	 * @param dbFastaFile FASTA file from which the BLAST database was created
+	 * @param numIter number of PSI-BLAST iterations
+	 * @return map from hit identifiers to bit scores or null if the sequence was not yet searched
+	 * @throws IOException
+	 */
+	public Map<String, Double> get(String sequence, String dbFastaFile, int numIter) throws IOException {
+		return get(sequence, dbFastaFile, "iter" + numIter);
+	}
+
+	/**
+	 *
+	 * @param sequence query sequence
+	 * @param dbFastaFile FASTA file of the searched database
+	 * @param searchName name of the search method and its settings, e.g.,
+	 *        {@link SmithWatermanSearch#searchName}
+	 * @return map from hit identifiers to bit scores or null if the sequence was not yet searched
+	 * @throws IOException
+	 */
+	public Map<String, Double> get(String sequence, String dbFastaFile, String searchName) throws IOException {
+
+		HitDictionary dictionary = getDictionary(dbFastaFile);
+		File entryFile = getEntryFile(dictionary, sequence, searchName);
+		Map<String, Double> currHits = null;
+		if (entryFile.exists()) {
+			currHits = readEntry(entryFile, dictionary);
+		}
+		if (currHits != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return currHits;
+	}
+
+	/**
+	 *
+	 * @param sequence query sequence
+	 * @param dbFastaFile FASTA file of the searched database
+	 * @param searchName name of the search method and its settings
+	 * @return {@code true} if the cache contains the hits of the sequence (the
+	 *         entry is not read and not counted as cache hit)
+	 * @throws IOException
+	 */
+	public boolean contains(String sequence, String dbFastaFile, String searchName) throws IOException {
+		return getEntryFile(getDictionary(dbFastaFile), sequence, searchName).exists();
+	}
+
+	/**
+	 *
+	 * @param sequence query sequence
+	 * @param dbFastaFile FASTA file from which the BLAST database was created
+	 * @param numIter number of PSI-BLAST iterations
+	 * @param currHits map from hit identifiers to bit scores
+	 * @throws IOException
+	 */
+	public void put(String sequence, String dbFastaFile, int numIter, Map<String, Double> currHits) throws IOException {
+		put(sequence, dbFastaFile, "iter" + numIter, currHits);
+	}
+
+	/**
+	 *
+	 * @param sequence query sequence
+	 * @param dbFastaFile FASTA file of the searched database
+	 * @param searchName name of the search method and its settings
+	 * @param currHits map from hit identifiers to bit scores
+	 * @throws IOException
+	 */
+	public void put(String sequence, String dbFastaFile, String searchName, Map<String, Double> currHits) throws IOException {
+
+		HitDictionary dictionary = getDictionary(dbFastaFile);
+		List<String> hitIDs = new ArrayList<String>(currHits.keySet());
+		int[] indices = dictionary.getIndices(hitIDs);
+
+		File entryFile = getEntryFile(dictionary, sequence, searchName);
+		entryFile.getParentFile().mkdirs();
+
+		// entries are written to a temporary file first, so that concurrent readers never see incomplete entries
+		File tmpFile = File.createTempFile(entryFile.getName() + ".", ".tmp", entryFile.getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(hitIDs.size());
+				for (int i=0; i<hitIDs.size(); i++) {
+					out.writeInt(indices[i]);
+					out.writeDouble(currHits.get(hitIDs.get(i)));
+				}
+			} finally {
+				out.close();
+			}
+			tmpFile.renameTo(entryFile);
+		} finally {
+			// no-op if the file was renamed
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 *
+	 * @return number of hit tables found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 *
+	 * @return number of hit tables not found in the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private File getEntryFile(HitDictionary dictionary, String sequence, String searchName) throws IOException {
+		String key = BlastDBcache.getChecksum(new ByteArrayInputStream(sequence.toUpperCase().getBytes("UTF-8")));
+		return new File(dictionary.dbDir + searchName + "/" + key.substring(0, 2) + "/" + key);
+	}
+
+	private Map<String, Double> readEntry(File entryFile, HitDictionary dictionary) {
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+			try {
+				int numHits = in.readInt();
+				Map<String, Double> currHits = new HashMap<String, Double>();
+				for (int i=0; i<numHits; i++) {
+					String hitID = dictionary.getID(in.readInt());
+					if (hitID == null) {
+						return null;
+					}
+					currHits.put(hitID, in.readDouble());
+				}
+				return currHits;
+			} finally {
+				in.close();
+			}
+		} catch (IOException exc) {
+			logger.warning("Could not read cached BLAST hits " + entryFile + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized HitDictionary getDictionary(String dbFastaFile) throws IOException {
+
+		String checksum = getFileChecksum(dbFastaFile);
+		HitDictionary dictionary = dictionaries.get(checksum);
+		if (dictionary == null) {
+			dictionary = new HitDictionary(cacheDir + checksum + "/", dbFastaFile);
+			dictionaries.put(checksum, dictionary);
+		}
+		return dictionary;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return hexadecimal MD5 checksum of the given file
+	 * @throws IOException
+	 */
+	static String getFileChecksum(String file) throws IOException {
+
+		File f = new File(file);
+		String key = f.getAbsolutePath() + "\t" + f.length() + "\t" + f.lastModified();
+		String checksum = file2checksum.get(key);
+		if (checksum == null) {
+			FileInputStream is = new FileInputStream(f);
+			try {
+				checksum = BlastDBcache.getChecksum(is);
+			} finally {
+				is.close();
+			}
+			file2checksum.put(key, checksum);
+		}
+		return checksum;
+	}
+
+	/**
+	 * Identifiers of the hits in one database. New identifiers are only
+	 * appended to the dictionary file, so that indices never change.
+	 */
+	private static class HitDictionary {
+
+		private String dbDir;
+		private File idFile;
+		private List<String> ids = new ArrayList<String>();
+		private Map<String, Integer> id2index = new HashMap<String, Integer>();
+		private long numBytesRead = 0;
+
+		private HitDictionary(String dbDir, String dbFastaFile) throws IOException {
+
+			this.dbDir = dbDir;
+			this.idFile = new File(dbDir + dictionaryFile);
+			if (!new File(dbDir).exists() && !new File(dbDir).mkdirs() && !new File(dbDir).exists()) {
+				throw new IOException("Could not create directory for BLAST hits: " + dbDir);
+			}
+
+			RandomAccessFile lockFile = new RandomAccessFile(dbDir + dictionaryFile + ".lock", "rw");
+			FileChannel channel = lockFile.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				if (!idFile.exists()) {
+					createDictionary(dbFastaFile);
+				}
+				readNewIDs();
+			} finally {
+				lock.release();
+				channel.close();
+				lockFile.close();
+			}
+		}
+
+		// dictionary is initialized with the identifiers of the database sequences (as reported by BLAST)
+		private void createDictionary(String dbFastaFile) throws IOException {
+
+			File tmpFile = new File(idFile.getPath() + ".tmp");
+			BufferedReader br = new BufferedReader(new FileReader(dbFastaFile));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.startsWith(">") && line.length() > 1) {
+						out.write((line.substring(1).trim().split("\\s+")[0] + "\n").getBytes("UTF-8"));
+					}
+				}
+			} finally {
+				out.close();
+				br.close();
+			}
+			if (!tmpFile.renameTo(idFile)) {
+				throw new IOException("Could not create dictionary of BLAST hits: " + idFile);
+			}
+		}
+
+		// reads identifiers appended by other processes (only called while holding the lock)
+		private void readNewIDs() throws IOException {
+
+			FileInputStream is = new FileInputStream(idFile);
+			try {
+				is.skip(numBytesRead);
+				BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+				String line;
+				while ((line = br.readLine()) != null) {
+					numBytesRead += line.getBytes("UTF-8").length + 1;
+					id2index.put(line, ids.size());
+					ids.add(line);
+				}
+			} finally {
+				is.close();
+			}
+		}
+
+		private synchronized String getID(int index) throws IOException {
+
+			if (index >= ids.size()) {
+				lockAndRead(null);
+			}
+			return (index >= 0 && index < ids.size()) ? ids.get(index) : null;
+		}
+
+		private synchronized int[] getIndices(List<String> hitIDs) throws IOException {
+
+			List<String> unknownIDs = new ArrayList<String>();
+			for (String hitID: hitIDs) {
+				if (!id2index.containsKey(hitID)) {
+					unknownIDs.add(hitID);
+				}
+			}
+			if (!unknownIDs.isEmpty()) {
+				lockAndRead(unknownIDs);
+			}
+			int[] indices = new int[hitIDs.size()];
+			for (int i=0; i<indices.length; i++) {
+				indices[i] = id2index.get(hitIDs.get(i));
+			}
+			return indices;
+		}
+
+		// reads new identifiers and appends the given ones if they are still unknown
+		private void lockAndRead(List<String> newIDs) throws IOException {
+
+			RandomAccessFile lockFile = new RandomAccessFile(dbDir + dictionaryFile + ".lock", "rw");
+			FileChannel channel = lockFile.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				readNewIDs();
+				if (newIDs != null) {
+					StringBuilder append = new StringBuilder();
+					for (String id: newIDs) {
+						if (!id2index.containsKey(id)) {
+							append.append(id);
+							append.append('\n');
+						}
+					}
+					if (append.length() > 0) {
+						FileOutputStream out = new FileOutputStream(idFile, true);
+						try {
+							out.write(append.toString().getBytes("UTF-8"));
+						} finally {
+							out.close();
+						}
+						readNewIDs();
+					}
+				}
+			} finally {
+				lock.release();
+				channel.close();
+				lockFile.close();
+			}
+		}
+	}
+}
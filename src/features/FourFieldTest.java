@@ -22,6 +22,8 @@
  */
 package features;
 
+import io.CpuBudget;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -273,7 +275,7 @@ public class FourFieldTest {
 
 		// process queue
 		//ExecutorService exec = Executors.newCachedThreadPool();
-		ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		ExecutorService exec = Executors.newFixedThreadPool(CpuBudget.getGlobal().getSize());
 		List<Future<Result>> results = null;
 		try {
 			results = exec.invokeAll(queue);
@@ -321,8 +323,14 @@ public class FourFieldTest {
 		@Override
 		public Result call() throws Exception {
 
-			double pvalue = computeM(num_tfs_ipr, sum_tf, num_nontfs_ipr, sum_nontf);	
-			return new Result(ipr, pvalue);
+			CpuBudget cpuBudget = CpuBudget.getGlobal();
+			int permits = cpuBudget.acquire(1);
+			try {
+				double pvalue = computeM(num_tfs_ipr, sum_tf, num_nontfs_ipr, sum_nontf);	
+				return new Result(ipr, pvalue);
+			} finally {
+				cpuBudget.release(permits);
+			}
 		}
 		
 	}
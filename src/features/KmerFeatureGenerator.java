@@ -59,6 +59,9 @@ public class KmerFeatureGenerator {
 	
 	private List<String> allKmers = new ArrayList<String>();
 	
+	// standard amino acids (index of each symbol in the fixed k-mer vocabulary)
+	private static final String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+	
 	public KmerFeatureGenerator(String fastaFile, String featureFile, boolean superPred, int kMin, int kMax) {
 		
 		this(fastaFile, featureFile, superPred);
@@ -121,6 +124,53 @@ public class KmerFeatureGenerator {
 	}
 	
 	
+	/**
+	 * Computes the relative frequencies of all k-mers over the 20 standard
+	 * amino acids. In contrast to the feature files written by this class, the
+	 * vocabulary does not depend on the training sequences, so that the
+	 * feature vectors of new sequences can be computed without the training
+	 * data. The k-mer at position i of the returned vector is the base-20
+	 * number formed by the indices of its amino acids in "ACDEFGHIKLMNPQRSTVWY".
+	 * k-mers which contain other symbols are skipped.
+	 * 
+	 * @param sequence
+	 * @param k
+	 * @return vector of length 20^k
+	 */
+	public static double[] getKmerFrequencies(String sequence, int k) {
+		
+		int numKmers = 1;
+		for (int i=0; i<k; i++) {
+			numKmers *= aminoAcids.length();
+		}
+		double[] frequencies = new double[numKmers];
+		
+		// index of the current k-mer and number of valid symbols preceding the current position
+		int kmerIdx = 0;
+		int numValid = 0;
+		int total = 0;
+		for (int i=0; i<sequence.length(); i++) {
+			int aaIdx = aminoAcids.indexOf(Character.toUpperCase(sequence.charAt(i)));
+			if (aaIdx < 0) {
+				numValid = 0;
+				kmerIdx = 0;
+				continue;
+			}
+			kmerIdx = (kmerIdx * aminoAcids.length() + aaIdx) % numKmers;
+			if (++numValid >= k) {
+				frequencies[kmerIdx]++;
+				total++;
+			}
+		}
+		if (total > 0) {
+			for (int i=0; i<numKmers; i++) {
+				frequencies[i] /= total;
+			}
+		}
+		return frequencies;
+	}
+	
+	
 	private void getAllKmers() {
 		
 		HashSet<String> kmerSet = new HashSet<String>();
@@ -0,0 +1,476 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package features;
+
+import io.BasicTools;
+import io.BlastDBcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import modes.Predict;
+
+/**
+ * Inverted index from residue words of length {@link #wordLength} to their
+ * positions in the sequences of a database. The index is used to select the
+ * database sequences which are aligned to a query as in the first stage of
+ * BLAST: each word of the query is expanded to its neighborhood, i.e., all
+ * words scoring at least {@link #neighborhoodThreshold} with BLOSUM62. If two
+ * non-overlapping neighborhood hits occur on the same diagonal within
+ * {@link #twoHitWindow} residues, the second hit is extended without gaps in
+ * both directions until the score drops by more than {@link #xDrop} below the
+ * best score. The sequence is a candidate if the score of the extended hit
+ * reaches {@link #minUngappedScore}.
+ * <p>
+ * The index is built once per database and stored next to its FASTA file with
+ * the suffix {@link #fileSuffix}. It is rebuilt whenever the FASTA file
+ * changes. The sequences are numbered in the order of the FASTA file, which is
+ * also the order used by {@link SmithWatermanSearch}.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class KmerIndex {
+
+	private static final Logger logger = Logger.getLogger(KmerIndex.class.getName());
+
+	/**
+	 * Word length, neighborhood threshold and window of the two-hit method
+	 * used by BLAST for proteins.
+	 */
+	public static final int wordLength = 3;
+	public static final int neighborhoodThreshold = 11;
+	public static final int twoHitWindow = 40;
+
+	/**
+	 * Drop-off of the ungapped extension (7 bits as in BLAST) and minimal raw
+	 * score of the extended hit of a candidate.
+	 */
+	public static final int xDrop = 15;
+	public static final int minUngappedScore = 36;
+
+	/**
+	 * Name of the hit tables of the prefiltered Smith-Waterman search in the
+	 * {@link BlastHitCache}.
+	 */
+	public static final String searchName = SmithWatermanSearch.searchName + "_kmer" + wordLength;
+
+	public static final String fileSuffix = ".kmer" + wordLength + ".idx";
+
+	// words only contain the standard amino acids, i.e., the first 20 residues of the alphabet of SmithWatermanSearch
+	private static final int alphabetSize = 20;
+	private static final int numWords = (int) Math.pow(alphabetSize, wordLength);
+	private static final int fileVersion = 1;
+
+	// hits are encoded as sequence index, diagonal and query position in one long value
+	private static final int positionBits = 20;
+	private static final int maxPosition = (1 << (positionBits - 1)) - 1;
+
+	// words with a score of at least neighborhoodThreshold for each word
+	private static final int[][] neighborhoods = new int[numWords][];
+	static {
+		byte[] word = new byte[wordLength];
+		byte[] neighbor = new byte[wordLength];
+		List<Integer> neighbors = new ArrayList<Integer>();
+		for (int w=0; w<numWords; w++) {
+			for (int i=wordLength-1, rest=w; i>=0; i--, rest/=alphabetSize) {
+				word[i] = (byte) (rest % alphabetSize);
+			}
+			neighbors.clear();
+			addNeighbors(word, neighbor, 0, 0, neighbors);
+			neighborhoods[w] = new int[neighbors.size()];
+			for (int i=0; i<neighbors.size(); i++) {
+				neighborhoods[w][i] = neighbors.get(i);
+			}
+		}
+	}
+
+	/**
+	 * Indices kept in memory, identified by the checksum of their FASTA file.
+	 */
+	private static final Map<String, KmerIndex> indices = new HashMap<String, KmerIndex>();
+
+	private int numSequences;
+	private byte[][] sequences;
+	// postings of word w are located at offsets[w] ... offsets[w+1]-1
+	private int[] offsets;
+	private int[] postingSequences;
+	private int[] postingPositions;
+
+	private KmerIndex() {
+	}
+
+	/**
+	 * Builds the index of the given sequences.
+	 *
+	 * @param sequences encoded sequences (see {@link SmithWatermanSearch#encode(String)})
+	 */
+	KmerIndex(byte[][] sequences) {
+
+		this.sequences = sequences;
+		numSequences = sequences.length;
+		offsets = new int[numWords + 1];
+		for (byte[] seq: sequences) {
+			for (int i=0; i<=seq.length-wordLength; i++) {
+				int word = getWord(seq, i);
+				if (word >= 0) offsets[word + 1]++;
+			}
+		}
+		for (int w=0; w<numWords; w++) {
+			offsets[w + 1] += offsets[w];
+		}
+
+		postingSequences = new int[offsets[numWords]];
+		postingPositions = new int[offsets[numWords]];
+		int[] next = Arrays.copyOf(offsets, numWords);
+		for (int s=0; s<sequences.length; s++) {
+			byte[] seq = sequences[s];
+			for (int i=0; i<=seq.length-wordLength; i++) {
+				int word = getWord(seq, i);
+				if (word >= 0) {
+					postingSequences[next[word]] = s;
+					postingPositions[next[word]] = i;
+					next[word]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the given database. The index is read from the file
+	 * next to the FASTA file or built and stored there, if it does not exist
+	 * or belongs to another version of the FASTA file.
+	 *
+	 * @param dbFastaFile FASTA file containing the database sequences
+	 * @return index which is kept in memory for all further searches
+	 * @throws IOException
+	 */
+	public static synchronized KmerIndex getInstance(String dbFastaFile) throws IOException {
+
+		String checksum = BlastHitCache.getFileChecksum(dbFastaFile);
+		KmerIndex index = indices.get(checksum);
+		if (index != null) {
+			return index;
+		}
+
+		File indexFile = new File(dbFastaFile + fileSuffix);
+		byte[][] sequences = SmithWatermanSearch.getInstance(dbFastaFile).getEncodedSequences();
+		if (indexFile.exists()) {
+			index = read(indexFile, checksum);
+		}
+		if (index != null) {
+			index.sequences = sequences;
+		} else {
+			logger.fine("Building k-mer index of " + dbFastaFile);
+			index = new KmerIndex(sequences);
+			try {
+				index.write(indexFile, checksum);
+			} catch (IOException exc) {
+				logger.warning("K-mer index could not be stored: " + exc.getMessage());
+			}
+		}
+		indices.put(checksum, index);
+		return index;
+	}
+
+	/**
+	 *
+	 * @return number of indexed sequences
+	 */
+	public int getNumSequences() {
+		return numSequences;
+	}
+
+	/**
+	 *
+	 * @param query
+	 * @return ascending indices of the database sequences with two
+	 *         neighborhood hits of the query on the same diagonal
+	 */
+	public int[] getCandidates(String query) {
+		return getCandidates(query, minUngappedScore);
+	}
+
+	private int[] getCandidates(String query, int minScore) {
+
+		byte[] seq = SmithWatermanSearch.encode(query);
+		int queryLength = Math.min(seq.length, maxPosition);
+		int numHits = 0;
+		for (int i=0; i<=queryLength-wordLength; i++) {
+			int word = getWord(seq, i);
+			if (word < 0) continue;
+			for (int neighbor: neighborhoods[word]) {
+				numHits += offsets[neighbor + 1] - offsets[neighbor];
+			}
+		}
+
+		// hits sorted by sequence, diagonal and query position
+		long[] hits = new long[numHits];
+		int k = 0;
+		for (int i=0; i<=queryLength-wordLength; i++) {
+			int word = getWord(seq, i);
+			if (word < 0) continue;
+			for (int neighbor: neighborhoods[word]) {
+				for (int p=offsets[neighbor]; p<offsets[neighbor + 1]; p++) {
+					if (postingPositions[p] > maxPosition) continue;
+					int diagonal = postingPositions[p] - i + queryLength;
+					hits[k++] = (((long) postingSequences[p]) << (2 * positionBits)) | (((long) diagonal) << positionBits) | i;
+				}
+			}
+		}
+		Arrays.sort(hits, 0, k);
+
+		int[] candidates = new int[numSequences];
+		int numCandidates = 0;
+		long positionMask = (1L << positionBits) - 1;
+		long extendedDiagonal = -1;
+		for (int h=1; h<k; h++) {
+			long diagonalKey = hits[h] >>> positionBits;
+			if (diagonalKey != (hits[h - 1] >>> positionBits) || diagonalKey == extendedDiagonal) {
+				continue;
+			}
+			int s = (int) (hits[h] >>> (2 * positionBits));
+			if (numCandidates > 0 && candidates[numCandidates - 1] == s) {
+				continue;
+			}
+			// overlapping hits are skipped, the previous hit is kept as the first hit
+			int distance = (int) ((hits[h] & positionMask) - (hits[h - 1] & positionMask));
+			if (distance < wordLength) {
+				hits[h] = hits[h - 1];
+			} else if (distance <= twoHitWindow) {
+				extendedDiagonal = diagonalKey;
+				int queryPos = (int) (hits[h] & positionMask);
+				int subjectPos = queryPos + (int) (diagonalKey & positionMask) - queryLength;
+				if (extendHit(seq, sequences[s], queryPos, subjectPos) >= minScore) {
+					candidates[numCandidates++] = s;
+				}
+			}
+		}
+		return Arrays.copyOf(candidates, numCandidates);
+	}
+
+	// returns the score of the ungapped extension of the word hit at the given positions
+	private static int extendHit(byte[] query, byte[] subject, int queryPos, int subjectPos) {
+
+		int wordScore = 0;
+		for (int i=0; i<wordLength; i++) {
+			wordScore += SmithWatermanSearch.getScore(query[queryPos + i], subject[subjectPos + i]);
+		}
+
+		int score = 0, maxRight = 0;
+		for (int i=queryPos+wordLength, j=subjectPos+wordLength; i<query.length && j<subject.length && score > maxRight - xDrop; i++, j++) {
+			score += SmithWatermanSearch.getScore(query[i], subject[j]);
+			maxRight = Math.max(maxRight, score);
+		}
+		score = 0;
+		int maxLeft = 0;
+		for (int i=queryPos-1, j=subjectPos-1; i>=0 && j>=0 && score > maxLeft - xDrop; i--, j--) {
+			score += SmithWatermanSearch.getScore(query[i], subject[j]);
+			maxLeft = Math.max(maxLeft, score);
+		}
+		return wordScore + maxLeft + maxRight;
+	}
+
+	// enumerates all words whose score with the given word reaches the neighborhood threshold
+	private static void addNeighbors(byte[] word, byte[] neighbor, int pos, int score, List<Integer> neighbors) {
+
+		if (pos == wordLength) {
+			if (score >= neighborhoodThreshold) {
+				neighbors.add(getWord(neighbor, 0));
+			}
+			return;
+		}
+		int maxRest = 0;
+		for (int i=pos+1; i<wordLength; i++) {
+			maxRest += SmithWatermanSearch.getScore(word[i], word[i]);
+		}
+		for (byte a=0; a<alphabetSize; a++) {
+			int currScore = score + SmithWatermanSearch.getScore(word[pos], a);
+			if (currScore + maxRest >= neighborhoodThreshold) {
+				neighbor[pos] = a;
+				addNeighbors(word, neighbor, pos + 1, currScore, neighbors);
+			}
+		}
+	}
+
+	// returns the number of the word starting at the given position or -1 if it contains non-standard residues
+	private static int getWord(byte[] seq, int start) {
+		int word = 0;
+		for (int i=start; i<start+wordLength; i++) {
+			if (seq[i] >= alphabetSize) {
+				return -1;
+			}
+			word = word * alphabetSize + seq[i];
+		}
+		return word;
+	}
+
+	// the index is written to a temporary file first, so that concurrent readers never see incomplete files
+	private void write(File indexFile, String checksum) throws IOException {
+
+		File tmpFile = File.createTempFile(indexFile.getName() + ".", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+			try {
+				out.writeInt(fileVersion);
+				out.writeInt(wordLength);
+				out.writeUTF(checksum);
+				out.writeInt(numSequences);
+				out.writeInt(postingSequences.length);
+				for (int offset: offsets) {
+					out.writeInt(offset);
+				}
+				for (int i=0; i<postingSequences.length; i++) {
+					out.writeInt(postingSequences[i]);
+					out.writeInt(postingPositions[i]);
+				}
+			} finally {
+				out.close();
+			}
+			tmpFile.renameTo(indexFile);
+		} finally {
+			// no-op if the file was renamed
+			tmpFile.delete();
+		}
+	}
+
+	// returns null if the file belongs to another version of the database or of the index
+	private static KmerIndex read(File indexFile, String checksum) {
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+			try {
+				if (in.readInt() != fileVersion || in.readInt() != wordLength || !in.readUTF().equals(checksum)) {
+					return null;
+				}
+				KmerIndex index = new KmerIndex();
+				index.numSequences = in.readInt();
+				int numPostings = in.readInt();
+				index.offsets = new int[numWords + 1];
+				for (int w=0; w<=numWords; w++) {
+					index.offsets[w] = in.readInt();
+				}
+				index.postingSequences = new int[numPostings];
+				index.postingPositions = new int[numPostings];
+				for (int i=0; i<numPostings; i++) {
+					index.postingSequences[i] = in.readInt();
+					index.postingPositions[i] = in.readInt();
+				}
+				return index;
+
+			} finally {
+				in.close();
+			}
+		} catch (IOException exc) {
+			logger.warning("K-mer index could not be read from " + indexFile + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Reports the recall of the prefilter with respect to the full
+	 * Smith-Waterman search, i.e., the fraction of the hits of the full search
+	 * which are also found after prefiltering.
+	 *
+	 * @param args optional: {@code dbFastaFile} (default: bundled prokaryotic
+	 *        TF/Non-TF database), {@code queryFastaFile} (default: database
+	 *        FASTA file) and number of queries (default: 200, sampled evenly
+	 *        from the query file)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		final int minSignificantBitScore = 40;
+
+		String dbFastaFile = (args.length > 0) ? args[0] : new BlastDBcache(BlastDBcache.getDefaultCacheDir(), "").getFastaFile(Predict.tfPredBlastFastaProk);
+		String queryFastaFile = (args.length > 1) ? args[1] : dbFastaFile;
+		int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+
+		SmithWatermanSearch engine = SmithWatermanSearch.getInstance(dbFastaFile);
+		long start = System.currentTimeMillis();
+		KmerIndex index = getInstance(dbFastaFile);
+		System.out.println("Index of " + index.getNumSequences() + " sequences loaded in " + (System.currentTimeMillis() - start) + " ms.");
+
+		Map<String, String> queries = BasicTools.readFASTA(queryFastaFile, true);
+		String[] queryIDs = queries.keySet().toArray(new String[] {});
+		Arrays.sort(queryIDs);
+		numQueries = Math.min(numQueries, queryIDs.length);
+
+		long fullTime = 0, prefilterTime = 0;
+		long numCandidates = 0, numHits = 0, numFoundHits = 0, numSignificantHits = 0, numFoundSignificantHits = 0;
+		double hitScore = 0, foundHitScore = 0;
+		int numCompleteQueries = 0;
+		for (int q=0; q<numQueries; q++) {
+			String query = queries.get(queryIDs[(int) ((long) q * queryIDs.length / numQueries)]);
+
+			start = System.currentTimeMillis();
+			Map<String, Double> fullHits = engine.search(query);
+			fullTime += System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			int[] candidates = index.getCandidates(query);
+			Map<String, Double> prefilterHits = engine.search(query, candidates);
+			prefilterTime += System.currentTimeMillis() - start;
+
+			numCandidates += candidates.length;
+			boolean complete = true;
+			for (String hitID: fullHits.keySet()) {
+				boolean significant = fullHits.get(hitID) >= minSignificantBitScore;
+				numHits++;
+				hitScore += fullHits.get(hitID);
+				if (significant) numSignificantHits++;
+				if (prefilterHits.containsKey(hitID)) {
+					numFoundHits++;
+					foundHitScore += fullHits.get(hitID);
+					if (significant) numFoundSignificantHits++;
+				} else {
+					complete = false;
+				}
+			}
+			if (complete) numCompleteQueries++;
+		}
+
+		System.out.println("Queries:                      " + numQueries);
+		System.out.println("Candidates per query:         " + String.format(Locale.ENGLISH, "%.1f (%.2f%% of the database)", (double) numCandidates / numQueries, 100d * numCandidates / numQueries / index.getNumSequences()));
+		System.out.println("Recall of hits:               " + String.format(Locale.ENGLISH, "%.4f (%d / %d)", (double) numFoundHits / numHits, numFoundHits, numHits));
+		System.out.println("Recall weighted by bit score: " + String.format(Locale.ENGLISH, "%.4f", foundHitScore / hitScore));
+		System.out.println("Recall of hits >= " + minSignificantBitScore + " bits:    " + String.format(Locale.ENGLISH, "%.4f (%d / %d)", (double) numFoundSignificantHits / numSignificantHits, numFoundSignificantHits, numSignificantHits));
+		System.out.println("Queries with all hits:        " + numCompleteQueries + " / " + numQueries);
+		System.out.println("Time full search:             " + fullTime + " ms");
+		System.out.println("Time prefiltered search:      " + prefilterTime + " ms");
+	}
+}
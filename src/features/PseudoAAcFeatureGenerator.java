@@ -93,8 +93,11 @@ public class PseudoAAcFeatureGenerator {
 		readAAcAttributes();
 	}	
 	
-	private static void readAAcAttributes() {
+	private static synchronized void readAAcAttributes() {
 		
+		if (!aac2mass.isEmpty()) {
+			return;
+		}
 		List<String> lines = BasicTools.readResource2List(aa_attr);
 		List<String[]> splittedLines = new ArrayList<String[]>();
 		for (int i = 0; i < lines.size(); i++) {
@@ -130,11 +133,31 @@ public class PseudoAAcFeatureGenerator {
 	private void calcPseudoAAcFeatures() {
 		
 		for (String seqID: sequences.keySet()) {
-			features.put(seqID, calcPseudoAAcFeatureVector(sequences.get(seqID)));
+			features.put(seqID, calcPseudoAAcFeatureVector(sequences.get(seqID), weight, lambdaMax));
 		}
 	}
 	
-	private double[] calcPseudoAAcFeatureVector(String seq) {
+	/**
+	 * Computes the pseudo amino acid composition of a single sequence. Symbols
+	 * other than the 20 standard amino acids are removed from the sequence.
+	 * 
+	 * @param sequence
+	 * @param weight weight of the sequence-order correlation factors
+	 * @param lambdaMax maximal distance of the correlated residues
+	 * @return vector of length 20 + {@code lambdaMax} (the correlation factors
+	 *         are 0 if the sequence is not longer than the distance)
+	 */
+	public static double[] getFeatureVector(String sequence, double weight, int lambdaMax) {
+		
+		readAAcAttributes();
+		String seq = sequence.toUpperCase().replaceAll("[^ACDEFGHIKLMNPQRSTVWY]", "");
+		if (seq.isEmpty()) {
+			return new double[AAcs.length + lambdaMax];
+		}
+		return calcPseudoAAcFeatureVector(seq, weight, lambdaMax);
+	}
+	
+	private static double[] calcPseudoAAcFeatureVector(String seq, double weight, int lambdaMax) {
 		
 		double[] normalFeatures = calcAAcFrequencies(seq);
 		double[] pseudoFeatures = calcPseudoAAcScores(seq, lambdaMax);
@@ -163,6 +186,10 @@ public class PseudoAAcFeatureGenerator {
    
 	private static double calcPseudoAAcScore(String seq, int lambda) {
 		
+		// no pair of residues with this distance
+		if (seq.length() <= lambda) {
+			return 0;
+		}
 		double score = 0;
 		for (int i=0; i<seq.length()-lambda; i++) {
 			score += calcPairwisePseudoAAcScore(seq.substring(i, i+1), seq.substring(i+lambda,i+lambda+1));
@@ -0,0 +1,166 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package features;
+
+import io.BasicTools;
+import io.BlastHitParser;
+import io.CpuBudget;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the percentile features computed from the hits of
+ * {@link SmithWatermanSearch} with those computed from the first iteration of
+ * PSI-BLAST on the same query sequences and database. For each feature, the
+ * mean absolute difference and the Pearson correlation between both engines
+ * are reported, as well as the overlap of the hit sets.
+ * <p>
+ * Please note that the environment variable {@code BLAST_DIR} must point to
+ * the local installation of BLAST.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class SearchEngineValidation {
+
+	/**
+	 *
+	 * @param args {@code queryFastaFile}, {@code dbFastaFile} and optionally
+	 *        {@code true} for features of the superclass prediction
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.out.println("Usage: java features.SearchEngineValidation <queryFastaFile> <dbFastaFile> [superPred]");
+			System.exit(0);
+		}
+		String queryFastaFile = args[0];
+		String dbFastaFile = args[1];
+		boolean superPred = (args.length > 2) && Boolean.parseBoolean(args[2]);
+
+		String blastPath = System.getenv("BLAST_DIR");
+		if ((blastPath == null) || (blastPath.length() == 0)) {
+			throw new RuntimeException("Cannot execute the BLAST tool, because no path to its local installation has been defined. Please define the environment variable BLAST_DIR to point to the BLAST directory on your OS and run this program again.");
+		}
+		if (!blastPath.endsWith("/")) blastPath += "/";
+
+		Map<String, String> queries = BasicTools.readFASTA(queryFastaFile, true);
+		Map<String, Integer> seq2label = DomainFeatureGenerator.getLabelsFromFastaHeaders(BasicTools.readFASTA(dbFastaFile, true).keySet(), superPred, false);
+
+		// hits of the first PSI-BLAST iteration
+		long start = System.currentTimeMillis();
+		Map<String, Map<String, Double>> blastHits = new HashMap<String, Map<String, Double>>();
+		File tmpDir = Files.createTempDirectory("TFpredict_validation_").toFile();
+		try {
+			String database = tmpDir.getPath() + "/db";
+			BasicTools.runCommand(new String[] {blastPath + "bin/makeblastdb", "-in", dbFastaFile, "-out", database, "-dbtype", "prot"}, false);
+			for (String seqID: queries.keySet()) {
+				File queryFile = new File(tmpDir, "query.fasta");
+				File hitsFile = new File(tmpDir, "query.hits");
+				BasicTools.writeFASTA(seqID, queries.get(seqID), queryFile.getPath());
+				BasicTools.runCommand(new String[] {blastPath + "bin/psiblast", "-query", queryFile.getPath(), "-num_iterations", "1", "-db", database, "-out", hitsFile.getPath(), "-outfmt", BlastHitParser.outputFormat}, false);
+				blastHits.put(seqID, BlastHitParser.parseHits(hitsFile, 1));
+			}
+		} finally {
+			for (File file: tmpDir.listFiles()) {
+				file.delete();
+			}
+			tmpDir.delete();
+		}
+		long blastTime = System.currentTimeMillis() - start;
+
+		// hits of the Smith-Waterman engine
+		start = System.currentTimeMillis();
+		Map<String, Map<String, Double>> swHits = SmithWatermanSearch.getInstance(dbFastaFile).search(queries, CpuBudget.getGlobal().getSize());
+		long swTime = System.currentTimeMillis() - start;
+
+		Map<String, double[]> blastFeatures = computeFeatures(blastHits, seq2label, superPred);
+		Map<String, double[]> swFeatures = computeFeatures(swHits, seq2label, superPred);
+
+		// overlap of the hit sets
+		int numSharedHits = 0;
+		int numBlastHits = 0;
+		int numSWhits = 0;
+		for (String seqID: queries.keySet()) {
+			for (String hitID: blastHits.get(seqID).keySet()) {
+				if (swHits.get(seqID).containsKey(hitID)) numSharedHits++;
+			}
+			numBlastHits += blastHits.get(seqID).size();
+			numSWhits += swHits.get(seqID).size();
+		}
+
+		System.out.println("Sequences:            " + queries.size());
+		System.out.println("PSI-BLAST:            " + blastTime + " ms, " + numBlastHits + " hit(s)");
+		System.out.println("Smith-Waterman:       " + swTime + " ms, " + numSWhits + " hit(s)");
+		System.out.println("Shared hits:          " + numSharedHits);
+		System.out.println();
+		System.out.println("Feature\tMeanAbsDiff\tPearson");
+
+		int numFeatures = blastFeatures.values().iterator().next().length;
+		for (int f=0; f<numFeatures; f++) {
+			double[] x = new double[blastFeatures.size()];
+			double[] y = new double[blastFeatures.size()];
+			double sumAbsDiff = 0;
+			int i = 0;
+			for (String seqID: blastFeatures.keySet()) {
+				x[i] = blastFeatures.get(seqID)[f];
+				y[i] = swFeatures.get(seqID)[f];
+				sumAbsDiff += Math.abs(x[i] - y[i]);
+				i++;
+			}
+			System.out.println((f + 1) + "\t" + String.format(Locale.ENGLISH, "%.3f", sumAbsDiff / x.length) + "\t" + String.format(Locale.ENGLISH, "%.4f", getPearsonCorrelation(x, y)));
+		}
+	}
+
+	private static Map<String, double[]> computeFeatures(Map<String, Map<String, Double>> hits, Map<String, Integer> seq2label, boolean superPred) {
+		PercentileFeatureGenerator featureGenerator = new PercentileFeatureGenerator(hits, seq2label, superPred);
+		featureGenerator.computeFeaturesFromBlastResult();
+		return featureGenerator.getFeatures();
+	}
+
+	private static double getPearsonCorrelation(double[] x, double[] y) {
+
+		double meanX = 0, meanY = 0;
+		for (int i=0; i<x.length; i++) {
+			meanX += x[i] / x.length;
+			meanY += y[i] / y.length;
+		}
+		double cov = 0, varX = 0, varY = 0;
+		for (int i=0; i<x.length; i++) {
+			cov += (x[i] - meanX) * (y[i] - meanY);
+			varX += (x[i] - meanX) * (x[i] - meanX);
+			varY += (y[i] - meanY) * (y[i] - meanY);
+		}
+		if (varX == 0 || varY == 0) {
+			return Double.NaN;
+		}
+		return cov / Math.sqrt(varX * varY);
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package features;
+
+import io.CostModel;
+import io.CpuBudget;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In-process homology search which can be used instead of the first
+ * iteration of PSI-BLAST. Each query is aligned to all sequences of a
+ * database kept in memory by the striped Smith-Waterman algorithm of Farrar
+ * (2007) with BLOSUM62 and the gap costs used by BLAST (11/1). Raw scores are
+ * converted into bit scores with the Karlin-Altschul parameters of BLAST for
+ * this scoring system, and hits are reported with the same E-value cutoff,
+ * maximum number of hits and rounding of bit scores as in the tabular BLAST
+ * output, so that the features computed from the hits are comparable.
+ * <p>
+ * The query profile and the dynamic programming rows are laid out in
+ * {@link #numLanes} interleaved stripes, so that the inner loops over the
+ * lanes can be vectorized by the JIT compiler.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class SmithWatermanSearch {
+
+	/**
+	 * Name of the hit tables of this engine in the {@link BlastHitCache}.
+	 */
+	public static final String searchName = "sw";
+
+	/**
+	 * Karlin-Altschul parameters of BLOSUM62 with gap costs 11/1.
+	 */
+	public static final double lambda = 0.267;
+	public static final double K = 0.041;
+
+	public static final int gapOpen = 11;
+	public static final int gapExtend = 1;
+
+	/**
+	 * Defaults of PSI-BLAST for the E-value cutoff and the number of reported hits.
+	 */
+	public static final double maxEvalue = 10;
+	public static final int maxNumHits = 500;
+
+	private static final int numLanes = 8;
+	private static final int minScore = -1000000;
+
+	private static final String alphabet = "ARNDCQEGHILKMFPSTWYVBZX*";
+	private static final int unknownResidue = alphabet.indexOf('X');
+
+	private static final int[][] blosum62 = {
+		{ 4, -1, -2, -2,  0, -1, -1,  0, -2, -1, -1, -1, -1, -2, -1,  1,  0, -3, -2,  0, -2, -1,  0, -4},
+		{-1,  5,  0, -2, -3,  1,  0, -2,  0, -3, -2,  2, -1, -3, -2, -1, -1, -3, -2, -3, -1,  0, -1, -4},
+		{-2,  0,  6,  1, -3,  0,  0,  0,  1, -3, -3,  0, -2, -3, -2,  1,  0, -4, -2, -3,  3,  0, -1, -4},
+		{-2, -2,  1,  6, -3,  0,  2, -1, -1, -3, -4, -1, -3, -3, -1,  0, -1, -4, -3, -3,  4,  1, -1, -4},
+		{ 0, -3, -3, -3,  9, -3, -4, -3, -3, -1, -1, -3, -1, -2, -3, -1, -1, -2, -2, -1, -3, -3, -2, -4},
+		{-1,  1,  0,  0, -3,  5,  2, -2,  0, -3, -2,  1,  0, -3, -1,  0, -1, -2, -1, -2,  0,  3, -1, -4},
+		{-1,  0,  0,  2, -4,  2,  5, -2,  0, -3, -3,  1, -2, -3, -1,  0, -1, -3, -2, -2,  1,  4, -1, -4},
+		{ 0, -2,  0, -1, -3, -2, -2,  6, -2, -4, -4, -2, -3, -3, -2,  0, -2, -2, -3, -3, -1, -2, -1, -4},
+		{-2,  0,  1, -1, -3,  0,  0, -2,  8, -3, -3, -1, -2, -1, -2, -1, -2, -2,  2, -3,  0,  0, -1, -4},
+		{-1, -3, -3, -3, -1, -3, -3, -4, -3,  4,  2, -3,  1,  0, -3, -2, -1, -3, -1,  3, -3, -3, -1, -4},
+		{-1, -2, -3, -4, -1, -2, -3, -4, -3,  2,  4, -2,  2,  0, -3, -2, -1, -2, -1,  1, -4, -3, -1, -4},
+		{-1,  2,  0, -1, -3,  1,  1, -2, -1, -3, -2,  5, -1, -3, -1,  0, -1, -3, -2, -2,  0,  1, -1, -4},
+		{-1, -1, -2, -3, -1,  0, -2, -3, -2,  1,  2, -1,  5,  0, -2, -1, -1, -1, -1,  1, -3, -1, -1, -4},
+		{-2, -3, -3, -3, -2, -3, -3, -3, -1,  0,  0, -3,  0,  6, -4, -2, -2,  1,  3, -1, -3, -3, -1, -4},
+		{-1, -2, -2, -1, -3, -1, -1, -2, -2, -3, -3, -1, -2, -4,  7, -1, -1, -4, -3, -2, -2, -1, -2, -4},
+		{ 1, -1,  1,  0, -1,  0,  0,  0, -1, -2, -2,  0, -1, -2, -1,  4,  1, -3, -2, -2,  0,  0,  0, -4},
+		{ 0, -1,  0, -1, -1, -1, -1, -2, -2, -1, -1, -1, -1, -2, -1,  1,  5, -2, -2,  0, -1, -1,  0, -4},
+		{-3, -3, -4, -4, -2, -2, -3, -2, -2, -3, -2, -3, -1,  1, -4, -3, -2, 11,  2, -3, -4, -3, -2, -4},
+		{-2, -2, -2, -3, -2, -1, -2, -3,  2, -1, -1, -2, -1,  3, -3, -2, -2,  2,  7, -1, -3, -2, -1, -4},
+		{ 0, -3, -3, -3, -1, -2, -2, -3, -3,  3,  1, -2,  1, -1, -2, -2,  0, -3, -1,  4, -3, -2, -1, -4},
+		{-2, -1,  3,  4, -3,  0,  1, -1,  0, -3, -4,  0, -3, -3, -2,  0, -1, -4, -3, -3,  4,  1, -1, -4},
+		{-1,  0,  0,  1, -3,  3,  4, -2,  0, -3, -3,  1, -1, -3, -1,  0, -1, -3, -2, -2,  1,  4, -1, -4},
+		{ 0, -1, -1, -1, -2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -2,  0,  0, -2, -1, -1, -1, -1, -1, -4},
+		{-4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4,  1}
+	};
+
+	/**
+	 * Databases kept in memory, identified by the checksum of their FASTA file.
+	 */
+	private static final Map<String, SmithWatermanSearch> databases = new HashMap<String, SmithWatermanSearch>();
+
+	private String[] hitIDs;
+	private byte[][] dbSequences;
+	private long dbLength = 0;
+	private String dbFastaFile;
+
+	/**
+	 *
+	 * @param dbFastaFile FASTA file containing the database sequences
+	 * @throws IOException
+	 */
+	public SmithWatermanSearch(String dbFastaFile) throws IOException {
+
+		this.dbFastaFile = dbFastaFile;
+		List<String> ids = new ArrayList<String>();
+		List<byte[]> seqs = new ArrayList<byte[]>();
+		BufferedReader br = new BufferedReader(new FileReader(new File(dbFastaFile)));
+		try {
+			StringBuilder currSeq = null;
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (currSeq != null) {
+						seqs.add(encode(currSeq.toString()));
+					}
+					// identifier as reported by BLAST (first word of the header)
+					ids.add(line.substring(1).trim().split("\\s+")[0]);
+					currSeq = new StringBuilder();
+				} else if (currSeq != null) {
+					currSeq.append(line.trim());
+				}
+			}
+			if (currSeq != null) {
+				seqs.add(encode(currSeq.toString()));
+			}
+		} finally {
+			br.close();
+		}
+		hitIDs = ids.toArray(new String[] {});
+		dbSequences = seqs.toArray(new byte[][] {});
+		for (byte[] seq: dbSequences) {
+			dbLength += seq.length;
+		}
+	}
+
+	/**
+	 *
+	 * @param dbFastaFile
+	 * @return search engine for the given database which is kept in memory for all further searches
+	 * @throws IOException
+	 */
+	public static synchronized SmithWatermanSearch getInstance(String dbFastaFile) throws IOException {
+
+		String checksum = BlastHitCache.getFileChecksum(dbFastaFile);
+		SmithWatermanSearch engine = databases.get(checksum);
+		if (engine == null) {
+			engine = new SmithWatermanSearch(dbFastaFile);
+			databases.put(checksum, engine);
+		}
+		return engine;
+	}
+
+	/**
+	 *
+	 * @return number of sequences in the database
+	 */
+	public int getNumSequences() {
+		return dbSequences.length;
+	}
+
+	/**
+	 *
+	 * @return identifiers of the database sequences
+	 */
+	String[] getIDs() {
+		return hitIDs;
+	}
+
+	/**
+	 *
+	 * @return encoded database sequences (see {@link #encode(String)})
+	 */
+	byte[][] getEncodedSequences() {
+		return dbSequences;
+	}
+
+	/**
+	 *
+	 * @param prefilter index used to select the aligned sequences or null
+	 * @return name of the searches of this engine in the {@link CostModel}
+	 */
+	public String getStageName(KmerIndex prefilter) {
+		return CostModel.getStageName((prefilter != null) ? KmerIndex.searchName : searchName, dbFastaFile);
+	}
+
+	/**
+	 *
+	 * @param query
+	 * @return map from hit identifiers to bit scores
+	 */
+	public Map<String, Double> search(String query) {
+		return search(query, (int[]) null);
+	}
+
+	/**
+	 * Aligns the query only to the given database sequences, e.g., the
+	 * candidates selected by a {@link KmerIndex}. E-values still refer to the
+	 * size of the whole database, so that the scores of the aligned sequences
+	 * are identical to those of a full search.
+	 *
+	 * @param query
+	 * @param targets indices of the database sequences to be aligned or null to align all sequences
+	 * @return map from hit identifiers to bit scores
+	 */
+	public Map<String, Double> search(String query, int[] targets) {
+
+		byte[] encodedQuery = encode(query);
+		QueryProfile profile = new QueryProfile(encodedQuery);
+
+		int[] scores = new int[dbSequences.length];
+		if (targets == null) {
+			for (int i=0; i<dbSequences.length; i++) {
+				scores[i] = profile.align(dbSequences[i]);
+			}
+		} else {
+			for (int i: targets) {
+				scores[i] = profile.align(dbSequences[i]);
+			}
+		}
+		return getHits(scores, encodedQuery.length);
+	}
+
+	/**
+	 *
+	 * @param query
+	 * @param prefilter index of the database used to select the aligned sequences or null to align all sequences
+	 * @return map from hit identifiers to bit scores
+	 */
+	public Map<String, Double> search(String query, KmerIndex prefilter) {
+		return search(query, (prefilter != null) ? prefilter.getCandidates(query) : null);
+	}
+
+	/**
+	 * Searches the given queries in parallel.
+	 *
+	 * @param queries map from sequence identifiers to sequences
+	 * @param numThreads
+	 * @return map from sequence identifiers to hits (identifiers and bit scores)
+	 * @throws IOException
+	 */
+	public Map<String, Map<String, Double>> search(Map<String, String> queries, int numThreads) throws IOException {
+		return search(queries, numThreads, null);
+	}
+
+	/**
+	 * Searches the given queries in parallel. The queries are started longest
+	 * first and their runtimes are recorded in the default {@link CostModel}.
+	 *
+	 * @param queries map from sequence identifiers to sequences
+	 * @param numThreads
+	 * @param prefilter index of the database used to select the aligned sequences or null to align all sequences
+	 * @return map from sequence identifiers to hits (identifiers and bit scores)
+	 * @throws IOException
+	 */
+	public Map<String, Map<String, Double>> search(Map<String, String> queries, int numThreads, final KmerIndex prefilter) throws IOException {
+
+		final CostModel costModel = CostModel.getDefault();
+		final String stage = getStageName(prefilter);
+		Map<String, Future<Map<String, Double>>> results = new HashMap<String, Future<Map<String, Double>>>();
+		ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, queries.size())));
+		try {
+			for (String seqID: CostModel.getLongestFirst(queries)) {
+				final String query = queries.get(seqID);
+				results.put(seqID, exec.submit(new Callable<Map<String, Double>>() {
+					@Override
+					public Map<String, Double> call() throws InterruptedException {
+						CpuBudget cpuBudget = CpuBudget.getGlobal();
+						int permits = cpuBudget.acquire(1);
+						try {
+							long start = System.nanoTime();
+							Map<String, Double> hits = search(query, prefilter);
+							costModel.addObservation(stage, query.length(), System.nanoTime() - start);
+							return hits;
+						} finally {
+							cpuBudget.release(permits);
+						}
+					}
+				}));
+			}
+			Map<String, Map<String, Double>> hits = new LinkedHashMap<String, Map<String, Double>>();
+			for (String seqID: queries.keySet()) {
+				hits.put(seqID, results.get(seqID).get());
+			}
+			return hits;
+
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	// applies E-value cutoff and maximum number of hits, rounds bit scores as in the tabular BLAST output
+	private Map<String, Double> getHits(final int[] scores, int queryLength) {
+
+		double searchSpace = K * queryLength * (double) dbLength;
+		List<Integer> hitIndices = new ArrayList<Integer>();
+		for (int i=0; i<scores.length; i++) {
+			if (scores[i] > 0 && searchSpace * Math.exp(-lambda * scores[i]) <= maxEvalue) {
+				hitIndices.add(i);
+			}
+		}
+		if (hitIndices.size() > maxNumHits) {
+			Collections.sort(hitIndices, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return scores[i2] - scores[i1];
+				}
+			});
+			hitIndices = hitIndices.subList(0, maxNumHits);
+		}
+
+		Map<String, Double> hits = new HashMap<String, Double>();
+		for (int i: hitIndices) {
+			double bitScore = getBitScore(scores[i]);
+			Double prevScore = hits.get(hitIDs[i]);
+			if (prevScore == null || prevScore < bitScore) {
+				hits.put(hitIDs[i], bitScore);
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 *
+	 * @param score raw alignment score
+	 * @return bit score rounded as in the tabular BLAST output
+	 */
+	public static double getBitScore(int score) {
+		double bitScore = (lambda * score - Math.log(K)) / Math.log(2);
+		return Double.parseDouble(String.format(Locale.US, (bitScore > 99.9) ? "%.0f" : "%.1f", bitScore));
+	}
+
+	/**
+	 *
+	 * @param residue1 encoded residue (see {@link #encode(String)})
+	 * @param residue2 encoded residue
+	 * @return BLOSUM62 score of the given residues
+	 */
+	static int getScore(int residue1, int residue2) {
+		return blosum62[residue1][residue2];
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return indices of the residues in the scoring matrix
+	 */
+	static byte[] encode(String sequence) {
+
+		byte[] encoded = new byte[sequence.length()];
+		for (int i=0; i<encoded.length; i++) {
+			int idx = alphabet.indexOf(Character.toUpperCase(sequence.charAt(i)));
+			encoded[i] = (byte) ((idx < 0) ? unknownResidue : idx);
+		}
+		return encoded;
+	}
+
+	/**
+	 *
+	 * @param seq1 encoded sequence
+	 * @param seq2 encoded sequence
+	 * @return score of the best local alignment computed without striping (used for validation)
+	 */
+	static int alignUnstriped(byte[] seq1, byte[] seq2) {
+
+		int[] H = new int[seq1.length + 1];
+		int[] E = new int[seq1.length + 1];
+		Arrays.fill(E, minScore);
+		int maxScore = 0;
+		for (int j=1; j<=seq2.length; j++) {
+			int diag = 0;
+			int F = minScore;
+			for (int i=1; i<=seq1.length; i++) {
+				E[i] = Math.max(E[i] - gapExtend, H[i] - gapOpen - gapExtend);
+				F = Math.max(F - gapExtend, H[i-1] - gapOpen - gapExtend);
+				int h = Math.max(0, Math.max(diag + blosum62[seq1[i-1]][seq2[j-1]], Math.max(E[i], F)));
+				diag = H[i];
+				H[i] = h;
+				maxScore = Math.max(maxScore, h);
+			}
+		}
+		return maxScore;
+	}
+
+	/**
+	 * Striped query profile and dynamic programming rows of one query. Position
+	 * i of the query is stored in segment i % segLength and lane i / segLength.
+	 */
+	private static class QueryProfile {
+
+		private int segLength;
+		private int[][] profile;
+		private int[] hLoad;
+		private int[] hStore;
+		private int[] e;
+		private int[] vH = new int[numLanes];
+		private int[] vF = new int[numLanes];
+		private int[] vMax = new int[numLanes];
+
+		private QueryProfile(byte[] query) {
+
+			segLength = Math.max(1, (query.length + numLanes - 1) / numLanes);
+			int size = segLength * numLanes;
+			profile = new int[alphabet.length()][size];
+			for (int a=0; a<alphabet.length(); a++) {
+				for (int s=0; s<segLength; s++) {
+					for (int l=0; l<numLanes; l++) {
+						int i = l * segLength + s;
+						profile[a][s * numLanes + l] = (i < query.length) ? blosum62[query[i]][a] : minScore;
+					}
+				}
+			}
+			hLoad = new int[size];
+			hStore = new int[size];
+			e = new int[size];
+		}
+
+		private int align(byte[] subject) {
+
+			final int gapOpenExtend = gapOpen + gapExtend;
+			final int lastSegment = (segLength - 1) * numLanes;
+			final int[] e = this.e;
+			final int[] vH = this.vH;
+			final int[] vF = this.vF;
+			final int[] vMax = this.vMax;
+			int[] hLoad = this.hLoad;
+			int[] hStore = this.hStore;
+			Arrays.fill(hStore, 0);
+			Arrays.fill(e, minScore);
+			Arrays.fill(vMax, 0);
+
+			for (int j=0; j<subject.length; j++) {
+				final int[] scores = profile[subject[j]];
+
+				// H values of the previous column shifted by one query position
+				vH[0] = 0;
+				for (int l=1; l<numLanes; l++) {
+					vH[l] = hStore[lastSegment + l - 1];
+				}
+				int[] swap = hLoad;
+				hLoad = hStore;
+				hStore = swap;
+				Arrays.fill(vF, minScore);
+
+				for (int offset=0; offset<=lastSegment; offset+=numLanes) {
+					for (int l=0; l<numLanes; l++) {
+						int h = Math.max(Math.max(vH[l] + scores[offset + l], e[offset + l]), Math.max(vF[l], 0));
+						vMax[l] = Math.max(vMax[l], h);
+						hStore[offset + l] = h;
+						int hGap = h - gapOpenExtend;
+						e[offset + l] = Math.max(e[offset + l] - gapExtend, hGap);
+						vF[l] = Math.max(vF[l] - gapExtend, hGap);
+						vH[l] = hLoad[offset + l];
+					}
+				}
+
+				// lazy evaluation of vertical gaps crossing the stripes
+				shift(vF);
+				int offset = 0;
+				while (true) {
+					boolean update = false;
+					for (int l=0; l<numLanes; l++) {
+						update |= vF[l] > hStore[offset + l] - gapOpenExtend;
+					}
+					if (!update) {
+						break;
+					}
+					for (int l=0; l<numLanes; l++) {
+						int h = Math.max(hStore[offset + l], vF[l]);
+						hStore[offset + l] = h;
+						e[offset + l] = Math.max(e[offset + l], h - gapOpenExtend);
+						vF[l] -= gapExtend;
+					}
+					offset += numLanes;
+					if (offset > lastSegment) {
+						offset = 0;
+						shift(vF);
+					}
+				}
+			}
+			this.hLoad = hLoad;
+			this.hStore = hStore;
+
+			int maxScore = 0;
+			for (int l=0; l<numLanes; l++) {
+				maxScore = Math.max(maxScore, vMax[l]);
+			}
+			return maxScore;
+		}
+
+		// moves the values to the next lane, i.e., to the query position following the last segment
+		private static void shift(int[] vector) {
+			for (int l=numLanes-1; l>0; l--) {
+				vector[l] = vector[l-1];
+			}
+			vector[0] = minScore;
+		}
+	}
+}
@@ -37,9 +37,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.stat.descriptive.moment.Mean;
@@ -295,11 +300,11 @@ public class BasicTools {
 	 * 
 	 * @param fasta_file
 	 * @param readFullHeader
-	 * @return
+	 * @return map from headers to sequences in the order of the file
 	 */
 	public static Map<String, String> readFASTA(String fasta_file, boolean readFullHeader) {
 		
-		Map<String, String> sequences = new HashMap<String, String>();
+		Map<String, String> sequences = new LinkedHashMap<String, String>();
 
 		BufferedReader br = null;
 		try {
@@ -319,18 +324,7 @@ public class BasicTools {
 						sequences.put(header, curr_seq.toString());
 					}
 					// read new header
-					if (readFullHeader) {
-						header = line.replaceFirst(">", "").trim();
-					
-					// generate headers as done by InterProScan 
-					// ">sp|P04637|P53_HUMAN Cellular tumor..." --> "P53_HUMAN" 
-					} else {
-						header = new StringTokenizer(line.replaceFirst(">\\s*", "")).nextToken();
-						if (header.contains("|")) {
-							String[] splitted_header = header.split("\\|");
-							header = splitted_header[splitted_header.length-1].trim();
-						}
-					}
+					header = getFastaHeader(line, readFullHeader);
 					curr_seq = new StringBuffer();
 					first = false;
 				} else {
@@ -363,6 +357,28 @@ public class BasicTools {
 		return(sequences);
 	}
 	
+	/**
+	 * 
+	 * @param line header line of a FASTA file (starting with ">")
+	 * @param readFullHeader
+	 * @return sequence identifier (full header or identifier as generated by InterProScan)
+	 */
+	public static String getFastaHeader(String line, boolean readFullHeader) {
+		
+		if (readFullHeader) {
+			return line.replaceFirst(">", "").trim();
+		}
+		
+		// generate headers as done by InterProScan 
+		// ">sp|P04637|P53_HUMAN Cellular tumor..." --> "P53_HUMAN" 
+		String header = new StringTokenizer(line.replaceFirst(">\\s*", "")).nextToken();
+		if (header.contains("|")) {
+			String[] splitted_header = header.split("\\|");
+			header = splitted_header[splitted_header.length-1].trim();
+		}
+		return header;
+	}
+	
 	/**
 	 * 
 	 * @param header
@@ -745,29 +761,74 @@ public class BasicTools {
 	 */
 	public static String[] runCommand(String cmd, boolean parseOutput) {
 		
+		// split command at white spaces (as done by Runtime.exec)
+		StringTokenizer strtok = new StringTokenizer(cmd);
+		String[] cmdarray = new String[strtok.countTokens()];
+		for (int i=0; i<cmdarray.length; i++) {
+			cmdarray[i] = strtok.nextToken();
+		}
+		return runCommand(cmdarray, parseOutput);
+	}
+	
+	/**
+	 * 
+	 * @param cmdarray command and its arguments (arguments may contain white spaces)
+	 * @param parseOutput
+	 * @return
+	 */
+	public static String[] runCommand(String[] cmdarray, boolean parseOutput) {
+		return runCommand(cmdarray, parseOutput, 0);
+	}
+	
+	/**
+	 * Runs the given command. Its output is read while the process is running,
+	 * so that the process is not blocked by a full pipe buffer.
+	 * 
+	 * @param cmdarray command and its arguments (arguments may contain white spaces)
+	 * @param parseOutput
+	 * @param timeout number of seconds after which the process is destroyed
+	 *        ({@code 0}: no limit)
+	 * @return lines of the standard output ({@code null} if the output is not
+	 *         parsed or the command failed)
+	 */
+	public static String[] runCommand(String[] cmdarray, boolean parseOutput, long timeout) {
+		
 		String[] consoleOutput = null;
 		
+		// the process draws as many CPUs from the budget as it uses threads
+		int numThreads = 1;
+		for (int i=0; i<cmdarray.length-1; i++) {
+			if (cmdarray[i].equals("-num_threads")) {
+				numThreads = Integer.parseInt(cmdarray[i+1]);
+			}
+		}
+		CpuBudget cpuBudget = CpuBudget.getGlobal();
+		
 		try {
-			Process proc = Runtime.getRuntime().exec(cmd);
-			proc.waitFor();
-			
-			if (parseOutput) {
-				List<String> stdout = new ArrayList<String>();
-				String line;
-				BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-			
-				while ((line = br.readLine()) != null) {
-					stdout.add(line.trim());
+			int permits = cpuBudget.acquire(numThreads);
+			try {
+				Process proc = Runtime.getRuntime().exec(cmdarray);
+				Future<List<String>> stdout = IOExecutor.readLines(proc.getInputStream(), parseOutput);
+				IOExecutor.readLines(proc.getErrorStream(), false);
+				IOExecutor.waitFor(proc, timeout, TimeUnit.SECONDS);
+				
+				List<String> lines = stdout.get();
+				if (parseOutput) {
+					consoleOutput = lines.toArray(new String[]{});
 				}
-				consoleOutput = stdout.toArray(new String[]{});
-
-				br.close();
+			} finally {
+				cpuBudget.release(permits);
 			}
 			
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
+		} catch (ExecutionException e) {
 			e.printStackTrace();
+		} catch (TimeoutException e) {
+			logger.severe("Error. Command did not finish within " + timeout + " seconds: " + cmdarray[0]);
+		} catch (InterruptedException e) {
+			// the process was destroyed (or not started), the caller has to check the interrupt status
+			Thread.currentThread().interrupt();
 		}
 		
 		return consoleOutput;
@@ -847,6 +908,19 @@ public class BasicTools {
 		return resArray;
 	}
 	
+	/**
+	 * 
+	 * @param array1
+	 * @param array2
+	 * @return
+	 */
+	public static int[] concatenateArrays(int[] array1, int[] array2) {
+		
+		int[] resArray = Arrays.copyOf(array1, array1.length + array2.length);
+		System.arraycopy(array2, 0, resArray, array1.length, array2.length);
+		return resArray;
+	}
+	
 	/**
 	 * 
 	 * @param array1
@@ -992,6 +1066,8 @@ public class BasicTools {
 	}
 
 	/**
+	 * Reads the hits of the first PSI-BLAST iteration from tabular output
+	 * (see {@link BlastHitParser#outputFormat}).
 	 *
 	 * @param hitsOutfile
 	 * @return
@@ -999,43 +1075,26 @@ public class BasicTools {
 	 * @throws IOException
 	 */
 	public static Map<String, Double> parseBLASTHitsProk(File hitsOutfile) throws NumberFormatException, IOException {
-		// read PSI-BLAST output from temporary files
-
-		Map<String, Double> blastHits = new HashMap<String, Double>();
-
-		int lineIdx = 1;
-		String line;
 
-		//List<String> hitsTable = BasicTools.readFile2List(hitsOutfile, false);
-		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(hitsOutfile)));
-		for (boolean startReading = false; ((line = br.readLine()) != null) && !(startReading && line.startsWith(">")); lineIdx++) {
-			line = line.trim();
+		Map<String, Double> blastHits = BlastHitParser.parseHits(hitsOutfile, 1);
+		correctHitIDsProk(blastHits);
+		logger.fine(MessageFormat.format("Successfully read {0,number,integer} hits from file {1}.", blastHits.size(), hitsOutfile));
 
-			// skip header and empty or invalid lines
-			if (line.startsWith("Sequences producing significant alignments")) {
-				startReading = true;
-				continue;
-			}
-			if (startReading && !line.isEmpty() && !line.startsWith(">")) {
-
-				StringTokenizer strtok = new StringTokenizer(line);
-				String hitID = strtok.nextToken();
-				// correct wrong UniProt ID for T03281 in factor.dat
-				if (hitID.contains("|41817|TF|")) {
-					hitID = hitID.replace("|41817|TF|", "|P41817|TF|");
-				}
-				String nextToken = null;
-				while (strtok.hasMoreTokens() && (nextToken = strtok.nextToken()).startsWith("GO:")) {
-					// skip GO terms in non-TF headers
-				}
-				blastHits.put(hitID, Double.parseDouble(nextToken)); // hit score
+		return blastHits;
+	}
 
+	/**
+	 * Corrects the wrong UniProt ID for T03281 in factor.dat, which is
+	 * contained in the hit identifiers of the prokaryotic databases.
+	 *
+	 * @param blastHits map from hit identifiers to bit scores, which is modified
+	 */
+	public static void correctHitIDsProk(Map<String, Double> blastHits) {
+		for (String hitID: blastHits.keySet().toArray(new String[] {})) {
+			if (hitID.contains("|41817|TF|")) {
+				blastHits.put(hitID.replace("|41817|TF|", "|P41817|TF|"), blastHits.remove(hitID));
 			}
 		}
-		br.close();
-		logger.fine(MessageFormat.format("Successfully read {0,number,integer} lines from hits file {1}.", lineIdx, hitsOutfile));
-
-		return blastHits;
 	}
 }
 
@@ -0,0 +1,252 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import resources.Resource;
+
+/**
+ * Persistent cache of the BLAST databases generated from the FASTA files
+ * bundled with TFpredict. Each database is stored in a subdirectory named by
+ * the checksum of the FASTA resource, so that the FASTA file only has to be
+ * extracted and {@code makeblastdb} only has to be run once per release.
+ * Concurrent builds by several processes sharing the same cache directory are
+ * serialized by a file lock.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class BlastDBcache {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(BlastDBcache.class.getName());
+
+	/**
+	 * Marks a database which was completely built.
+	 */
+	private static final String completeSuffix = ".complete";
+
+	/**
+	 * Checksums of the FASTA resources which were already computed by this JVM.
+	 */
+	private static final Map<String, String> resource2checksum = new ConcurrentHashMap<String, String>();
+
+	private String cacheDir;
+	private String blastPath;
+
+	/**
+	 *
+	 * @param cacheDir directory in which the databases are stored
+	 * @param blastPath path to the local BLAST installation
+	 */
+	public BlastDBcache(String cacheDir, String blastPath) {
+		if (!cacheDir.endsWith("/")) cacheDir += "/";
+		this.cacheDir = cacheDir;
+		this.blastPath = blastPath;
+	}
+
+	/**
+	 *
+	 * @return the default cache directory located in the temporary directory of the system
+	 */
+	public static String getDefaultCacheDir() {
+		return System.getProperty("java.io.tmpdir") + File.separator + "TFpredict_blast_db" + File.separator;
+	}
+
+	/**
+	 * Returns the FASTA file of the given resource in the cache. The BLAST
+	 * database generated from this file is located at the returned path with
+	 * the suffix ".db". The database is only built if no valid database exists
+	 * in the cache.
+	 *
+	 * @param fastaResource name of the FASTA file relative to {@link Resource}
+	 * @return path to the cached FASTA file
+	 * @throws IOException
+	 */
+	public String getDatabase(String fastaResource) throws IOException {
+
+		String dbDir = cacheDir + getResourceChecksum(fastaResource) + "/";
+		String fastaFile = dbDir + new File(fastaResource).getName();
+		File completeFile = new File(fastaFile + completeSuffix);
+		if (completeFile.exists()) {
+			return fastaFile;
+		}
+
+		if (!new File(dbDir).exists() && !new File(dbDir).mkdirs() && !new File(dbDir).exists()) {
+			throw new IOException("Could not create directory for BLAST database: " + dbDir);
+		}
+
+		// only one process may build the database, all others wait until it is complete
+		RandomAccessFile lockFile = new RandomAccessFile(fastaFile + ".lock", "rw");
+		FileChannel channel = lockFile.getChannel();
+		FileLock lock = channel.lock();
+		try {
+			if (!completeFile.exists()) {
+				logger.fine("Building BLAST database for " + fastaResource + " in " + dbDir);
+				if (!new File(fastaFile).exists()) {
+					copyResource(fastaResource, new File(fastaFile));
+				}
+
+				String createDB_cmd = blastPath + "bin/makeblastdb";
+				if (BasicTools.isWindows()) createDB_cmd = "\"" + createDB_cmd + "\"";
+				BasicTools.runCommand(createDB_cmd + " -in " + fastaFile + " -out " + fastaFile + ".db" + " -dbtype prot", false);
+
+				if (!new File(fastaFile + ".db.pin").exists() && !new File(fastaFile + ".db.00.pin").exists()) {
+					throw new IOException("BLAST database could not be created from " + fastaFile);
+				}
+				if (!completeFile.createNewFile() && !completeFile.exists()) {
+					throw new IOException("Could not mark BLAST database as complete: " + completeFile);
+				}
+			}
+		} finally {
+			lock.release();
+			channel.close();
+			lockFile.close();
+		}
+		return fastaFile;
+	}
+
+	/**
+	 * Returns the FASTA file of the given resource in the cache without
+	 * building a BLAST database, e.g., for searches which are performed in
+	 * process.
+	 *
+	 * @param fastaResource name of the FASTA file relative to {@link Resource}
+	 * @return path to the cached FASTA file
+	 * @throws IOException
+	 */
+	public String getFastaFile(String fastaResource) throws IOException {
+
+		String dbDir = cacheDir + getResourceChecksum(fastaResource) + "/";
+		File fastaFile = new File(dbDir + new File(fastaResource).getName());
+		if (fastaFile.exists()) {
+			return fastaFile.getPath();
+		}
+		if (!new File(dbDir).exists() && !new File(dbDir).mkdirs() && !new File(dbDir).exists()) {
+			throw new IOException("Could not create directory for BLAST database: " + dbDir);
+		}
+
+		copyResource(fastaResource, fastaFile);
+		return fastaFile.getPath();
+	}
+
+	// copies the resource under a unique temporary name first, so that concurrent readers (also of other processes) never see incomplete files
+	private static void copyResource(String resource, File target) throws IOException {
+
+		File tmpFile = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+		try {
+			InputStream is = Resource.class.getResourceAsStream(resource);
+			if (is == null) {
+				throw new IOException("Resource not found: " + resource);
+			}
+			try {
+				Files.copy(is, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				is.close();
+			}
+			// another process may have completed the same file in the meantime
+			if (!tmpFile.renameTo(target) && !target.exists()) {
+				throw new IOException("Could not copy " + resource + " to " + target);
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 *
+	 * @param resource name of a file relative to {@link Resource}
+	 * @return hexadecimal MD5 checksum of the given resource
+	 * @throws IOException
+	 */
+	public static String getResourceChecksum(String resource) throws IOException {
+
+		String checksum = resource2checksum.get(resource);
+		if (checksum != null) {
+			return checksum;
+		}
+		InputStream is = Resource.class.getResourceAsStream(resource);
+		if (is == null) {
+			throw new IOException("Resource not found: " + resource);
+		}
+		try {
+			checksum = getChecksum(is);
+		} finally {
+			is.close();
+		}
+		resource2checksum.put(resource, checksum);
+		return checksum;
+	}
+
+	/**
+	 *
+	 * @param is
+	 * @return hexadecimal MD5 checksum of the content of the given stream
+	 * @throws IOException
+	 */
+	public static String getChecksum(InputStream is) throws IOException {
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		DigestInputStream dis = new DigestInputStream(is, md);
+		byte[] buffer = new byte[8192];
+		while (dis.read(buffer) != -1);
+
+		return toHex(md.digest());
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
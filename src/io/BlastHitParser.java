@@ -0,0 +1,326 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for the tabular output of (PSI-)BLAST created with the
+ * output format {@link #outputFormat}. The output is read in blocks of bytes
+ * and only the identifier and the bit score of each hit are decoded, so that
+ * the report is never kept in memory. The identifier of a hit is the first
+ * word of its title, i.e., the identifier shown in the pairwise report. If a
+ * subject has several alignments, the highest bit score is returned. Reports
+ * of searches with several queries are split by the query identifiers given in
+ * the comment lines (see {@link #parseHitsPerQuery(File, int)}). Reports in
+ * other formats, e.g., pairwise reports, are rejected with an
+ * {@link IOException} instead of being read as reports without hits.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class BlastHitParser {
+
+	/**
+	 * Argument of the BLAST option {@code -outfmt}: commented tabular output
+	 * with subject title and bit score.
+	 */
+	public static final String outputFormat = "7 stitle bitscore";
+
+	/**
+	 * Selects the hits of the last iteration reported by PSI-BLAST.
+	 */
+	public static final int lastIteration = 0;
+
+	private static final byte[] iterationPrefix = "# Iteration:".getBytes();
+	private static final byte[] queryPrefix = "# Query:".getBytes();
+	private static final byte[] fieldsPrefix = "# Fields:".getBytes();
+	private static final double[] powersOfTen = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+	private int iteration;
+	private boolean perQuery;
+	private int currIteration = 0;
+	private String currQuery = "";
+	private boolean commented = false;
+	private boolean tabular = false;
+	private Map<String, Double> hits = new HashMap<String, Double>();
+	private Map<String, Map<String, Double>> queryHits = new LinkedHashMap<String, Map<String, Double>>();
+	// iteration from which the hits of each query were read
+	private Map<String, Integer> hitIterations = new HashMap<String, Integer>();
+
+	private BlastHitParser(int iteration, boolean perQuery) {
+		this.iteration = iteration;
+		this.perQuery = perQuery;
+		queryHits.put(currQuery, hits);
+	}
+
+	/**
+	 *
+	 * @param hitsFile tabular BLAST output
+	 * @param iteration PSI-BLAST iteration whose hits are returned (starting
+	 *        with 1) or {@link #lastIteration}
+	 * @return map from hit identifiers to bit scores
+	 * @throws IOException if the report could not be read or is not in the
+	 *         format {@link #outputFormat}
+	 */
+	public static Map<String, Double> parseHits(File hitsFile, int iteration) throws IOException {
+		return parse(hitsFile, iteration, false).get("");
+	}
+
+	/**
+	 * Parses the report which is read from the given stream, e.g., the output
+	 * of a running PSI-BLAST process. Reading stops as soon as the remaining
+	 * lines are not needed, so that the stream is not necessarily read to its
+	 * end. The stream is not closed.
+	 *
+	 * @param is tabular BLAST output
+	 * @param iteration PSI-BLAST iteration whose hits are returned (starting
+	 *        with 1) or {@link #lastIteration}
+	 * @return map from hit identifiers to bit scores
+	 * @throws IOException if the report could not be read or is not in the
+	 *         format {@link #outputFormat}
+	 */
+	public static Map<String, Double> parseHits(InputStream is, int iteration) throws IOException {
+
+		BlastHitParser parser = new BlastHitParser(iteration, false);
+		parser.parse(is);
+		return parser.queryHits.get("");
+	}
+
+	/**
+	 * Parses the report of a search with several queries. Each query which is
+	 * contained in the report is mapped to its hits, which are empty if no
+	 * hits were found for the query.
+	 *
+	 * @param hitsFile tabular BLAST output
+	 * @param iteration PSI-BLAST iteration whose hits are returned (starting
+	 *        with 1) or {@link #lastIteration}
+	 * @return map from query identifiers (first word of the FASTA header) to
+	 *         maps from hit identifiers to bit scores
+	 * @throws IOException if the report could not be read or is not in the
+	 *         format {@link #outputFormat}
+	 */
+	public static Map<String, Map<String, Double>> parseHitsPerQuery(File hitsFile, int iteration) throws IOException {
+		Map<String, Map<String, Double>> queryHits = parse(hitsFile, iteration, true);
+		queryHits.remove("");
+		return queryHits;
+	}
+
+	/**
+	 * Parses the report of a search with several queries which is read from
+	 * the given stream (see {@link #parseHitsPerQuery(File, int)}). The stream
+	 * is read to its end, but not closed.
+	 *
+	 * @param is tabular BLAST output
+	 * @param iteration PSI-BLAST iteration whose hits are returned (starting
+	 *        with 1) or {@link #lastIteration}
+	 * @return map from query identifiers (first word of the FASTA header) to
+	 *         maps from hit identifiers to bit scores
+	 * @throws IOException if the report could not be read or is not in the
+	 *         format {@link #outputFormat}
+	 */
+	public static Map<String, Map<String, Double>> parseHitsPerQuery(InputStream is, int iteration) throws IOException {
+
+		BlastHitParser parser = new BlastHitParser(iteration, true);
+		parser.parse(is);
+		parser.queryHits.remove("");
+		return parser.queryHits;
+	}
+
+	private static Map<String, Map<String, Double>> parse(File hitsFile, int iteration, boolean perQuery) throws IOException {
+
+		BlastHitParser parser = new BlastHitParser(iteration, perQuery);
+		InputStream is = new FileInputStream(hitsFile);
+		try {
+			parser.parse(is);
+		} finally {
+			is.close();
+		}
+		return parser.queryHits;
+	}
+
+	private void parse(InputStream is) throws IOException {
+
+		byte[] buffer = new byte[1 << 16];
+		int len = 0;
+		int scanned = 0;
+		int numRead;
+		while ((numRead = is.read(buffer, len, buffer.length - len)) != -1) {
+			len += numRead;
+			int lineStart = 0;
+			for (int i=scanned; i<len; i++) {
+				if (buffer[i] == '\n') {
+					if (!parseLine(buffer, lineStart, i)) {
+						return;
+					}
+					lineStart = i + 1;
+				}
+			}
+
+			// keep incomplete line at the beginning of the buffer
+			len -= lineStart;
+			System.arraycopy(buffer, lineStart, buffer, 0, len);
+			scanned = len;
+			if (len == buffer.length) {
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			}
+		}
+		if (len > 0) {
+			parseLine(buffer, 0, len);
+		}
+		// reports without hits still contain the comment lines
+		if (!commented) {
+			throw new IOException("No tabular BLAST output found (output format \"" + outputFormat + "\").");
+		}
+	}
+
+	// returns false if the remaining lines are not needed
+	private boolean parseLine(byte[] buffer, int from, int to) throws IOException {
+
+		if (to > from && buffer[to - 1] == '\r') {
+			to--;
+		}
+		if (to == from) {
+			return true;
+		}
+
+		if (buffer[from] == '#') {
+			commented = true;
+			if (startsWith(buffer, from, to, fieldsPrefix)) {
+				tabular = true;
+			} else if (startsWith(buffer, from, to, iterationPrefix)) {
+				currIteration = (int) parseNumber(buffer, from + iterationPrefix.length, to);
+				if (!perQuery && iteration != lastIteration && currIteration > iteration) {
+					return false;
+				}
+				if (iteration == lastIteration) {
+					startIteration();
+				}
+			} else if (perQuery && startsWith(buffer, from, to, queryPrefix)) {
+				int idStart = from + queryPrefix.length;
+				while (idStart < to && buffer[idStart] == ' ') idStart++;
+				int idEnd = idStart;
+				while (idEnd < to && buffer[idEnd] != ' ') idEnd++;
+				currQuery = new String(buffer, idStart, idEnd - idStart);
+				hits = queryHits.get(currQuery);
+				if (hits == null) {
+					hits = new HashMap<String, Double>();
+					queryHits.put(currQuery, hits);
+				}
+				if (iteration == lastIteration) {
+					startIteration();
+				}
+			}
+			return true;
+		}
+
+		// hits are only listed after the header of the table
+		if (!tabular) {
+			throw new IOException("BLAST output is not tabular (output format \"" + outputFormat + "\"): " + new String(buffer, from, Math.min(to - from, 80)));
+		}
+
+		// output of BLAST programs without iterations
+		if (currIteration == 0) {
+			currIteration = 1;
+		}
+		if (iteration != lastIteration && currIteration != iteration) {
+			return true;
+		}
+		startIteration();
+
+		int titleEnd = from;
+		while (titleEnd < to && buffer[titleEnd] != '\t') titleEnd++;
+		int scoreStart = to;
+		while (scoreStart > titleEnd && buffer[scoreStart - 1] != '\t') scoreStart--;
+		if (titleEnd == to) {
+			return true;
+		}
+		int idEnd = from;
+		while (idEnd < titleEnd && buffer[idEnd] != ' ') idEnd++;
+
+		String hitID = new String(buffer, from, idEnd - from);
+		double hitScore = parseNumber(buffer, scoreStart, to);
+		Double prevScore = hits.get(hitID);
+		if (prevScore == null || prevScore < hitScore) {
+			hits.put(hitID, hitScore);
+		}
+		return true;
+	}
+
+	// hits of later iterations replace those of previous iterations of the current query
+	private void startIteration() {
+		Integer hitIteration = hitIterations.get(currQuery);
+		if (hitIteration == null || hitIteration < currIteration) {
+			hits.clear();
+			hitIterations.put(currQuery, currIteration);
+		}
+	}
+
+	private static boolean startsWith(byte[] buffer, int from, int to, byte[] prefix) {
+
+		if (to - from < prefix.length) {
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++) {
+			if (buffer[from + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// decimal numbers with up to 15 digits are converted directly, all others by Double.parseDouble
+	private static double parseNumber(byte[] buffer, int from, int to) {
+
+		while (from < to && buffer[from] == ' ') from++;
+		while (to > from && buffer[to - 1] == ' ') to--;
+
+		long mantissa = 0;
+		int numDigits = 0;
+		int numDecimals = -1;
+		for (int i=from; i<to; i++) {
+			byte b = buffer[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = 10 * mantissa + (b - '0');
+				numDigits++;
+				if (numDecimals >= 0) numDecimals++;
+			} else if (b == '.' && numDecimals < 0) {
+				numDecimals = 0;
+			} else {
+				return Double.parseDouble(new String(buffer, from, to - from));
+			}
+		}
+		if (numDigits == 0 || numDigits > 15) {
+			return Double.parseDouble(new String(buffer, from, to - from));
+		}
+		return (numDecimals > 0) ? mantissa / powersOfTen[numDecimals] : mantissa;
+	}
+}
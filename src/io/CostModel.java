@@ -0,0 +1,372 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Runtime of the per-sequence searches as a function of the sequence length.
+ * For each stage (search method and database, see
+ * {@link #getStageName(String, String)}), the observed runtimes are fitted by
+ * a linear model {@code t = a + b * residues} with {@code a, b >= 0}. The
+ * model is used to schedule the searches of a batch longest first (longest
+ * processing time first), which avoids that a few long sequences are started
+ * last and delay the end of the batch, and to estimate the time needed for a
+ * batch before it is started.
+ * <p>
+ * The sums of the fits are kept in a text file, so that the timings of earlier
+ * runs are available. Older observations are down-weighted once a stage has
+ * {@link #maxObservations} observations, so that the model follows changes of
+ * the hardware or the load of the machine. If several processes share the
+ * file, the observations of the process which saves last are kept.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class CostModel {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(CostModel.class.getName());
+
+	/**
+	 * Number of observations after which the weight of the earlier
+	 * observations of a stage is halved.
+	 */
+	public static final int maxObservations = 1000;
+
+	/**
+	 * Models shared by all stages of this JVM.
+	 */
+	private static final Map<String, CostModel> instances = new HashMap<String, CostModel>();
+
+	private File modelFile;
+	private Map<String, Fit> stages = new LinkedHashMap<String, Fit>();
+	private boolean changed = false;
+
+	/**
+	 *
+	 * @param modelFile file from which the model is read and to which it is
+	 *        saved
+	 */
+	public CostModel(String modelFile) {
+		this.modelFile = new File(modelFile);
+		if (this.modelFile.exists()) {
+			try {
+				read();
+			} catch (IOException exc) {
+				logger.warning("Cost model " + modelFile + " could not be read: " + exc.getMessage());
+				stages.clear();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the default model file located in the temporary directory of the system
+	 */
+	public static String getDefaultModelFile() {
+		return System.getProperty("java.io.tmpdir") + File.separator + "TFpredict_search_costs.txt";
+	}
+
+	/**
+	 *
+	 * @param modelFile
+	 * @return model for the given file which is shared within this JVM
+	 */
+	public static synchronized CostModel getInstance(String modelFile) {
+
+		String key = new File(modelFile).getAbsolutePath();
+		CostModel model = instances.get(key);
+		if (model == null) {
+			model = new CostModel(modelFile);
+			instances.put(key, model);
+		}
+		return model;
+	}
+
+	/**
+	 *
+	 * @return model of the default file (see {@link #getDefaultModelFile()})
+	 */
+	public static CostModel getDefault() {
+		return getInstance(getDefaultModelFile());
+	}
+
+	/**
+	 *
+	 * @param searchName name of the search method and its settings as used by
+	 *        the hit cache, e.g., {@code iter1}
+	 * @param dbFastaFile FASTA file of the searched database
+	 * @return name of the stage
+	 */
+	public static String getStageName(String searchName, String dbFastaFile) {
+		return searchName + "@" + new File(dbFastaFile).getName();
+	}
+
+	/**
+	 * Orders the given sequences by decreasing length, which is the order of
+	 * decreasing runtime for all stages (the slope of the models is not
+	 * negative). Sequences of equal length keep their order.
+	 *
+	 * @param sequences
+	 * @return keys of the given map, longest sequence first
+	 */
+	public static <K> List<K> getLongestFirst(final Map<K, String> sequences) {
+
+		List<K> keys = new ArrayList<K>(sequences.keySet());
+		Collections.sort(keys, new Comparator<K>() {
+			@Override
+			public int compare(K key1, K key2) {
+				return sequences.get(key2).length() - sequences.get(key1).length();
+			}
+		});
+		return keys;
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @param residues length of the searched sequence
+	 * @param nanos runtime of the search
+	 */
+	public synchronized void addObservation(String stage, int residues, long nanos) {
+
+		Fit fit = stages.get(stage);
+		if (fit == null) {
+			fit = new Fit();
+			stages.put(stage, fit);
+		}
+		fit.add(residues, nanos / 1e9);
+		changed = true;
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @return {@code true} if runtimes of the stage were observed
+	 */
+	public synchronized boolean isFitted(String stage) {
+		return stages.containsKey(stage);
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @param residues
+	 * @return estimated runtime in seconds or {@code -1} if no runtimes of the
+	 *         stage were observed
+	 */
+	public synchronized double estimate(String stage, int residues) {
+		Fit fit = stages.get(stage);
+		return (fit != null) ? fit.estimate(residues) : -1;
+	}
+
+	/**
+	 * Estimates the time until all given sequences are searched by the given
+	 * number of workers if the sequences are scheduled longest first, i.e.,
+	 * each sequence is assigned to the worker which becomes idle first.
+	 *
+	 * @param stage
+	 * @param sequences
+	 * @param numWorkers
+	 * @return estimated time in seconds or {@code -1} if no runtimes of the
+	 *         stage were observed
+	 */
+	public synchronized double estimateMakespan(String stage, Collection<String> sequences, int numWorkers) {
+
+		Fit fit = stages.get(stage);
+		if (fit == null) {
+			return -1;
+		}
+		double[] costs = new double[sequences.size()];
+		int i = 0;
+		for (String sequence: sequences) {
+			costs[i++] = fit.estimate(sequence.length());
+		}
+		Arrays.sort(costs);
+
+		double[] loads = new double[Math.max(1, Math.min(numWorkers, costs.length))];
+		for (i=costs.length-1; i>=0; i--) {
+			int idle = 0;
+			for (int j=1; j<loads.length; j++) {
+				if (loads[j] < loads[idle]) {
+					idle = j;
+				}
+			}
+			loads[idle] += costs[i];
+		}
+		double makespan = 0;
+		for (double load: loads) {
+			makespan = Math.max(makespan, load);
+		}
+		return makespan;
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @param sequences
+	 * @param numWorkers
+	 * @return message stating the estimated time of the given sequences (see
+	 *         {@link #estimateMakespan(String, Collection, int)}) or
+	 *         {@code null} if no runtimes of the stage were observed
+	 */
+	public String getMakespanEstimate(String stage, Collection<String> sequences, int numWorkers) {
+
+		double makespan = estimateMakespan(stage, sequences, numWorkers);
+		if (makespan < 0) {
+			return null;
+		}
+		DecimalFormat df = new DecimalFormat("0.0", new DecimalFormatSymbols(Locale.ENGLISH));
+		return "Estimated time for " + sequences.size() + " sequence(s) on " + Math.max(1, Math.min(numWorkers, sequences.size())) + " thread(s): " + df.format(makespan) + " s";
+	}
+
+	/**
+	 * Writes the model to its file if observations were added. The file is
+	 * replaced at once, so that concurrent readers never see an incomplete
+	 * model.
+	 */
+	public synchronized void save() {
+
+		if (!changed) {
+			return;
+		}
+		File tmpFile = null;
+		try {
+			tmpFile = File.createTempFile(modelFile.getName() + ".", ".tmp", modelFile.getAbsoluteFile().getParentFile());
+			BufferedWriter bw = new BufferedWriter(new FileWriter(tmpFile));
+			try {
+				for (String stage: stages.keySet()) {
+					Fit fit = stages.get(stage);
+					bw.write(stage + "\t" + fit.n + "\t" + fit.sumX + "\t" + fit.sumY + "\t" + fit.sumXX + "\t" + fit.sumXY + "\n");
+				}
+			} finally {
+				bw.close();
+			}
+			if (!tmpFile.renameTo(modelFile)) {
+				modelFile.delete();
+				if (!tmpFile.renameTo(modelFile)) {
+					throw new IOException("Could not rename " + tmpFile);
+				}
+			}
+			changed = false;
+
+		} catch (IOException exc) {
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+			logger.warning("Cost model " + modelFile + " could not be saved: " + exc.getMessage());
+		}
+	}
+
+	private void read() throws IOException {
+
+		BufferedReader br = new BufferedReader(new FileReader(modelFile));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] entry = line.split("\t");
+				if (entry.length != 6) {
+					throw new IOException("Invalid line: " + line);
+				}
+				try {
+					Fit fit = new Fit();
+					fit.n = Double.parseDouble(entry[1]);
+					fit.sumX = Double.parseDouble(entry[2]);
+					fit.sumY = Double.parseDouble(entry[3]);
+					fit.sumXX = Double.parseDouble(entry[4]);
+					fit.sumXY = Double.parseDouble(entry[5]);
+					stages.put(entry[0], fit);
+				} catch (NumberFormatException exc) {
+					throw new IOException("Invalid line: " + line);
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	// least squares fit of the runtime (in seconds) by the number of residues
+	private static class Fit {
+
+		double n = 0;
+		double sumX = 0;
+		double sumY = 0;
+		double sumXX = 0;
+		double sumXY = 0;
+
+		void add(double x, double y) {
+			if (n >= maxObservations) {
+				n /= 2;
+				sumX /= 2;
+				sumY /= 2;
+				sumXX /= 2;
+				sumXY /= 2;
+			}
+			n++;
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+		}
+
+		double estimate(double x) {
+
+			// runtime proportional to the length as long as the lengths do not vary
+			double det = n * sumXX - sumX * sumX;
+			if (n < 2 || det <= 1e-9 * n * sumXX) {
+				return (sumX > 0) ? x * sumY / sumX : sumY / n;
+			}
+			double slope = (n * sumXY - sumX * sumY) / det;
+			double intercept = (sumY - slope * sumX) / n;
+			if (slope < 0) {
+				return sumY / n;
+			}
+			if (intercept < 0) {
+				return x * sumXY / sumXX;
+			}
+			return intercept + slope * x;
+		}
+	}
+}
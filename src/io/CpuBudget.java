@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Number of CPUs which may be used by TFpredict at the same time. Every stage
+ * which keeps a CPU busy draws permits from the global budget before it
+ * starts: external processes (e.g., PSI-BLAST) as many as they use threads,
+ * Java tasks (e.g., Smith-Waterman searches or the training of classifiers)
+ * one each. Threads which only wait for other tasks do not draw permits, as
+ * this could exhaust the budget without any work being done.
+ * <p>
+ * The size of the global budget is taken from the environment variable
+ * {@code TFPREDICT_CPU_BUDGET} or the option {@code -cpuBudget}, otherwise it
+ * equals the number of available processors. Permits are granted in the order
+ * in which they were requested, so that processes with many threads are not
+ * starved by Java tasks.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class CpuBudget {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(CpuBudget.class.getName());
+
+	private static final CpuBudget global = new CpuBudget(getDefaultSize());
+
+	private int size;
+	private int inUse = 0;
+	private int peak = 0;
+
+	// requests are served in the order of their tickets
+	private long nextTicket = 0;
+	private long servedTicket = 0;
+	private Set<Long> withdrawnTickets = new HashSet<Long>();
+
+	// integral of the permits in use over time, time spent waiting for permits
+	private long startTime = System.nanoTime();
+	private long lastChange = startTime;
+	private double busyNanos = 0;
+	private long waitNanos = 0;
+
+	/**
+	 *
+	 * @param size number of CPUs
+	 */
+	public CpuBudget(int size) {
+		this.size = Math.max(1, size);
+	}
+
+	private static int getDefaultSize() {
+
+		String budget = System.getenv("TFPREDICT_CPU_BUDGET");
+		if (budget != null && budget.trim().length() > 0) {
+			try {
+				return Integer.parseInt(budget.trim());
+			} catch (NumberFormatException exc) {
+				logger.warning("Invalid value of TFPREDICT_CPU_BUDGET: " + budget);
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 *
+	 * @return budget shared by all stages of the process
+	 */
+	public static CpuBudget getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Changes the number of CPUs. Permits which were granted before are not
+	 * revoked.
+	 *
+	 * @param size
+	 */
+	public synchronized void setSize(int size) {
+		this.size = Math.max(1, size);
+		notifyAll();
+	}
+
+	/**
+	 *
+	 * @return number of CPUs
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return number of permits currently granted
+	 */
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	/**
+	 * Waits until the given number of permits is available. Requests for more
+	 * permits than the size of the budget are reduced to the size.
+	 *
+	 * @param permits
+	 * @return number of granted permits, which has to be passed to
+	 *         {@link #release(int)}
+	 * @throws InterruptedException
+	 */
+	public synchronized int acquire(int permits) throws InterruptedException {
+
+		permits = Math.max(1, permits);
+		long ticket = nextTicket++;
+		long start = System.nanoTime();
+		try {
+			while (ticket != servedTicket || inUse + Math.min(permits, size) > size) {
+				wait();
+			}
+		} catch (InterruptedException exc) {
+			// the request is withdrawn, later requests must not wait for it
+			if (ticket == servedTicket) {
+				nextTurn();
+			} else {
+				withdrawnTickets.add(ticket);
+			}
+			throw exc;
+		}
+		permits = Math.min(permits, size);
+		waitNanos += System.nanoTime() - start;
+		update(permits);
+		nextTurn();
+		return permits;
+	}
+
+	private void nextTurn() {
+		servedTicket++;
+		while (withdrawnTickets.remove(servedTicket)) {
+			servedTicket++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 *
+	 * @param permits number of permits returned by {@link #acquire(int)}
+	 */
+	public synchronized void release(int permits) {
+		update(-permits);
+		notifyAll();
+	}
+
+	private void update(int change) {
+		long now = System.nanoTime();
+		busyNanos += (double) inUse * (now - lastChange);
+		lastChange = now;
+		inUse += change;
+		peak = Math.max(peak, inUse);
+	}
+
+	/**
+	 *
+	 * @return average fraction of the budget which was in use since the budget
+	 *         was created
+	 */
+	public synchronized double getUtilization() {
+		long now = System.nanoTime();
+		double busy = busyNanos + (double) inUse * (now - lastChange);
+		return (now > startTime) ? busy / ((double) size * (now - startTime)) : 0;
+	}
+
+	/**
+	 * Writes the size, the utilization and the peak usage of the budget as
+	 * well as the time spent waiting for permits.
+	 *
+	 * @param out
+	 */
+	public synchronized void writeReport(PrintStream out) {
+		DecimalFormat df = new DecimalFormat("0.00", new DecimalFormatSymbols(Locale.ENGLISH));
+		out.println("\n  CPU budget: " + size + " CPU(s), utilization: " + df.format(100 * getUtilization()) + "%, peak: " + peak + " CPU(s), waiting for CPUs: " + df.format(waitNanos / 1e9) + " s");
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads a FASTA file in chunks of a fixed number of sequences, so that
+ * arbitrarily large files can be processed without keeping all sequences in
+ * memory. Headers are shortened in the same way as by
+ * {@link BasicTools#readFASTA(String, boolean)}.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class FastaChunkReader implements Closeable {
+
+	private BufferedReader br;
+	private boolean readFullHeader;
+	private String nextHeaderLine;
+
+	/**
+	 *
+	 * @param fastaFile
+	 * @param readFullHeader
+	 * @throws IOException
+	 */
+	public FastaChunkReader(String fastaFile, boolean readFullHeader) throws IOException {
+		this.br = new BufferedReader(new FileReader(new File(fastaFile)));
+		this.readFullHeader = readFullHeader;
+
+		// skip everything before the first header
+		String line;
+		while ((line = br.readLine()) != null && !line.startsWith(">"));
+		nextHeaderLine = line;
+	}
+
+	/**
+	 *
+	 * @param fastaFile
+	 * @throws IOException
+	 */
+	public FastaChunkReader(String fastaFile) throws IOException {
+		this(fastaFile, false);
+	}
+
+	/**
+	 * Reads the next sequences from the FASTA file.
+	 *
+	 * @param maxNumSequences
+	 * @return map from headers to sequences in the order of the file, empty if
+	 *         the end of the file was reached
+	 * @throws IOException
+	 */
+	public Map<String, String> nextChunk(int maxNumSequences) throws IOException {
+
+		Map<String, String> sequences = new LinkedHashMap<String, String>();
+		while (nextHeaderLine != null && sequences.size() < maxNumSequences) {
+			String header = BasicTools.getFastaHeader(nextHeaderLine, readFullHeader);
+			StringBuilder curr_seq = new StringBuilder();
+			String line;
+			while ((line = br.readLine()) != null && !line.startsWith(">")) {
+				curr_seq.append(line.replaceAll("\\s+",""));
+			}
+			nextHeaderLine = line;
+
+			String seq = curr_seq.toString();
+			if (!seq.matches("^[A-IK-NP-Za-ik-np-z\\s]*$")) {
+				System.out.println("\nWarning. Given protein sequence \"" + header + "\" contains invalid symbols.");
+			}
+			sequences.put(header, seq);
+		}
+		return sequences;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		br.close();
+	}
+
+	/**
+	 * Scans the headers of the given FASTA file without reading the sequences.
+	 *
+	 * @param fastaFile
+	 * @return number of sequences in the given file or -1 if the file contains
+	 *         duplicated headers
+	 * @throws IOException
+	 */
+	public static int countSequences(String fastaFile) throws IOException {
+
+		Set<String> headers = new HashSet<String>();
+		BufferedReader br = new BufferedReader(new FileReader(new File(fastaFile)));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith(">") && !headers.add(BasicTools.getFastaHeader(line, false))) {
+					return -1;
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return headers.size();
+	}
+}
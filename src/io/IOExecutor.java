@@ -0,0 +1,170 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared threads for tasks which mostly wait, i.e., polling of web service
+ * jobs, downloads and the output of external processes. The threads are
+ * created on demand and terminate after one minute without work, so that
+ * waiting tasks never occupy the thread pools of the CPU-bound stages (feature
+ * computation and classification). All threads are daemon threads.
+ * <p>
+ * Tasks which are run by {@link #invokeAll(List, long, TimeUnit)} or
+ * {@link #waitFor(Process, long, TimeUnit)} never outlive the call: they are
+ * cancelled (interrupted) if the timeout expires or the calling thread is
+ * interrupted.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class IOExecutor {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger threadCnt = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TFpredict-io-" + threadCnt.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private IOExecutor() {}
+
+	/**
+	 *
+	 * @param task
+	 * @return
+	 */
+	public static <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Runs all given tasks concurrently and waits until all of them finished
+	 * or the timeout expired. Tasks which did not finish in time are
+	 * cancelled. If the calling thread is interrupted, all tasks are cancelled.
+	 *
+	 * @param tasks
+	 * @param timeout maximum time to wait for all tasks ({@code 0}: no limit)
+	 * @param unit
+	 * @return finished or cancelled tasks in the order of the given tasks
+	 * @throws InterruptedException
+	 */
+	public static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+		if (timeout > 0) {
+			return executor.invokeAll(tasks, timeout, unit);
+		}
+		return executor.invokeAll(tasks);
+	}
+
+	/**
+	 * Waits for the given process to terminate. The process is destroyed if
+	 * it does not terminate in time or the calling thread is interrupted.
+	 *
+	 * @param proc
+	 * @param timeout maximum time to wait ({@code 0}: no limit)
+	 * @param unit
+	 * @return exit value of the process
+	 * @throws InterruptedException
+	 * @throws TimeoutException
+	 */
+	public static int waitFor(final Process proc, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+
+		if (timeout <= 0) {
+			try {
+				return proc.waitFor();
+			} catch (InterruptedException exc) {
+				proc.destroy();
+				throw exc;
+			}
+		}
+
+		Future<Integer> exitValue = executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws InterruptedException {
+				return proc.waitFor();
+			}
+		});
+		try {
+			return exitValue.get(timeout, unit);
+		} catch (ExecutionException exc) {
+			throw new IllegalStateException(exc.getCause());
+		} finally {
+			if (!exitValue.isDone()) {
+				exitValue.cancel(true);
+				proc.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Reads the given stream until its end, e.g., the output of a process
+	 * which would otherwise block once the buffer of the pipe is full.
+	 *
+	 * @param is
+	 * @param collectLines {@code false}: the content is discarded
+	 * @return trimmed lines of the stream (empty if the lines are not
+	 *         collected)
+	 */
+	public static Future<List<String>> readLines(final InputStream is, final boolean collectLines) {
+
+		return executor.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws IOException {
+				List<String> lines = new ArrayList<String>();
+				BufferedReader br = new BufferedReader(new InputStreamReader(is));
+				try {
+					String line;
+					while ((line = br.readLine()) != null) {
+						if (collectLines) {
+							lines.add(line.trim());
+						}
+					}
+				} finally {
+					br.close();
+				}
+				return lines;
+			}
+		});
+	}
+}
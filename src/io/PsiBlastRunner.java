@@ -0,0 +1,344 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Runs PSI-BLAST without any intermediate files. The queries are written in
+ * FASTA format to the standard input of the process and the tabular report
+ * (see {@link BlastHitParser#outputFormat}) is parsed from its standard output
+ * while the search is running. If a report directory is set (see
+ * {@link #setReportDir(File)}), a copy of each report is written to this
+ * directory for debugging.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class PsiBlastRunner {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(PsiBlastRunner.class.getName());
+
+	/**
+	 * Maximum number of characters of the error output which are reported if
+	 * PSI-BLAST fails.
+	 */
+	private static final int maxErrorLength = 4096;
+
+	private String[] cmd;
+	private int numThreads;
+	private File reportDir = null;
+	private CostModel costModel = null;
+	private String stage;
+
+	/**
+	 *
+	 * @param blastPath path to the local BLAST installation
+	 * @param database BLAST database
+	 * @param numIter number of PSI-BLAST iterations
+	 * @param numThreads number of threads used by PSI-BLAST
+	 */
+	public PsiBlastRunner(String blastPath, String database, int numIter, int numThreads) {
+		this.numThreads = numThreads;
+		if (numThreads > 1) {
+			cmd = new String[] {blastPath + "bin/psiblast", "-query", "-", "-num_iterations", "" + numIter, "-db", database, "-outfmt", BlastHitParser.outputFormat, "-num_threads", "" + numThreads};
+		} else {
+			cmd = new String[] {blastPath + "bin/psiblast", "-query", "-", "-num_iterations", "" + numIter, "-db", database, "-outfmt", BlastHitParser.outputFormat};
+		}
+	}
+
+	/**
+	 *
+	 * @param reportDir directory to which the reports are copied (
+	 *        {@code null}: reports are not stored)
+	 */
+	public void setReportDir(File reportDir) {
+		this.reportDir = reportDir;
+	}
+
+	/**
+	 * Records the runtime of each search of a single sequence in the given
+	 * model. The time spent waiting for CPUs is not included.
+	 *
+	 * @param costModel
+	 * @param stage name of the stage in the model (see
+	 *        {@link CostModel#getStageName(String, String)})
+	 */
+	public void setCostModel(CostModel costModel, String stage) {
+		this.costModel = costModel;
+		this.stage = stage;
+	}
+
+	/**
+	 * Searches one sequence.
+	 *
+	 * @param header FASTA header of the query
+	 * @param sequence
+	 * @param reportName name of the copy of the report in the report
+	 *        directory
+	 * @return hits of the first iteration (map from hit identifiers to bit
+	 *         scores)
+	 * @throws IOException if PSI-BLAST could not be run or failed
+	 */
+	public Map<String, Double> search(String header, String sequence, String reportName) throws IOException {
+
+		Map<String, String> queries = new LinkedHashMap<String, String>();
+		queries.put(header, sequence);
+		return run(queries, false, reportName).get("");
+	}
+
+	/**
+	 * Searches several sequences with one PSI-BLAST process.
+	 *
+	 * @param queries map from FASTA headers to sequences (the first word of
+	 *        each header has to be unique)
+	 * @param reportName name of the copy of the report in the report
+	 *        directory
+	 * @return map from the first word of the FASTA headers to the hits of the
+	 *         first iteration of the query
+	 * @throws IOException if PSI-BLAST could not be run or failed
+	 */
+	public Map<String, Map<String, Double>> search(Map<String, String> queries, String reportName) throws IOException {
+		return run(queries, true, reportName);
+	}
+
+	// draws the CPUs used by the process from the global budget
+	private Map<String, Map<String, Double>> run(Map<String, String> queries, boolean perQuery, String reportName) throws IOException {
+
+		CpuBudget cpuBudget = CpuBudget.getGlobal();
+		int permits;
+		try {
+			permits = cpuBudget.acquire(numThreads);
+		} catch (InterruptedException exc) {
+			throw new InterruptedIOException("PSI-BLAST was interrupted.");
+		}
+		try {
+			long start = System.nanoTime();
+			Map<String, Map<String, Double>> hits = run(queries, perQuery, reportName, new ProcessBuilder(cmd).start());
+			if (costModel != null && queries.size() == 1) {
+				costModel.addObservation(stage, queries.values().iterator().next().length(), System.nanoTime() - start);
+			}
+			return hits;
+		} finally {
+			cpuBudget.release(permits);
+		}
+	}
+
+	private Map<String, Map<String, Double>> run(Map<String, String> queries, boolean perQuery, String reportName, Process proc) throws IOException {
+
+
+		// queries are written by a separate thread, as PSI-BLAST may report hits before all queries were read
+		QueryWriter queryWriter = new QueryWriter(queries, proc.getOutputStream());
+		ErrorReader errorReader = new ErrorReader(proc.getErrorStream());
+		queryWriter.start();
+		errorReader.start();
+
+		Map<String, Map<String, Double>> hits;
+		InputStream report = proc.getInputStream();
+		OutputStream reportCopy = null;
+		boolean completed = false;
+		try {
+			if (reportDir != null && reportName != null) {
+				reportCopy = new BufferedOutputStream(new FileOutputStream(new File(reportDir, reportName)));
+				report = new CopyingInputStream(report, reportCopy);
+			}
+			if (perQuery) {
+				hits = BlastHitParser.parseHitsPerQuery(report, 1);
+			} else {
+				hits = new LinkedHashMap<String, Map<String, Double>>();
+				hits.put("", BlastHitParser.parseHits(report, 1));
+			}
+
+			// the remaining output is consumed, so that PSI-BLAST is not blocked
+			byte[] buffer = new byte[1 << 16];
+			while (report.read(buffer) != -1);
+
+			proc.waitFor();
+			completed = true;
+			queryWriter.join();
+			errorReader.join();
+
+		} catch (InterruptedException exc) {
+			throw new InterruptedIOException("PSI-BLAST was interrupted.");
+
+		} catch (IOException exc) {
+			// PSI-BLAST which failed before writing its report explains the failure in its error output
+			if (errorReader.getErrorOutput().length() > 0) {
+				throw new IOException(exc.getMessage() + " PSI-BLAST error output: " + errorReader.getErrorOutput(), exc);
+			}
+			throw exc;
+
+		} finally {
+			// PSI-BLAST is stopped if its output could not be read or copied
+			if (!completed) {
+				proc.destroy();
+			}
+			report.close();
+			if (reportCopy != null) {
+				reportCopy.close();
+			}
+		}
+
+		if (proc.exitValue() != 0) {
+			throw new IOException("PSI-BLAST failed with exit code " + proc.exitValue() + ": " + errorReader.getErrorOutput());
+		}
+		if (queryWriter.exc != null) {
+			throw queryWriter.exc;
+		}
+		if (errorReader.getErrorOutput().length() > 0) {
+			logger.fine(errorReader.getErrorOutput());
+		}
+		return hits;
+	}
+
+	// writes the queries in FASTA format to the standard input of PSI-BLAST
+	private static class QueryWriter extends Thread {
+
+		private Map<String, String> queries;
+		private OutputStream os;
+		private IOException exc = null;
+
+		QueryWriter(Map<String, String> queries, OutputStream os) {
+			this.queries = queries;
+			this.os = os;
+			setDaemon(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+
+			try {
+				Writer bw = new BufferedWriter(new OutputStreamWriter(os));
+				try {
+					for (String header: queries.keySet()) {
+						bw.write(">" + header.replace('\n', ' ') + "\n");
+						bw.write(queries.get(header));
+						bw.write("\n");
+					}
+				} finally {
+					bw.close();
+				}
+
+			} catch (IOException exc) {
+				this.exc = exc;
+			}
+		}
+	}
+
+	// collects the beginning of the error output, which would block PSI-BLAST if it was not read
+	private static class ErrorReader extends Thread {
+
+		private InputStream is;
+		private StringBuilder errorOutput = new StringBuilder();
+
+		ErrorReader(InputStream is) {
+			this.is = is;
+			setDaemon(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+
+			byte[] buffer = new byte[4096];
+			int numRead;
+			try {
+				try {
+					while ((numRead = is.read(buffer)) != -1) {
+						synchronized (this) {
+							if (errorOutput.length() < maxErrorLength) {
+								errorOutput.append(new String(buffer, 0, Math.min(numRead, maxErrorLength - errorOutput.length())));
+							}
+						}
+					}
+				} finally {
+					is.close();
+				}
+
+			} catch (IOException exc) {
+				logger.fine(exc.getMessage());
+			}
+		}
+
+		synchronized String getErrorOutput() {
+			return errorOutput.toString().trim();
+		}
+	}
+
+	// copies all bytes which are read from the stream to the given output stream
+	private static class CopyingInputStream extends FilterInputStream {
+
+		private OutputStream copy;
+
+		CopyingInputStream(InputStream is, OutputStream copy) {
+			super(is);
+			this.copy = copy;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#read()
+		 */
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				copy.write(b);
+			}
+			return b;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int numRead = super.read(b, off, len);
+			if (numRead > 0) {
+				copy.write(b, off, numRead);
+			}
+			return numRead;
+		}
+	}
+}
@@ -22,6 +22,13 @@
  */
 package io;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * 
  * @author Johannes Eichner
@@ -40,11 +47,31 @@ public class UniProtClient {
 		return(getUniProtSequences(uniprot_ids, true));
 	}
 	
-	public String[] getUniProtSequences(String[] uniprot_ids, boolean include_header) {
+	// all sequences are fetched concurrently, sequences which could not be fetched are null
+	public String[] getUniProtSequences(String[] uniprot_ids, final boolean include_header) {
+		
+		List<Callable<String>> fetches = new ArrayList<Callable<String>>();
+		for (final String uniprot_id: uniprot_ids) {
+			fetches.add(new Callable<String>() {
+				@Override
+				public String call() {
+					return getUniProtSequence(uniprot_id, include_header);
+				}
+			});
+		}
 		
 		String[] uniprot_seqs = new String[uniprot_ids.length];
-		for (int i=0; i<uniprot_ids.length; i++) {
-			uniprot_seqs[i] = getUniProtSequence(uniprot_ids[i], include_header);
+		try {
+			List<Future<String>> results = IOExecutor.invokeAll(fetches, 0, TimeUnit.SECONDS);
+			for (int i=0; i<uniprot_ids.length; i++) {
+				try {
+					uniprot_seqs[i] = results.get(i).get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		return(uniprot_seqs);
 	}
@@ -25,6 +25,7 @@ package io;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.net.URLConnection;
 
 /**
  * 
@@ -34,12 +35,19 @@ import java.net.URL;
  */
 public class Wget {
 	
+	// number of milliseconds after which a connection attempt or a stalled download is given up
+	private static final int connectTimeout = 30000;
+	private static final int readTimeout = 60000;
+	
 	public String fetchbuffered(String url) {
 		
 		BufferedInputStream bis = null;
 		
 		try {
-			bis = new BufferedInputStream(new URL(url).openStream());
+			URLConnection connection = new URL(url).openConnection();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			bis = new BufferedInputStream(connection.getInputStream());
 
 		} catch (IOException e) {
 			System.out.println("The given URL \"" + url + "\" was not found.");
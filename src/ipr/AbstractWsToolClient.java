@@ -543,7 +543,9 @@ public abstract class AbstractWsToolClient {
 				}
 			}
 			catch(InterruptedException ex) {
-				// Ignore
+				// Polling was cancelled, keep interrupt status for the caller
+				Thread.currentThread().interrupt();
+				throw new ServiceException("Polling of job " + jobId + " was interrupted.");
 			}
 			catch(IOException ex) {
 				// Report and continue
@@ -27,6 +27,7 @@ package ipr;
 import java.io.File;
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
 import javax.xml.rpc.Call;
 import javax.xml.rpc.ServiceException;
 import org.apache.axis.transport.http.HTTPConstants;
@@ -404,6 +405,41 @@ public class IPRScan5Client extends AbstractWsToolClient {
 		return jobId;
 	}
 
+	/**
+	 * Submits one job per sequence of the given FASTA file. In contrast to the
+	 * command line interface, the job identifiers are not written to the
+	 * standard output, so that jobs can be submitted by concurrent threads.
+	 * 
+	 * @param fastaFile
+	 *            FASTA file containing the sequences
+	 * @param email
+	 *            E-mail address of the submitter
+	 * @param goterms
+	 *            Enable GO terms
+	 * @param jobIds
+	 *            List to which the identifiers of the submitted jobs are
+	 *            added (also if a later submission fails)
+	 * @throws IOException
+	 * @throws ServiceException
+	 */
+	public void submitMultifasta(String fastaFile, String email, boolean goterms, List<String> jobIds)
+			throws IOException, ServiceException {
+		printDebugMessage("submitMultifasta", "Begin", 1);
+		this.setFastaInputFile(fastaFile);
+		try {
+			String fastaSeq;
+			while ((fastaSeq = this.nextFastaSequence()) != null) {
+				InputParameters params = new InputParameters();
+				params.setGoterms(Boolean.valueOf(goterms));
+				params.setSequence(fastaSeq);
+				jobIds.add(this.runApp(email, null, params));
+			}
+		} finally {
+			this.closeFastaFile();
+		}
+		printDebugMessage("submitMultifasta", "End", 1);
+	}
+
 	/**
 	 * Populate input parameters structure from command-line options.
 	 * 
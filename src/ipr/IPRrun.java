@@ -23,12 +23,13 @@
 package ipr;
 
 import io.BasicTools;
+import io.CostModel;
+import io.FastaChunkReader;
+import io.IOExecutor;
 import io.NoExitSecurityManager;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -37,10 +38,18 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.rpc.ServiceException;
 
@@ -55,30 +64,49 @@ import uk.ac.ebi.webservices.axis1.stubs.iprscan5.WsResultType;
 public class IPRrun {
 	
 	public static boolean addSpacerLine = true;
+	
+	// maximum number of minutes to wait for the jobs of the InterProScan web service (0: no limit)
+	public static long pollTimeout = 0;
  	
-	// fixes bug in current version of InterProScan which removes first line of sequence if header is given
-	private static void addSpacerLine(String seqfile) {
+	// writes the sequences longest first, so that the jobs of the longest sequences are submitted first
+	// (a spacer line fixes bug in current version of InterProScan which removes first line of sequence if header is given)
+	private static void prepareSeqfile(String seqfile) {
 		
 		String SPACER_LINE = "SPACERLINESPACERLINESPACERLINESPACERLINESPACERLINESPACERLINE";
 		
 		Map<String,String> fastaSeqs = BasicTools.readFASTA(seqfile, true);
-		for (String header: fastaSeqs.keySet()) {
+		Map<String,String> sortedSeqs = new LinkedHashMap<String,String>();
+		for (String header: CostModel.getLongestFirst(fastaSeqs)) {
 			String currSeq = fastaSeqs.get(header);
-			fastaSeqs.put(header, SPACER_LINE + currSeq);
+			sortedSeqs.put(header, (addSpacerLine ? SPACER_LINE : "") + currSeq);
 		}
-		BasicTools.writeFASTA(fastaSeqs, seqfile);
+		BasicTools.writeFASTA(sortedSeqs, seqfile);
 	}
 	
 	public IPRrun(boolean silent) {
 		this.silent = silent;
 	}
 	
+	public IPRrun(boolean silent, IPRstore store) {
+		this.silent = silent;
+		this.store = store;
+	}
+	
 	public IPRrun() {}
 	
 	private boolean silent = true;
+	
+	// results of previously analyzed sequences (optional)
+	private IPRstore store;
+	
+	// number of jobs submitted to the InterProScan web service in the last run
+	private int numJobs = -1;
+	
+	// the local InterProScan run exited successfully and its output was saved completely
+	private boolean localRunComplete = false;
 
 	// gfx related map
-	private static Map<String, String> seq2job = new HashMap<String,String>();
+	private Map<String, String> seq2job = new HashMap<String,String>();
 	
 	// default: use local installation of InterProScan and do not write output of tool to file
 	public ArrayList<String[]> run(String seqfile, String iprpath) {
@@ -99,103 +127,160 @@ public class IPRrun {
 	
 	public ArrayList<String[]> run(String seqfile, String iprpath, String basedir, boolean useWeb, boolean standAloneMode) {
 		
+		if (store == null) {
+			return runInterProScan(seqfile, iprpath, basedir, useWeb);
+		}
+		
+		try {
+			// only sequences not contained in the store are submitted to InterProScan
+			Map<String, String> sequences;
+			FastaChunkReader reader = new FastaChunkReader(seqfile);
+			try {
+				sequences = reader.nextChunk(Integer.MAX_VALUE);
+			} finally {
+				reader.close();
+			}
+			Map<String, String> missingSeqs = new LinkedHashMap<String, String>();
+			Set<String> submittedSeqs = new HashSet<String>();
+			for (String seqID: sequences.keySet()) {
+				String seq = sequences.get(seqID);
+				if (!store.contains(seq) && submittedSeqs.add(seq.toUpperCase())) {
+					missingSeqs.put(seqID, seq);
+				}
+			}
+			if (!silent) System.out.println("InterProScan store contains " + (sequences.size() - missingSeqs.size()) + " of " + sequences.size() + " sequence(s).");
+			
+			if (!missingSeqs.isEmpty()) {
+				BasicTools.writeFASTA(missingSeqs, seqfile);
+				ArrayList<String[]> IPRoutput = runInterProScan(seqfile, iprpath, basedir, useWeb);
+				
+				Map<String, List<String[]>> seq2rows = new HashMap<String, List<String[]>>();
+				for (String[] row: IPRoutput) {
+					String seqID = row[0].trim();
+					if (!seq2rows.containsKey(seqID)) {
+						seq2rows.put(seqID, new ArrayList<String[]>());
+					}
+					seq2rows.get(seqID).add(row);
+				}
+				
+				// sequences without rows only have no domains if all web service jobs returned a result or the local run succeeded
+				boolean complete = useWeb ? numJobs == missingSeqs.size() : localRunComplete;
+				for (String seqID: missingSeqs.keySet()) {
+					if (seq2rows.containsKey(seqID)) {
+						store.put(missingSeqs.get(seqID), seq2rows.get(seqID));
+					} else if (complete) {
+						store.put(missingSeqs.get(seqID), new ArrayList<String[]>());
+					}
+				}
+			}
+			return new ArrayList<String[]>(store.getRows(sequences));
+			
+		} catch (IOException e) {
+			// the process is not terminated, as it may be a server which runs other predictions
+			e.printStackTrace();
+			System.out.println("Error. InterProScan store could not be accessed.");
+			throw new IllegalStateException("InterProScan store could not be accessed: " + e.getMessage(), e);
+		}
+	}
+	
+	private ArrayList<String[]> runInterProScan(String seqfile, String iprpath, final String basedir, boolean useWeb) {
+		
 		ArrayList<String[]> IPRoutput = null;
 		InputStream iprScan_StdOut;
 		
-		// HACK: add dummy line to fasta file to fix bug in InterProScan
-		if (addSpacerLine) {
-			addSpacerLine(seqfile);
-		}
+		// HACK: add dummy line to fasta file to fix bug in InterProScan (if addSpacerLine is set)
+		prepareSeqfile(seqfile);
 		
 		if (useWeb) { // SOAP
 
-			// set parameter
-			String[] param = new String[6];
-			
-			param[0] = "--async";
-			param[1] = "--email";
-			param[2] = "tfpredict@hushmail.com";
-			param[3] = "--goterms";
-			param[4] = "--multifasta";
-			param[5] = seqfile;
-			
-			// redirect System.out and System.err
-			PrintStream orig_stdout = System.out;
-			ByteArrayOutputStream stdout = new ByteArrayOutputStream();
-			System.setOut(new PrintStream(stdout));
-			PrintStream orig_stderr = System.err;
-			if (silent) {
-				System.setErr(new PrintStream(new ByteArrayOutputStream()));
-			}
-			
-			// prevent System.exit
-			//SecurityManager SecMan = System.getSecurityManager();
-			//System.setSecurityManager(new NoExitSecurityManager());
-						
-			// submit job
+			// jobs are submitted without redirecting the standard streams, as several predictions may run concurrently
+			ArrayList<String> jobs = new ArrayList<String>();
 			try {
-				IPRScan5Client.main(param);
-			} catch (Exception e) {	}
-			
-			// restore System.exit
-			//System.setSecurityManager(SecMan);
-			
-			// grab jobids
-			ArrayList<String> jobs = grabJobIDs(new ByteArrayInputStream(stdout.toByteArray()));
-			
-			// restore System.out
-			System.setOut(orig_stdout);
+				IPRScan5Client submitter = new IPRScan5Client();
+				if (silent) {
+					submitter.setOutputLevel(0);
+				}
+				submitter.submitMultifasta(seqfile, "tfpredict@hushmail.com", true, jobs);
+			} catch (Exception e) {
+				System.out.println("Error. InterProScan jobs could not be submitted: " + e.getMessage());
+			}
+			if (jobs.isEmpty()) System.err.println("Empty Joblist!");
 			
-			IPRScan5Client webIPR = new IPRScan5Client();
-
 			if (!silent) System.out.println("Waiting for " + jobs.size() + " job(s) to finish ...");
-			for (String jobid : jobs) {
-				if (!silent) System.out.println("Polling job \"" + jobid + "\" ...");
-					try {
-					  new File(basedir).mkdirs();
+			new File(basedir).mkdirs();
+			List<Callable<String>> polls = new ArrayList<Callable<String>>();
+			for (final String jobid : jobs) {
+				polls.add(new Callable<String>() {
+					@Override
+					public String call() throws IOException, ServiceException {
+						if (!silent) System.out.println("Polling job \"" + jobid + "\" ...");
+						// each job has its own client, as the clients keep the state of the connection
+						IPRScan5Client webIPR = new IPRScan5Client();
+						if (silent) {
+							webIPR.setOutputLevel(0);
+						}
 						webIPR.getResults(jobid, basedir + jobid, "tsv");
 						webIPR.getResults(jobid, basedir + jobid, "svg");
 						//webIPR.getResults(jobid, basedir + jobid, "out");
 						//webIPR.getResults(jobid, basedir + jobid, "visual-png");
-					} catch (IOException e) {
-						e.printStackTrace();
-					} catch (ServiceException e) {
-						e.printStackTrace();
+						if (!silent) System.out.println("Job \"" + jobid + "\" finished.");
+						return jobid;
 					}
-				if (!silent) System.out.println("Job \"" + jobid + "\" finished.");
+				});
 			}
 			
-			// restore System.err
-			if (silent) {
-				System.setErr(orig_stderr);
+			// all jobs are polled concurrently, only the results of finished jobs are read
+			ArrayList<String> finishedJobs = new ArrayList<String>();
+			try {
+				List<Future<String>> results = IOExecutor.invokeAll(polls, pollTimeout, TimeUnit.MINUTES);
+				for (int i=0; i<results.size(); i++) {
+					try {
+						finishedJobs.add(results.get(i).get());
+					} catch (CancellationException e) {
+						System.out.println("Error. InterProScan job \"" + jobs.get(i) + "\" did not finish within " + pollTimeout + " minutes.");
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			numJobs = finishedJobs.size();
 			
-			IPRoutput = readIPROutput(basedir, jobs);
+			IPRoutput = readIPROutput(basedir, finishedJobs);
 
 		} else { // local - requires help, doesn't work with the newest verisions of interproscan
 
+			numJobs = -1;
+			localRunComplete = false;
 			Runtime rt = Runtime.getRuntime();
 
 			Process proc = null;
 			try {
 				proc = rt.exec(iprpath +" -cli -i " + seqfile + " -format raw -goterms -iprlookup -altjobs");
-				proc.waitFor();
 
 			} catch (IOException e) {
 				e.printStackTrace();
 				System.exit(1);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
 			}
+			// the output is read while InterProScan is running, as full pipe buffers would block the process
+			IOExecutor.readLines(proc.getErrorStream(), false);
 			iprScan_StdOut = proc.getInputStream();
 			String iprScan_resultFile = basedir + "/InterproScanOutput.txt";
 			IPRoutput = readIPRoutput(iprScan_StdOut, iprScan_resultFile);
+			try {
+				// sequences without domains do not appear in the output, which is empty if no sequence has a domain
+				localRunComplete = proc.waitFor() == 0 && new File(iprScan_resultFile).exists();
+			} catch (InterruptedException e) {
+				proc.destroy();
+				Thread.currentThread().interrupt();
+			}
 		}
 		return IPRoutput;
 	}	
 	
 	
-	private static ArrayList<String[]> readIPROutput(String basedir, ArrayList<String> jobs) {
+	private ArrayList<String[]> readIPROutput(String basedir, ArrayList<String> jobs) {
 		
 		ArrayList<String[]> IPRoutput = new ArrayList<String[]>();
 		
@@ -281,26 +366,6 @@ public class IPRrun {
 	}
 	
 	
-	private static ArrayList<String> grabJobIDs(ByteArrayInputStream byteArrayInputStream) {
-		
-		ArrayList<String> jobids = new ArrayList<String>();
-		
-		String line = null;
-		try {
-			 BufferedReader br = new BufferedReader(new InputStreamReader(byteArrayInputStream, "UTF-8")); 
-			 while ((line = br.readLine()) != null) {
-				 jobids.add(line.trim());
-			 }			 
-			 br.close();
-		} catch(IOException ioe) {
-			System.out.println(ioe.getMessage());
-		}
-		
-		if (jobids.isEmpty()) System.err.println("Empty Joblist!");
-		
-		return jobids;
-	}
-
 	public Map<String, String> getSeq2job() {
 		return seq2job;
 	}
@@ -0,0 +1,434 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ipr;
+
+import io.FastaChunkReader;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local store of InterProScan results. The TSV rows of each sequence are
+ * appended to a data file and can be found via the MD5 digest of the sequence
+ * in a sorted index file, which is memory-mapped for lookups. Sequences without
+ * any InterPro domain are stored with an empty list of rows, so that they are
+ * not submitted to InterProScan again either.
+ * <p>
+ * Each record of the data file consists of the digest, the length of the rows
+ * and the rows (UTF-8) without the sequence identifier in the first column.
+ * The index file starts with the length of the data file covered by the index,
+ * followed by entries of the digest, the offset and the length of a record.
+ * Records which were appended after the index was written (e.g., by another
+ * process) are read from the data file when the store is opened.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class IPRstore implements Closeable {
+
+	private static final int digestLength = 16;
+	private static final int recordHeaderLength = digestLength + 4;
+	private static final int indexEntryLength = digestLength + 8 + 4;
+
+	private File dataFile;
+	private File indexFile;
+	private RandomAccessFile data;
+
+	private MappedByteBuffer index;
+	private int numIndexed;
+	private long indexedLength;
+
+	// records which are not yet contained in the index file (hexadecimal digest -> offset and length)
+	private Map<String, long[]> newEntries = new HashMap<String, long[]>();
+
+	/**
+	 *
+	 * @param storeDir directory containing the data and index file
+	 * @throws IOException
+	 */
+	public IPRstore(String storeDir) throws IOException {
+
+		File dir = new File(storeDir);
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+			throw new IOException("Could not create directory for InterProScan results: " + storeDir);
+		}
+		dataFile = new File(dir, "iprscan_rows.dat");
+		indexFile = new File(dir, "iprscan_rows.idx");
+		data = new RandomAccessFile(dataFile, "rw");
+
+		mapIndex();
+		scanNewRecords();
+	}
+
+	private void mapIndex() throws IOException {
+
+		index = null;
+		numIndexed = 0;
+		indexedLength = 0;
+		if (indexFile.exists() && indexFile.length() >= 8) {
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				raf.close();
+			}
+			indexedLength = index.getLong(0);
+			numIndexed = (index.capacity() - 8) / indexEntryLength;
+		}
+	}
+
+	// reads the headers of all records behind the part of the data file covered by the index
+	private void scanNewRecords() throws IOException {
+
+		FileLock lock = data.getChannel().lock();
+		try {
+			scanNewRecordsLocked();
+		} finally {
+			lock.release();
+		}
+	}
+
+	// as scanNewRecords(), the caller has to hold the lock of the data file
+	private void scanNewRecordsLocked() throws IOException {
+
+		long pos = indexedLength;
+		long length = data.length();
+		byte[] digest = new byte[digestLength];
+		while (pos + recordHeaderLength <= length) {
+			data.seek(pos);
+			data.readFully(digest);
+			int recordLength = data.readInt();
+			if (pos + recordHeaderLength + recordLength > length) {
+				break;
+			}
+			String key = toHex(digest);
+			if (!newEntries.containsKey(key)) {
+				newEntries.put(key, new long[] {pos + recordHeaderLength, recordLength});
+			}
+			pos += recordHeaderLength + recordLength;
+		}
+
+		// remove incomplete record written by an interrupted process
+		if (pos < length) {
+			data.setLength(pos);
+		}
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return true if the InterProScan results of the given sequence are contained in the store
+	 * @throws IOException
+	 */
+	public synchronized boolean contains(String sequence) throws IOException {
+		return find(getDigest(sequence)) != null;
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @param seqID identifier written to the first column of the returned rows
+	 * @return InterProScan rows of the given sequence, or null if the sequence is not contained in the store
+	 * @throws IOException
+	 */
+	public synchronized List<String[]> get(String sequence, String seqID) throws IOException {
+
+		long[] record = find(getDigest(sequence));
+		if (record == null) {
+			return null;
+		}
+		byte[] bytes = new byte[(int) record[1]];
+		data.seek(record[0]);
+		data.readFully(bytes);
+
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line: new String(bytes, "UTF-8").split("\n")) {
+			if (!line.isEmpty()) {
+				rows.add((seqID + line).split("\t"));
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 *
+	 * @param sequences map from sequence identifiers to sequences
+	 * @return InterProScan rows of all given sequences contained in the store
+	 * @throws IOException
+	 */
+	public synchronized List<String[]> getRows(Map<String, String> sequences) throws IOException {
+
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String seqID: sequences.keySet()) {
+			List<String[]> currRows = get(sequences.get(seqID), seqID);
+			if (currRows != null) {
+				rows.addAll(currRows);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Adds the InterProScan rows of the given sequence to the store. Results of
+	 * sequences which are already contained in the store are not replaced.
+	 *
+	 * @param sequence
+	 * @param rows InterProScan rows of the sequence (may be empty)
+	 * @throws IOException
+	 */
+	public synchronized void put(String sequence, List<String[]> rows) throws IOException {
+
+		byte[] digest = getDigest(sequence);
+		if (find(digest) != null) {
+			return;
+		}
+		StringBuilder record = new StringBuilder();
+		for (String[] row: rows) {
+			for (int i=1; i<row.length; i++) {
+				record.append('\t');
+				record.append(row[i]);
+			}
+			record.append('\n');
+		}
+		byte[] bytes = record.toString().getBytes("UTF-8");
+
+		FileLock lock = data.getChannel().lock();
+		try {
+			long pos = data.length();
+			data.seek(pos);
+			data.write(digest);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+			newEntries.put(toHex(digest), new long[] {pos + recordHeaderLength, bytes.length});
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Imports InterProScan results in TSV format for the sequences of the given
+	 * FASTA file. Sequences without rows in the TSV file are stored as
+	 * sequences without InterPro domains.
+	 *
+	 * @param fastaFile sequences which were submitted to InterProScan
+	 * @param tsvFile InterProScan output of these sequences
+	 * @return number of imported sequences
+	 * @throws IOException
+	 */
+	public int importTSV(String fastaFile, String tsvFile) throws IOException {
+
+		Map<String, List<String[]>> seq2rows = new HashMap<String, List<String[]>>();
+		for (String[] row: IPRrun.readIPRoutput(tsvFile)) {
+			String seqID = row[0].trim();
+			List<String[]> rows = seq2rows.get(seqID);
+			if (rows == null) {
+				rows = new ArrayList<String[]>();
+				seq2rows.put(seqID, rows);
+			}
+			rows.add(row);
+		}
+
+		int numImported = 0;
+		FastaChunkReader reader = new FastaChunkReader(fastaFile);
+		try {
+			Map<String, String> chunk;
+			while (!(chunk = reader.nextChunk(1000)).isEmpty()) {
+				for (String seqID: chunk.keySet()) {
+					List<String[]> rows = seq2rows.get(seqID);
+					put(chunk.get(seqID), rows != null ? rows : new ArrayList<String[]>());
+					numImported++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return numImported;
+	}
+
+	/**
+	 * Writes the index file containing all records of the data file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void writeIndex() throws IOException {
+
+		// include records appended by other processes (under the same lock, so that the index covers all records up to its length)
+		FileLock lock = data.getChannel().lock();
+		try {
+			scanNewRecordsLocked();
+
+			TreeMap<String, long[]> entries = new TreeMap<String, long[]>();
+			byte[] digest = new byte[digestLength];
+			for (int i=0; i<numIndexed; i++) {
+				int pos = 8 + i * indexEntryLength;
+				for (int j=0; j<digestLength; j++) {
+					digest[j] = index.get(pos + j);
+				}
+				entries.put(toHex(digest), new long[] {index.getLong(pos + digestLength), index.getInt(pos + digestLength + 8)});
+			}
+			for (String key: newEntries.keySet()) {
+				if (!entries.containsKey(key)) {
+					entries.put(key, newEntries.get(key));
+				}
+			}
+
+			// hexadecimal digests are sorted in the same order as the unsigned bytes
+			File tmpFile = new File(indexFile.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeLong(data.length());
+				for (String key: entries.keySet()) {
+					long[] record = entries.get(key);
+					out.write(fromHex(key));
+					out.writeLong(record[0]);
+					out.writeInt((int) record[1]);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(indexFile)) {
+				indexFile.delete();
+				if (!tmpFile.renameTo(indexFile)) {
+					throw new IOException("Could not write index of InterProScan results: " + indexFile);
+				}
+			}
+			newEntries.clear();
+			mapIndex();
+
+		} finally {
+			lock.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!newEntries.isEmpty()) {
+			writeIndex();
+		}
+		data.close();
+	}
+
+	// returns offset and length of the record of the given digest (or null if not contained)
+	private long[] find(byte[] digest) {
+
+		long[] record = newEntries.get(toHex(digest));
+		if (record != null || index == null) {
+			return record;
+		}
+
+		// binary search in memory-mapped index
+		int low = 0;
+		int high = numIndexed - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int pos = 8 + mid * indexEntryLength;
+			int cmp = compare(pos, digest);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return new long[] {index.getLong(pos + digestLength), index.getInt(pos + digestLength + 8)};
+			}
+		}
+		return null;
+	}
+
+	private int compare(int pos, byte[] digest) {
+		for (int i=0; i<digestLength; i++) {
+			int cmp = (index.get(pos + i) & 0xFF) - (digest[i] & 0xFF);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+	private static byte[] getDigest(String sequence) throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5").digest(sequence.toUpperCase().getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException exc) {
+			throw new IOException(exc);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i=0; i<bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2*i, 2*i + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Imports existing InterProScan output into a store.
+	 *
+	 * @param args store directory followed by pairs of FASTA and TSV files
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 3 || args.length % 2 == 0) {
+			System.out.println("Usage: java -cp TFpredict.jar ipr.IPRstore <store_dir> <fasta_file> <tsv_file> [<fasta_file> <tsv_file> ...]");
+			System.exit(0);
+		}
+		IPRstore store = new IPRstore(args[0]);
+		try {
+			for (int i=1; i<args.length; i+=2) {
+				int numImported = store.importTSV(args[i], args[i+1]);
+				System.out.println("Imported InterProScan results of " + numImported + " sequences from " + args[i+1] + ".");
+			}
+		} finally {
+			store.close();
+		}
+	}
+}
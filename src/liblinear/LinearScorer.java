@@ -0,0 +1,212 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package liblinear;
+
+import java.io.FileInputStream;
+import java.io.Serializable;
+
+import resources.Resource;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.LibSVMLoader;
+
+/**
+ * Scores dense feature vectors directly with the weights of the
+ * {@link Model} of a trained {@link LibLINEARWekaAdapter}. The decision values
+ * are accumulated in the same order as by
+ * {@link LibLINEARWekaAdapter#distributionForInstance(Instance)}, i.e., over
+ * all non-zero features followed by the bias term, so that the returned values
+ * are identical to those of the adapter, but no filter, reflection or
+ * {@link FeatureNode} is involved. The scorer does not refer to any WEKA
+ * class and can therefore be stored and loaded without the adapter.
+ * <p>
+ * Only adapters which do not normalize the data, do not convert nominal
+ * attributes and return decision values instead of probability estimates
+ * are supported (see {@link #create(Classifier)}). Feature vectors with
+ * missing values have to be scored by the adapter, as their values are
+ * replaced with the means of the training data.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class LinearScorer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private double[] w;
+	private int nr_w;
+	private int nr_class;
+	// number of weights (including the one of the bias term of the model)
+	private int n;
+	// value of the bias feature appended to each feature vector (no bias feature if negative)
+	private double bias;
+
+	private LinearScorer(Model model, double bias) {
+
+		this.w = model.w;
+		this.nr_class = model.nr_class;
+		this.nr_w = (model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS) ? 1 : model.nr_class;
+		this.n = (model.bias >= 0) ? model.nr_feature + 1 : model.nr_feature;
+		this.bias = bias;
+	}
+
+	/**
+	 *
+	 * @param classifier
+	 * @return a scorer for the given classifier or {@code null} if the
+	 *         classifier is not a supported {@link LibLINEARWekaAdapter}
+	 */
+	public static LinearScorer create(Classifier classifier) {
+
+		if (!(classifier instanceof LibLINEARWekaAdapter)) {
+			return null;
+		}
+		LibLINEARWekaAdapter adapter = (LibLINEARWekaAdapter) classifier;
+		if (!(adapter.getModel() instanceof Model) || adapter.m_Filter != null || adapter.getConvertNominalToBinary() || adapter.getProbabilityEstimates()) {
+			return null;
+		}
+		return new LinearScorer((Model) adapter.getModel(), adapter.getBias());
+	}
+
+	/**
+	 *
+	 * @return number of values returned for each feature vector
+	 */
+	public int getNumValues() {
+		return nr_class;
+	}
+
+	/**
+	 * Computes the decision values of the given feature vector.
+	 *
+	 * @param features values of all attributes except the class attribute,
+	 *        which has to be the last attribute
+	 * @param values array of length {@link #getNumValues()} to which the
+	 *        decision values are written
+	 * @return {@code false} if the feature vector contains missing values,
+	 *         which have to be scored by the adapter
+	 */
+	public boolean distributionForInstance(double[] features, double[] values) {
+
+		for (int i=0; i<nr_class; i++) {
+			values[i] = 0;
+		}
+		for (int j=0; j<features.length; j++) {
+			double value = features[j];
+			if (Double.isNaN(value)) {
+				return false;
+			}
+			// attribute j has the index j+1 in LIBLINEAR
+			if (value != 0 && j < n) {
+				int offset = j * nr_w;
+				for (int i=0; i<nr_w; i++) {
+					values[i] += w[offset + i] * value;
+				}
+			}
+		}
+
+		// the bias feature follows the class attribute
+		int biasIndex = features.length + 2;
+		if (bias >= 0 && biasIndex <= n) {
+			int offset = (biasIndex - 1) * nr_w;
+			for (int i=0; i<nr_w; i++) {
+				values[i] += w[offset + i] * bias;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @param features values of all attributes except the class attribute
+	 * @return decision values of the given feature vector or {@code null} if
+	 *         it contains missing values
+	 */
+	public double[] distributionForInstance(double[] features) {
+		double[] values = new double[nr_class];
+		return distributionForInstance(features, values) ? values : null;
+	}
+
+	/**
+	 * Compares the values of the scorer with those of the adapter for all
+	 * feature vectors of the given file and reports the number of values which
+	 * are not identical as well as the time needed by both methods.
+	 *
+	 * @param args model resource (e.g., {@code models/tfPred/svmLinear.model})
+	 *        and feature file in LIBSVM format
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.out.println("Usage: java liblinear.LinearScorer <model_resource> <feature_file>");
+			System.exit(0);
+		}
+		Classifier classifier = (Classifier) weka.core.SerializationHelper.read(Resource.class.getResourceAsStream(args[0]));
+		LinearScorer scorer = create(classifier);
+		if (scorer == null) {
+			System.out.println("Error. " + args[0] + " is not supported by the scorer.");
+			System.exit(0);
+		}
+		LibSVMLoader loader = new LibSVMLoader();
+		loader.setSource(new FileInputStream(args[1]));
+		Instances insts = loader.getDataSet();
+		insts.setClassIndex(insts.numAttributes() - 1);
+
+		double[][] features = new double[insts.numInstances()][insts.numAttributes() - 1];
+		for (int i=0; i<insts.numInstances(); i++) {
+			for (int j=0; j<features[i].length; j++) {
+				features[i][j] = insts.instance(i).value(j);
+			}
+		}
+
+		long start = System.nanoTime();
+		double[][] expected = new double[insts.numInstances()][];
+		for (int i=0; i<insts.numInstances(); i++) {
+			expected[i] = classifier.distributionForInstance(insts.instance(i));
+		}
+		long adapterTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		double[][] actual = new double[insts.numInstances()][scorer.getNumValues()];
+		for (int i=0; i<insts.numInstances(); i++) {
+			scorer.distributionForInstance(features[i], actual[i]);
+		}
+		long scorerTime = System.nanoTime() - start;
+
+		int numDifferent = 0;
+		for (int i=0; i<insts.numInstances(); i++) {
+			for (int k=0; k<expected[i].length; k++) {
+				if (Double.doubleToLongBits(expected[i][k]) != Double.doubleToLongBits(actual[i][k])) {
+					numDifferent++;
+				}
+			}
+		}
+		System.out.println("Feature vectors:     " + insts.numInstances());
+		System.out.println("Different values:    " + numDifferent);
+		System.out.println("Adapter:             " + adapterTime / 1000000 + " ms");
+		System.out.println("Scorer:              " + scorerTime / 1000000 + " ms");
+	}
+}
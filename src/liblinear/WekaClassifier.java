@@ -84,6 +84,13 @@ public class WekaClassifier {
 	 */
 	private static final Logger logger = Logger.getLogger(WekaClassifier.class.getName());
 
+	/**
+	 * The classifier itself always runs in the calling thread. This flag only
+	 * adapts the progress output to several classifiers running at the same
+	 * time.
+	 *
+	 * @param multithreading {@code true} if other classifiers run concurrently
+	 */
 	public void setMultithreading(boolean multithreading) {
 		this.multithreading = multithreading;
 	}
@@ -23,6 +23,7 @@
 package liblinear;
 
 import io.BasicTools;
+import io.CpuBudget;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -252,7 +253,7 @@ public class WekaLauncher {
 				queue.add(new Job(classMethod.name()));
 			}
 			
-			ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			ExecutorService exec = Executors.newFixedThreadPool(CpuBudget.getGlobal().getSize());
 			try {
 				exec.invokeAll(queue);
 			} catch (InterruptedException e) {
@@ -356,7 +357,15 @@ public class WekaLauncher {
 
 			WekaClassifier classifier = new WekaClassifier(classifierType, libsvmFeatureFile, multiruns, folds, nestedCV, modelFile, summaryFile, classProbFile);
 			classifier.setMultithreading(true);
-			classifier.run();
+
+			// the classifier runs in the thread of this job (the flag above only adapts its output) --> one permit
+			CpuBudget cpuBudget = CpuBudget.getGlobal();
+			int permits = cpuBudget.acquire(1);
+			try {
+				classifier.run();
+			} finally {
+				cpuBudget.release(permits);
+			}
 
 			return "Done.";
 		}
@@ -34,6 +34,7 @@ import java.util.List;
 
 import liblinear.WekaClassifier.ClassificationMethod;
 import modes.Predict;
+import modes.Server;
 import modes.Train;
 
 import org.apache.commons.cli.CommandLine;
@@ -53,6 +54,7 @@ public class TFpredictMain {
 	private static boolean galaxyMode = false;
 	private static boolean standAloneMode = false;
 	private static boolean trainMode = false;
+	private static boolean serverMode = false;
 	
 	private static final String[] validClassifiers = new String[] {"SVM_linear", "KNN", "NaiveBayes"}; 
 	private static final String version = "1.3";
@@ -116,6 +118,17 @@ public class TFpredictMain {
 				e.printStackTrace();
 			}
 			
+		} else if (serverMode) {
+			printCopyright();
+			try {
+				Server.main(cmd);
+			} catch (final Exception e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			// server keeps running in its own threads
+			return;
+			
 		} else if (standAloneMode) {
 			printCopyright();
 			checkArguments(cmd);
@@ -137,6 +150,9 @@ public class TFpredictMain {
 		} else if (firstArg.equals("-train")) {
 			trainMode = true;
 			
+		} else if (firstArg.equals("-server")) {
+			serverMode = true;
+			
 		} else {
 			standAloneMode = true;
 		}
@@ -227,11 +243,28 @@ public class TFpredictMain {
 			options.addOption("fasta", true, "input FASTA file for batch mode");
 			options.addOption("htmlOutfile", true, "output HTML report");
 			options.addOption("sabineOutfile", true, "output file in SABINE format");
+			options.addOption("jsonOutfile", true, "output file with one JSON object per sequence");
+			options.addOption("tsvOutfile", true, "output file with one tab-separated line per sequence");
+			options.addOption("flushInterval", true, "number of sequences after which the JSON Lines and TSV outputs are flushed");
 			options.addOption("basedir", true, "directory for temporary files");
 			options.addOption("species", true, "organism (e.g. Homo sapiens)");
 			options.addOption("useWeb", false, "use InterProScan webservice");
 			options.addOption("blastPath", true, "path to BLAST");
 			options.addOption("ignoreCharacteristicDomains", false, "use characteristic InterPro domains for classification");
+			options.addOption("numThreads", true, "number of sequences processed by PSI-BLAST in parallel");
+			options.addOption("cpuBudget", true, "number of CPUs shared by all parallel stages and external tools");
+			options.addOption("blastDBcache", true, "directory in which generated BLAST databases are kept");
+			options.addOption("predictionCache", true, "directory in which prediction results are cached");
+			options.addOption("iprStore", true, "directory in which InterProScan results are stored");
+			options.addOption("blastHitCache", true, "directory in which PSI-BLAST hits are cached");
+			options.addOption("blastReportDir", true, "directory to which PSI-BLAST reports are written for debugging");
+			options.addOption("journal", true, "directory of the work journal which allows to resume an interrupted run");
+			options.addOption("searchEngine", true, "homology search engine (psiblast or sw)");
+			options.addOption("kmerPrefilter", false, "align only database sequences selected by a k-mer index");
+			options.addOption("chunkSize", true, "number of sequences processed at once in streaming batch mode");
+			options.addOption("blastBatchSize", true, "number of sequences searched by one PSI-BLAST process");
+			options.addOption("cascadeModel", true, "sequence-only first-stage model of the cascade mode");
+			options.addOption("cascadeBand", true, "first-stage TF probabilities for which the full pipeline is run (lower,upper)");
 			
 			// optional arguments
 			options.addOption("tfClassifier", true, "file containing TF/Non-TF classifier");
@@ -250,26 +283,90 @@ public class TFpredictMain {
 			options.addOption("folds", true, "number of folds");	
 			options.addOption("nestedCV", false, "switch to run nested cross-validation with model selection");	
 			options.addOption("multiThreading", false, "switch to enable multi-threading");
+			options.addOption("cpuBudget", true, "number of CPUs shared by all parallel stages and external tools");
+			options.addOption("cascadeFasta", true, "labeled FASTA file for training the first stage of the cascade mode");
+			options.addOption("cascadeModel", true, "file to which the first stage of the cascade mode is written");
 			
-	    // STAND-ALONE-MODE
-		} else if (standAloneMode) {
-
-			options.addOption("fasta", true, "input FASTA file for batch mode");
-			options.addOption("output", true, "output file name");
+		// SERVER MODE
+		} else if (serverMode) {
+			
+			options.addOption("server", false, "switch for prediction server mode");
+			options.addOption("port", true, "port on which the server accepts predictions");
+			options.addOption("bindAddress", true, "address to which the server is bound");
+			options.addOption("outputDir", true, "directory in which the job directories of the predictions are kept");
 			options.addOption("prokaryote", false, "runs TFpredict prediction for prokaryotic data");
-			options.addOption("sabineOutfile", true, "output file in SABINE format");
-			options.addOption("species", true, "organism (e.g. Homo sapiens)");
 			options.addOption("tfClassifier", true, "file containing TF/Non-TF classifier");
 			options.addOption("superClassifier", true, "file containing Superclass classifier");
 			options.addOption("iprscanPath", true, "path to InterProScan");
 			options.addOption("blastPath", true, "path to BLAST");
-			options.addOption("basedir", true, "directory for temporary files");
-			options.addOption("standAloneMode", false, "directory for temporary files");
 			options.addOption("ignoreCharacteristicDomains", false, "use characteristic InterPro domains for classification");
+			options.addOption("numThreads", true, "number of sequences processed by PSI-BLAST in parallel");
+			options.addOption("cpuBudget", true, "number of CPUs shared by all parallel stages and external tools");
+			options.addOption("blastDBcache", true, "directory in which generated BLAST databases are kept");
+			options.addOption("predictionCache", true, "directory in which prediction results are cached");
+			options.addOption("iprStore", true, "directory in which InterProScan results are stored");
+			options.addOption("blastHitCache", true, "directory in which PSI-BLAST hits are cached");
+			options.addOption("searchEngine", true, "homology search engine (psiblast or sw)");
+			options.addOption("kmerPrefilter", false, "align only database sequences selected by a k-mer index");
+			options.addOption("blastBatchSize", true, "number of sequences searched by one PSI-BLAST process");
+			options.addOption("cascadeModel", true, "sequence-only first-stage model of the cascade mode");
+			options.addOption("cascadeBand", true, "first-stage TF probabilities for which the full pipeline is run (lower,upper)");
+			
+	    // STAND-ALONE-MODE
+		} else if (standAloneMode) {
+			addStandAloneOptions(options);
 		}
 		return options;
 	}
 	
+	private static void addStandAloneOptions(Options options) {
+		
+		options.addOption("fasta", true, "input FASTA file for batch mode");
+		options.addOption("output", true, "output file name");
+		options.addOption("prokaryote", false, "runs TFpredict prediction for prokaryotic data");
+		options.addOption("sabineOutfile", true, "output file in SABINE format");
+		options.addOption("jsonOutfile", true, "output file with one JSON object per sequence");
+		options.addOption("tsvOutfile", true, "output file with one tab-separated line per sequence");
+		options.addOption("flushInterval", true, "number of sequences after which the JSON Lines and TSV outputs are flushed");
+		options.addOption("species", true, "organism (e.g. Homo sapiens)");
+		options.addOption("tfClassifier", true, "file containing TF/Non-TF classifier");
+		options.addOption("superClassifier", true, "file containing Superclass classifier");
+		options.addOption("iprscanPath", true, "path to InterProScan");
+		options.addOption("blastPath", true, "path to BLAST");
+		options.addOption("basedir", true, "directory for temporary files");
+		options.addOption("standAloneMode", false, "directory for temporary files");
+		options.addOption("ignoreCharacteristicDomains", false, "use characteristic InterPro domains for classification");
+		options.addOption("numThreads", true, "number of sequences processed by PSI-BLAST in parallel");
+		options.addOption("cpuBudget", true, "number of CPUs shared by all parallel stages and external tools");
+		options.addOption("blastDBcache", true, "directory in which generated BLAST databases are kept");
+		options.addOption("predictionCache", true, "directory in which prediction results are cached");
+		options.addOption("iprStore", true, "directory in which InterProScan results are stored");
+		options.addOption("blastHitCache", true, "directory in which PSI-BLAST hits are cached");
+		options.addOption("blastReportDir", true, "directory to which PSI-BLAST reports are written for debugging");
+		options.addOption("journal", true, "directory of the work journal which allows to resume an interrupted run");
+		options.addOption("searchEngine", true, "homology search engine (psiblast or sw)");
+		options.addOption("kmerPrefilter", false, "align only database sequences selected by a k-mer index");
+		options.addOption("chunkSize", true, "number of sequences processed at once in streaming batch mode");
+		options.addOption("blastBatchSize", true, "number of sequences searched by one PSI-BLAST process");
+		options.addOption("cascadeModel", true, "sequence-only first-stage model of the cascade mode");
+		options.addOption("cascadeBand", true, "first-stage TF probabilities for which the full pipeline is run (lower,upper)");
+	}
+	
+	/**
+	 * Parses the options of the console mode, e.g., for the settings of a
+	 * {@link modes.StreamingPrediction}.
+	 * 
+	 * @param args options, e.g., {@code -prokaryote -iprscanPath <path>}
+	 * @return
+	 * @throws ParseException
+	 */
+	public static CommandLine parseStandAloneArguments(String[] args) throws ParseException {
+		
+		Options options = new Options();
+		addStandAloneOptions(options);
+		return new PosixParser().parse(options, args);
+	}
+	
 	private static void checkArguments(CommandLine cmd) {
 
 		// check if input FASTA file exists
@@ -387,7 +484,26 @@ public class TFpredictMain {
 		System.out.println("            -superClassifier <classifier_name>  (possible values: SVM_linear, NaiveBayes, KNN)");
 		System.out.println("            -iprscanPath <path_to_iprscan>      (e.g., \"/opt/iprscan/bin/iprscan\")");
 		System.out.println("            -ignoreCharacteristicDomains        (No classification based on predefined InterPro domains.)");
+		System.out.println("            -numThreads <number_of_threads>     (Sequences searched by PSI-BLAST in parallel, default: number of CPUs)");
+		System.out.println("            -cpuBudget <number_of_cpus>         (CPUs shared by all stages and BLAST processes, default: TFPREDICT_CPU_BUDGET or number of CPUs)");
+		System.out.println("            -blastDBcache <directory>           (Directory to keep generated BLAST databases, default: temporary directory)");
+		System.out.println("            -jsonOutfile <output_file_name>     (One JSON object per sequence, written as soon as it is predicted)");
+		System.out.println("            -tsvOutfile <output_file_name>      (One tab-separated line per sequence, written as soon as it is predicted)");
+		System.out.println("            -flushInterval <num_sequences>      (Flush JSON Lines and TSV outputs after this number of sequences, default: 1)");
+		System.out.println("            -chunkSize <number_of_sequences>    (Process FASTA file in chunks and write results incrementally)");
+		System.out.println("            -blastBatchSize <num_sequences>     (Search batches of sequences with one PSI-BLAST process using all threads)");
+		System.out.println("            -predictionCache <directory>        (Reuse results of previously predicted sequences)");
+		System.out.println("            -iprStore <directory>               (Reuse InterProScan results of previously analyzed sequences)");
+		System.out.println("            -blastHitCache <directory>          (Reuse PSI-BLAST hits of previously searched sequences)");
+		System.out.println("            -blastReportDir <directory>         (Keep a copy of each PSI-BLAST report for debugging)");
+		System.out.println("            -journal <directory>                (Record completed stages, an interrupted run is resumed when started again)");
+		System.out.println("            -searchEngine <engine>              (possible values: psiblast (default), sw (in-process Smith-Waterman, no BLAST required))");
+		System.out.println("            -kmerPrefilter                      (Align only database sequences selected by a k-mer index, requires -searchEngine sw)");
+		System.out.println("            -cascadeModel <model_file>          (Sequence-only first stage, only uncertain sequences are searched)");
+		System.out.println("            -cascadeBand <lower>,<upper>        (First-stage TF probabilities escalated to the full pipeline, default: 0.1,0.9)");
 		System.out.println("            -blastPath <path_to_blast>          (e.g., \"/opt/blast/latest\")\n");
+		System.out.println("  Server  : java -jar TFpredict.jar -server [-port <port>] [-bindAddress <address>] [-outputDir <directory>] [OPTIONS]");
+		System.out.println("            (Keeps classifiers and BLAST databases in memory, default port: " + Server.defaultPort + ")\n");
 		System.exit(0);
 		
 	}
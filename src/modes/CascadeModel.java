@@ -0,0 +1,346 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import features.KmerFeatureGenerator;
+import features.PseudoAAcFeatureGenerator;
+import io.BasicTools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import liblinear.FeatureNode;
+import liblinear.Linear;
+import liblinear.Model;
+import liblinear.Parameter;
+import liblinear.Problem;
+import liblinear.SolverType;
+
+/**
+ * First stage of the cascade mode of {@link Predict}. The TF/Non-TF
+ * probability of a sequence is estimated by L2-regularized logistic regression
+ * on features which are computed from the sequence alone, i.e., the
+ * dipeptide composition (see
+ * {@link KmerFeatureGenerator#getKmerFrequencies(String, int)}) and the pseudo
+ * amino acid composition (see
+ * {@link PseudoAAcFeatureGenerator#getFeatureVector(String, double, int)}).
+ * Only sequences whose probability lies within the uncertainty band of the
+ * cascade are passed to InterProScan and PSI-BLAST.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class CascadeModel implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Length of the k-mers of the composition features.
+	 */
+	static final int k = 2;
+
+	/**
+	 * Weight of the correlation factors of the pseudo amino acid composition.
+	 */
+	static final double pseAAcWeight = 0.05;
+
+	/**
+	 * Number of correlation factors of the pseudo amino acid composition.
+	 */
+	static final int lambdaMax = 10;
+
+	/**
+	 * Cost parameter of the logistic regression.
+	 */
+	static final double defaultC = 1;
+
+	private Model model;
+	// position of the TF class in the probability estimates of the model
+	private int tfIndex;
+	// mean and standard deviation of each feature in the training data
+	private double[] means;
+	private double[] stdDevs;
+
+	private CascadeModel(Model model, double[][] scaling) {
+		this.model = model;
+		this.means = scaling[0];
+		this.stdDevs = scaling[1];
+		int[] labels = model.getLabels();
+		for (int i=0; i<labels.length; i++) {
+			if (labels[i] == Predict.TF) {
+				tfIndex = i;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return sequence-only feature vector of the given sequence
+	 */
+	static double[] getFeatures(String sequence) {
+
+		double[] kmerFeatures = KmerFeatureGenerator.getKmerFrequencies(sequence, k);
+		double[] pseAAcFeatures = PseudoAAcFeatureGenerator.getFeatureVector(sequence, pseAAcWeight, lambdaMax);
+		double[] features = new double[kmerFeatures.length + pseAAcFeatures.length];
+		System.arraycopy(kmerFeatures, 0, features, 0, kmerFeatures.length);
+		System.arraycopy(pseAAcFeatures, 0, features, kmerFeatures.length, pseAAcFeatures.length);
+		return features;
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return estimated probability that the given sequence is a TF
+	 */
+	double getProbTF(String sequence) {
+		return getProbTF(model, tfIndex, toFeatureNodes(standardize(getFeatures(sequence), means, stdDevs)));
+	}
+
+	private static double getProbTF(Model model, int tfIndex, FeatureNode[] x) {
+		double[] probEstimates = new double[model.getNrClass()];
+		Linear.predictProbability(model, x, probEstimates);
+		return probEstimates[tfIndex];
+	}
+
+	// z-scores of the given features (features without variance in the training data are 0)
+	private static double[] standardize(double[] features, double[] means, double[] stdDevs) {
+		for (int i=0; i<features.length; i++) {
+			features[i] = (stdDevs[i] > 0) ? (features[i] - means[i]) / stdDevs[i] : 0;
+		}
+		return features;
+	}
+
+	// means (first row) and standard deviations (second row) of all features
+	private static double[][] getScaling(List<double[]> features) {
+
+		int numFeatures = features.get(0).length;
+		double[][] scaling = new double[2][numFeatures];
+		for (double[] f: features) {
+			for (int i=0; i<numFeatures; i++) {
+				scaling[0][i] += f[i] / features.size();
+			}
+		}
+		for (double[] f: features) {
+			for (int i=0; i<numFeatures; i++) {
+				scaling[1][i] += (f[i] - scaling[0][i]) * (f[i] - scaling[0][i]) / features.size();
+			}
+		}
+		for (int i=0; i<numFeatures; i++) {
+			scaling[1][i] = Math.sqrt(scaling[1][i]);
+		}
+		return scaling;
+	}
+
+	// sparse representation of a feature vector with the bias term expected by the model
+	private static FeatureNode[] toFeatureNodes(double[] features) {
+
+		List<FeatureNode> nodes = new ArrayList<FeatureNode>();
+		for (int i=0; i<features.length; i++) {
+			if (features[i] != 0) {
+				nodes.add(new FeatureNode(i + 1, features[i]));
+			}
+		}
+		nodes.add(new FeatureNode(features.length + 1, 1));
+		return nodes.toArray(new FeatureNode[] {});
+	}
+
+	/**
+	 * Trains the model on the given sequences.
+	 *
+	 * @param sequences
+	 * @param labels {@link Predict#TF} or {@link Predict#Non_TF} for each
+	 *        sequence
+	 * @param C cost parameter
+	 * @return
+	 */
+	static CascadeModel train(List<String> sequences, List<Integer> labels, double C) {
+
+		List<double[]> features = new ArrayList<double[]>(sequences.size());
+		for (String sequence: sequences) {
+			features.add(getFeatures(sequence));
+		}
+		return trainScaled(features, labels, C);
+	}
+
+	private static CascadeModel trainScaled(List<double[]> features, List<Integer> labels, double C) {
+
+		double[][] scaling = getScaling(features);
+		List<FeatureNode[]> x = new ArrayList<FeatureNode[]>(features.size());
+		for (double[] f: features) {
+			x.add(toFeatureNodes(standardize(f.clone(), scaling[0], scaling[1])));
+		}
+		return new CascadeModel(trainModel(x, labels, C), scaling);
+	}
+
+	// both classes are weighted by the inverse of their size, as TFs are rare in the training data
+	private static Model trainModel(List<FeatureNode[]> x, List<Integer> labels, double C) {
+
+		int numTFs = 0;
+		for (int label: labels) {
+			if (label == Predict.TF) numTFs++;
+		}
+		Parameter parameter = new Parameter(SolverType.L2R_LR, C, 0.01);
+		if (numTFs > 0 && numTFs < labels.size()) {
+			parameter.setWeights(new double[] {labels.size() / (2d * (labels.size() - numTFs)), labels.size() / (2d * numTFs)}, new int[] {Predict.Non_TF, Predict.TF});
+		}
+
+		Problem problem = new Problem();
+		problem.l = x.size();
+		problem.n = x.get(0)[x.get(0).length - 1].index;
+		problem.bias = 1;
+		problem.x = x.toArray(new FeatureNode[][] {});
+		problem.y = new int[labels.size()];
+		for (int i=0; i<problem.y.length; i++) {
+			problem.y[i] = labels.get(i);
+		}
+		Linear.disableDebugOutput();
+		return Linear.train(problem, parameter);
+	}
+
+	/**
+	 * Estimates the TF probabilities of all given sequences by cross-validation.
+	 *
+	 * @param sequences
+	 * @param labels
+	 * @param C
+	 * @param folds
+	 * @return probabilities in the order of the sequences, each of which was
+	 *         computed by the model that was trained without the sequence
+	 */
+	static double[] crossValidate(List<String> sequences, List<Integer> labels, double C, int folds) {
+
+		List<double[]> features = new ArrayList<double[]>(sequences.size());
+		for (String sequence: sequences) {
+			features.add(getFeatures(sequence));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i=0; i<features.size(); i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(1));
+
+		double[] probTF = new double[features.size()];
+		for (int fold=0; fold<folds; fold++) {
+			List<double[]> trainX = new ArrayList<double[]>();
+			List<Integer> trainY = new ArrayList<Integer>();
+			for (int i=0; i<order.size(); i++) {
+				if (i % folds != fold) {
+					trainX.add(features.get(order.get(i)));
+					trainY.add(labels.get(order.get(i)));
+				}
+			}
+			CascadeModel foldModel = trainScaled(trainX, trainY, C);
+			for (int i=fold; i<order.size(); i+=folds) {
+				double[] f = standardize(features.get(order.get(i)).clone(), foldModel.means, foldModel.stdDevs);
+				probTF[order.get(i)] = getProbTF(foldModel.model, foldModel.tfIndex, toFeatureNodes(f));
+			}
+		}
+		return probTF;
+	}
+
+	/**
+	 * Writes the accuracy of the first stage for several uncertainty bands
+	 * symmetric around 0.5, i.e., the fraction of sequences which are passed
+	 * to the second stage and the accuracy of the first stage on all other
+	 * sequences.
+	 *
+	 * @param probTF probabilities estimated by cross-validation
+	 * @param labels
+	 * @param out
+	 */
+	static void writeReport(double[] probTF, List<Integer> labels, PrintStream out) {
+
+		DecimalFormat df = Predict.createDecimalFormat();
+		out.println(BasicTools.padRight("  Band", 16) + BasicTools.padRight("Escalated", 12) + BasicTools.padRight("Accuracy", 12) + BasicTools.padRight("Missed TFs", 12) + "Decided");
+		for (int i=0; i<=10; i++) {
+			double lower = 0.5 - i * 0.05;
+			double upper = 0.5 + i * 0.05;
+			int escalated = 0;
+			int correct = 0;
+			int missedTFs = 0;
+			for (int j=0; j<probTF.length; j++) {
+				if (probTF[j] >= lower && probTF[j] <= upper) {
+					escalated++;
+					continue;
+				}
+				int predicted = (probTF[j] > upper) ? Predict.TF : Predict.Non_TF;
+				if (predicted == labels.get(j)) {
+					correct++;
+				} else if (labels.get(j) == Predict.TF) {
+					missedTFs++;
+				}
+			}
+			int decided = probTF.length - escalated;
+			out.println(BasicTools.padRight("  " + df.format(lower) + "-" + df.format(upper), 16)
+				+ BasicTools.padRight(df.format(100d * escalated / probTF.length) + "%", 12)
+				+ BasicTools.padRight((decided > 0) ? df.format(100d * correct / decided) + "%" : "-", 12)
+				+ BasicTools.padRight("" + missedTFs, 12) + decided);
+		}
+	}
+
+	/**
+	 *
+	 * @param modelFile
+	 * @throws IOException
+	 */
+	void write(String modelFile) throws IOException {
+
+		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(modelFile));
+		try {
+			oos.writeObject(this);
+		} finally {
+			oos.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param modelFile
+	 * @return
+	 * @throws IOException
+	 */
+	static CascadeModel read(String modelFile) throws IOException {
+
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(new File(modelFile)));
+		try {
+			return (CascadeModel) ois.readObject();
+		} catch (ClassNotFoundException exc) {
+			throw new IOException("Invalid cascade model: " + modelFile, exc);
+		} finally {
+			ois.close();
+		}
+	}
+}
@@ -22,16 +22,23 @@
  */
 package modes;
 
-import features.DomainFeatureGenerator;
+import features.BlastHitCache;
+import features.KmerIndex;
 import features.PercentileFeatureGenerator;
 import features.PercentileFeatureGeneratorProk;
+import features.SmithWatermanSearch;
 import io.AnimatedChar;
 import io.BasicTools;
-import io.ObjectRW;
+import io.BlastDBcache;
+import io.CostModel;
+import io.CpuBudget;
+import io.FastaChunkReader;
+import io.PsiBlastRunner;
 import io.UniProtClient;
 import ipr.IPRextract;
 import ipr.IPRprocess;
 import ipr.IPRrun;
+import ipr.IPRstore;
 import ipr.IprEntry;
 import ipr.IprProcessed;
 import ipr.IprRaw;
@@ -39,24 +46,38 @@ import ipr.IprRaw;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import liblinear.LinearScorer;
 import liblinear.WekaClassifier;
 import liblinear.WekaClassifier.ClassificationMethod;
 
@@ -66,6 +87,7 @@ import resources.Resource;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.converters.LibSVMLoader;
 
 /**
@@ -93,20 +115,62 @@ public class Predict {
 	}
 
 
-	static boolean prokaryote = false;
+	boolean prokaryote = false;
 	// use webservice version by default (local version is used if argument "iprscanPath" is provided)
-	static boolean useWeb = true;
-	static boolean standAloneMode = false;
-	static boolean batchMode = false;
-	static boolean silent = true;
-	static boolean useCharacteristicDomains = true;
+	boolean useWeb = true;
+	boolean standAloneMode = false;
+	boolean batchMode = false;
+	boolean silent = true;
+	boolean useCharacteristicDomains = true;
+	
+	// number of sequences for which PSI-BLAST is run concurrently
+	int numThreads = CpuBudget.getGlobal().getSize();
+	
+	// number of sequences searched by one PSI-BLAST process (0: one process per sequence)
+	int blastBatchSize = 0;
+	
+	// number of lines after which the JSON Lines and TSV outputs are flushed (0: only if the buffer is full)
+	int flushInterval = 1;
+	
+	// number of sequences processed at once in streaming batch mode (0: all sequences are processed at once)
+	int chunkSize = 0;
+	
+	// results of previously predicted sequences (null: no cache is used)
+	PredictionCache predictionCache;
+	
+	// InterProScan results of previously analyzed sequences (null: InterProScan is run for all sequences)
+	IPRstore iprStore;
+	
+	// PSI-BLAST hits of previously searched sequences (null: PSI-BLAST is run for all sequences)
+	BlastHitCache blastHitCache;
+	
+	// completed stages of a resumable batch run (null: the run cannot be resumed)
+	WorkJournal journal;
+	
+	// directory to which the PSI-BLAST reports are copied for debugging (null: reports are only parsed from the output of PSI-BLAST)
+	File blastReportDir;
+	
+	// homology search by the in-process Smith-Waterman engine instead of PSI-BLAST
+	boolean useSmithWaterman = false;
+	
+	// only database sequences selected by a k-mer index are aligned by the Smith-Waterman engine
+	boolean useKmerPrefilter = false;
+	
+	// sequence-only first stage of the cascade mode (null: all sequences are processed by InterProScan and PSI-BLAST)
+	CascadeModel cascadeModel;
+	String cascadeModel_file;
+	
+	// sequences whose first-stage TF probability lies within this band are passed to InterProScan and PSI-BLAST
+	double cascadeLower = 0.1;
+	double cascadeUpper = 0.9;
 
-	// static arguments required by TFpredict
-	public static String iprpath = "";
-	public static String blastpath = "";
+	// arguments required by TFpredict (resources shared by all predictions are loaded by ReferenceData)
+	public String iprpath = "";
+	public String blastpath = "";
+	public String blastDBcacheDir = BlastDBcache.getDefaultCacheDir();
 	private static final int numBlastIter = 2;
-	public static String tfClassifier_file = "models/tfPred/svmLinear.model";
-	public static String superClassifier_file = "models/superPred/svmLinear.model";
+	public String tfClassifier_file = "models/tfPred/svmLinear.model";
+	public String superClassifier_file = "models/superPred/svmLinear.model";
 	public static String relDomainsTF_file = "domainsTFpred.txt";
 	public static String relDomainsSuper_file = "domainsSuperPred.txt";
 	public static String characteristicTFdomains_file = "domainsTF.txt";
@@ -125,20 +189,26 @@ public class Predict {
 	public static String superPredBlastDB = "blast_db/TF.db";
 	
 	// arguments passed from Galaxy to TFpredict
-	static String basedir = "";
-	static String input_file = "";
-	static String html_outfile;
-	static String sabine_outfile;
-	static String species;
-	static String sequence;
-	static String tfName = "Sequence_1";
-	static String uniprot_id;
-	static String fasta_file;
+	String basedir = "";
+	String input_file = "";
+	String html_outfile;
+	String sabine_outfile;
+	String json_outfile;
+	String tsv_outfile;
+	String species;
+	String sequence;
+	String tfName = "Sequence_1";
+	String uniprot_id;
+	String fasta_file;
 	
+	// FASTA file containing the sequences which are currently processed
+	private String query_file;
 	private String tfnontfDBfastaFile;
 	private String tfDBfastaFile;
 	private Classifier tfClassifier;
 	private Classifier superClassifier;
+	private LinearScorer tfScorer;
+	private LinearScorer superScorer;
 	private List<String> relDomains_TFclass;
 	private List<String> relDomains_Superclass;
 	private List<String> relGOterms;
@@ -153,21 +223,19 @@ public class Predict {
 	// gfx related mapping of seqid to jobid
 	private Map<String, String> seq2job;
 	
-	private String[] sequence_ids;
-	private Map<String, String> sequences = new HashMap<String, String>();
-	private Map<String, Double[]> probDist_TFclass  = new HashMap<String, Double[]>();
-	private Map<String, Double[]> probDist_Superclass = new HashMap<String, Double[]>();
-	private Map<String, Integer> predictedSuperclass  = new HashMap<String, Integer>();
-	private Map<String, String> annotatedClass  = new HashMap<String, String>();
-	private Map<String, String[]> bindingDomains  = new HashMap<String, String[]>();
-	
-	private Map<String, Boolean> predictionPossible = new HashMap<String, Boolean>();
-	private Map<String, Boolean> predictionTrivial = new HashMap<String, Boolean>();
-	private Map<String, Boolean> seqIsTF = new HashMap<String, Boolean>();
-	private Map<String, Boolean> annotatedClassAvailable = new HashMap<String, Boolean>();
-	private Map<String, Boolean> domainsPredicted = new HashMap<String, Boolean>();
-	Map<String, Map<String, Double>> seq2blastHitsTF = new HashMap<String, Map<String, Double>>();
-	Map<String, Map<String, Double>> seq2blastHitsSuper = new HashMap<String, Map<String, Double>>();
+	// input sequences and prediction results of the current sequences
+	private PredictionRecords records;
+	// indices of the records which are processed by InterProScan, PSI-BLAST and the classifiers
+	private int[] pending;
+	// records classified as TF by the first stage of the cascade, i.e., without TF/Non-TF search
+	private Set<Integer> cascadeTFs = new HashSet<Integer>();
+	// number of sequences processed by each stage and time spent in the stage
+	StageStatistics stageStatistics = new StageStatistics();
+	// machine-readable outputs to which each prediction is written as soon as it is available
+	private List<PredictionRecordWriter> recordWriters = new ArrayList<PredictionRecordWriter>();
+	
+	// stream to which progress and console reports are written
+	PrintStream out = System.out;
 	
 	public static final int Non_TF = 0;
 	public static final int TF = 1;
@@ -176,14 +244,78 @@ public class Predict {
 	public static final int Helix_turn_helix = 3;
 	public static final int Beta_scaffold = 4;
 	public static final int Other = 0;
-	private static final String[] superclassNames = new String[] {"Other", "Basic domain", "Zinc finger", "Helix-turn-helix", "Beta scaffold"};
+	static final String[] superclassNames = new String[] {"Other", "Basic domain", "Zinc finger", "Helix-turn-helix", "Beta scaffold"};
 
 	
-	static DecimalFormat df = new DecimalFormat("0.00");
-	static {
+	// DecimalFormat is not thread-safe, so each prediction uses its own instance
+	private DecimalFormat df = createDecimalFormat();
+	
+	/**
+	 * Creates a new instance with the default settings. The settings are
+	 * changed by {@link #parseArguments(CommandLine)}.
+	 */
+	public Predict() {}
+	
+	/**
+	 * Creates a new prediction with the settings of the given prediction. The
+	 * settings, caches and stores are shared, whereas all input files, output
+	 * files and results belong to the new prediction. Predictions created by
+	 * this constructor can run concurrently in the same JVM, as the
+	 * classifiers, domain lists and BLAST databases are loaded only once (see
+	 * {@link ReferenceData}).
+	 * 
+	 * @param configuration
+	 */
+	Predict(Predict configuration) {
+		
+		prokaryote = configuration.prokaryote;
+		useWeb = configuration.useWeb;
+		standAloneMode = configuration.standAloneMode;
+		batchMode = configuration.batchMode;
+		silent = configuration.silent;
+		useCharacteristicDomains = configuration.useCharacteristicDomains;
+		numThreads = configuration.numThreads;
+		blastBatchSize = configuration.blastBatchSize;
+		flushInterval = configuration.flushInterval;
+		chunkSize = configuration.chunkSize;
+		predictionCache = configuration.predictionCache;
+		iprStore = configuration.iprStore;
+		blastHitCache = configuration.blastHitCache;
+		journal = configuration.journal;
+		blastReportDir = configuration.blastReportDir;
+		useSmithWaterman = configuration.useSmithWaterman;
+		useKmerPrefilter = configuration.useKmerPrefilter;
+		cascadeModel = configuration.cascadeModel;
+		cascadeModel_file = configuration.cascadeModel_file;
+		cascadeLower = configuration.cascadeLower;
+		cascadeUpper = configuration.cascadeUpper;
+		iprpath = configuration.iprpath;
+		blastpath = configuration.blastpath;
+		blastDBcacheDir = configuration.blastDBcacheDir;
+		tfClassifier_file = configuration.tfClassifier_file;
+		superClassifier_file = configuration.superClassifier_file;
+		
+		// databases and classifiers which were already prepared
+		tfnontfDBfastaFile = configuration.tfnontfDBfastaFile;
+		tfDBfastaFile = configuration.tfDBfastaFile;
+		tfClassifier = configuration.tfClassifier;
+		superClassifier = configuration.superClassifier;
+		tfScorer = configuration.tfScorer;
+		superScorer = configuration.superScorer;
+	}
+	
+	/**
+	 * 
+	 * @return format of the probabilities in the reports (two decimals,
+	 *         independent of the locale)
+	 */
+	static DecimalFormat createDecimalFormat() {
+		
+		DecimalFormat df = new DecimalFormat("0.00");
 		DecimalFormatSymbols symb = new DecimalFormatSymbols();
 		symb.setDecimalSeparator('.');
 		df.setDecimalFormatSymbols(symb);
+		return df;
 	}
 
 	public static void main(CommandLine cmd) throws Exception {
@@ -191,21 +323,39 @@ public class Predict {
 		Predict TFpredictor = new Predict();
 		
 		TFpredictor.parseArguments(cmd);
-		TFpredictor.prepareInput();
-		TFpredictor.prepareClassifiers();
-		TFpredictor.runInterproScan();
-		TFpredictor.runPsiBlast();
-	    TFpredictor.performClassification();
-
-	    if (standAloneMode) {
-	    	TFpredictor.writeConsoleOutput();
-	    } else {
-
-	    	TFpredictor.writeHTMLoutput();
-	    }
-	    if (sabine_outfile != null) {
-	    	TFpredictor.writeSABINEoutput();
-	    }
+		TFpredictor.openRecordWriters();
+		try {
+			// streaming batch mode --> results are written chunk by chunk
+			if (TFpredictor.batchMode && TFpredictor.chunkSize > 0) {
+				if (!TFpredictor.runStreamingBatchMode()) {
+					System.exit(0);
+				}
+				return;
+			}
+			
+			if (!TFpredictor.prepareInput()) {
+				System.exit(0);
+			}
+			TFpredictor.prepareClassifiers();
+			TFpredictor.predict();
+			
+			if (TFpredictor.standAloneMode) {
+				TFpredictor.writeConsoleOutput();
+			} else {
+				
+				TFpredictor.writeHTMLoutput();
+			}
+			if (TFpredictor.sabine_outfile != null) {
+				TFpredictor.writeSABINEoutput();
+			}
+		} finally {
+			if (TFpredictor.standAloneMode) {
+				TFpredictor.stageStatistics.writeReport(TFpredictor.out);
+				CpuBudget.getGlobal().writeReport(TFpredictor.out);
+			}
+			TFpredictor.closeRecordWriters();
+			TFpredictor.closeJournal();
+		}
 	}
 	
 	/*
@@ -216,6 +366,8 @@ public class Predict {
 	
 	public static void testModelFiles() {
 		
+		DecimalFormat df = createDecimalFormat();
+		
 		// read relevant domains for TF/non-TF classification
 		List<String> relDomains = BasicTools.readResource2List("domainsTFpred.txt");
 		//List<String> relDomains = BasicTools.readResource2List("domainsSuperPred.txt");
@@ -256,7 +408,7 @@ public class Predict {
 		}
 	}
 
-	private void parseArguments(CommandLine cmd) {
+	void parseArguments(CommandLine cmd) {
 
 		if(cmd.hasOption("prokaryote")) {
 			prokaryote = true;
@@ -286,6 +438,18 @@ public class Predict {
 			sabine_outfile = cmd.getOptionValue("sabineOutfile");
 		}
 		
+		if (cmd.hasOption("jsonOutfile")) {
+			json_outfile = cmd.getOptionValue("jsonOutfile");
+		}
+		
+		if (cmd.hasOption("tsvOutfile")) {
+			tsv_outfile = cmd.getOptionValue("tsvOutfile");
+		}
+		
+		if (cmd.hasOption("flushInterval")) {
+			flushInterval = Math.max(0, Integer.parseInt(cmd.getOptionValue("flushInterval")));
+		}
+		
         if(cmd.hasOption("basedir")) {
             basedir = cmd.getOptionValue("basedir");
             if (!basedir.endsWith("/")) basedir += "/" ;
@@ -313,6 +477,41 @@ public class Predict {
 			useCharacteristicDomains = false;
 		}
 		
+		if (cmd.hasOption("cpuBudget")) {
+			CpuBudget.getGlobal().setSize(Integer.parseInt(cmd.getOptionValue("cpuBudget")));
+			numThreads = CpuBudget.getGlobal().getSize();
+		}
+		
+		if (cmd.hasOption("numThreads")) {
+			numThreads = Math.max(1, Integer.parseInt(cmd.getOptionValue("numThreads")));
+		}
+		
+		if (cmd.hasOption("chunkSize")) {
+			chunkSize = Math.max(1, Integer.parseInt(cmd.getOptionValue("chunkSize")));
+		}
+		
+		if (cmd.hasOption("blastBatchSize")) {
+			blastBatchSize = Math.max(0, Integer.parseInt(cmd.getOptionValue("blastBatchSize")));
+		}
+		
+		if (cmd.hasOption("searchEngine")) {
+			String searchEngine = cmd.getOptionValue("searchEngine");
+			if (searchEngine.equals("sw")) {
+				useSmithWaterman = true;
+			} else if (searchEngine.equals("psiblast")) {
+				useSmithWaterman = false;
+			} else {
+				System.out.println("Error. Unknown search engine: " + searchEngine + ". Possible values: psiblast, sw.");
+				System.exit(0);
+			}
+		}
+		if (cmd.hasOption("kmerPrefilter")) {
+			useKmerPrefilter = true;
+			if (!useSmithWaterman) {
+				logger.warning("The k-mer prefilter is only used by the Smith-Waterman engine (-searchEngine sw).");
+			}
+		}
+		
 		// set BLAST path from argument (if given)
 		if(cmd.hasOption("blastPath")) {
 			blastpath = cmd.getOptionValue("blastPath");
@@ -321,7 +520,8 @@ public class Predict {
 		} else if (System.getenv("BLAST_DIR") != null && System.getenv("BLAST_DIR").length() > 0) {
 			blastpath = System.getenv("BLAST_DIR");
 		
-		} else {
+		// BLAST is not required by the in-process search engine
+		} else if (!useSmithWaterman) {
 			System.out.println("TFpredict requires BLAST which is available from the NCBI FTP site\n" +
 							   "(ftp://ftp.ncbi.nlm.nih.gov/blast/executables/blast+/LATEST/).\n" +
 							   "After downloading a path to the local BLAST installation has to be passed to TFpredict.\n" +
@@ -332,10 +532,14 @@ public class Predict {
 		}
 		if (!blastpath.endsWith("/")) blastpath += "/";
 		
+		if (cmd.hasOption("blastDBcache")) {
+			blastDBcacheDir = cmd.getOptionValue("blastDBcache");
+		}
+		
 		if(cmd.hasOption("standAloneMode")) {
 			standAloneMode = true;
 			silent = true;
-		} else {
+		} else if (sabine_outfile != null) {
 	    	FileHandler logFileHandler;
 			try {
 				logFileHandler = new FileHandler(sabine_outfile);
@@ -350,75 +554,245 @@ public class Predict {
 				e.printStackTrace();
 			}
 		}
+		
+		if (cmd.hasOption("blastHitCache")) {
+			blastHitCache = BlastHitCache.getInstance(cmd.getOptionValue("blastHitCache"));
+		}
+		if (cmd.hasOption("blastReportDir")) {
+			blastReportDir = new File(cmd.getOptionValue("blastReportDir"));
+			if (!blastReportDir.isDirectory() && !blastReportDir.mkdirs()) {
+				System.out.println("Error. Directory for PSI-BLAST reports could not be created: " + blastReportDir);
+				System.exit(0);
+			}
+		}
+		if (cmd.hasOption("iprStore") && iprStore == null) {
+			openIPRstore(cmd.getOptionValue("iprStore"));
+		}
+		if (cmd.hasOption("cascadeModel")) {
+			cascadeModel_file = cmd.getOptionValue("cascadeModel");
+			try {
+				cascadeModel = CascadeModel.read(cascadeModel_file);
+			} catch (IOException exc) {
+				logger.severe(exc.getMessage());
+				System.out.println("Error. Cascade model could not be read: " + cascadeModel_file);
+				System.exit(0);
+			}
+		}
+		if (cmd.hasOption("cascadeBand")) {
+			String[] band = cmd.getOptionValue("cascadeBand").split(",");
+			try {
+				cascadeLower = Double.parseDouble(band[0].trim());
+				cascadeUpper = Double.parseDouble(band[band.length - 1].trim());
+			} catch (NumberFormatException exc) {
+				cascadeLower = Double.NaN;
+			}
+			if (band.length != 2 || !(0 <= cascadeLower && cascadeLower <= 0.5 && 0.5 <= cascadeUpper && cascadeUpper <= 1)) {
+				System.out.println("Error. Invalid cascade band: " + cmd.getOptionValue("cascadeBand") + ". Expected <lower>,<upper> with 0 <= lower <= 0.5 <= upper <= 1.");
+				System.exit(0);
+			}
+		}
+		if (cmd.hasOption("predictionCache")) {
+			openPredictionCache(cmd.getOptionValue("predictionCache"));
+		}
+		if (cmd.hasOption("journal")) {
+			openJournal(cmd.getOptionValue("journal"));
+		}
 	}
 	
-	@SuppressWarnings("unchecked")
-	private void prepareInput() {
+	// opens the store of InterProScan results, the index is updated when the JVM terminates
+	private void openIPRstore(String storeDir) {
 		
-		relDomains_TFclass = BasicTools.readResource2List(relDomainsTF_file);
-		relDomains_Superclass = BasicTools.readResource2List(relDomainsSuper_file);
-		tfName2class = (Map<String, String>) ObjectRW.readFromResource(tfName2class_file);
+		try {
+			final IPRstore store = new IPRstore(storeDir);
+			iprStore = store;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						store.close();
+					} catch (IOException exc) {
+						logger.severe(exc.getMessage());
+					}
+				}
+			});
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			System.out.println("Error. InterProScan store could not be opened. InterProScan is run for all sequences.");
+			exc.printStackTrace();
+		}
+	}
+	
+	// opens the cache of prediction results which is only valid for the current classifiers, databases and settings
+	private void openPredictionCache(String cacheDir) {
 		
-		relGOterms = BasicTools.readResource2List(relGOterms_file);
+		try {
+			predictionCache = new PredictionCache(cacheDir, getVersionResources(), getVersionOptions());
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			System.out.println("Error. Prediction cache could not be opened. Predictions are not cached.");
+			exc.printStackTrace();
+		}
+	}
+	
+	// resources which determine the prediction results
+	private String[] getVersionResources() {
 		
-		// if UniProt ID was given --> retrieve sequence and species from UniProt
-		if (uniprot_id != null) {
-			UniProtClient uniprot_client = new UniProtClient();
-			String fasta_seq = uniprot_client.getUniProtSequence(uniprot_id.toUpperCase(), true);
-			
-			// Stop, if given UniProt ID is invalid
-			if (fasta_seq == null) {
-				logger.log(Level.SEVERE, "Error. Invalid UniProt ID or Entry name: " + uniprot_id + ".");
-				writeHTMLerrorOutput(InvalidUniProtError);
-				System.exit(0);
+		List<String> versionResources = new ArrayList<String>();
+		versionResources.add(tfClassifier_file);
+		versionResources.add(superClassifier_file);
+		if (!prokaryote) {
+			versionResources.add(tfPredBlastFasta);
+			versionResources.add(superPredBlastFasta);
+		} else {
+			versionResources.add(tfPredBlastFastaProk);
+			versionResources.add(superPredBlastFastaProk);
+		}
+		versionResources.add(relDomainsTF_file);
+		versionResources.add(relDomainsSuper_file);
+		versionResources.add(relGOterms_file);
+		versionResources.add(tfName2class_file);
+		if (useCharacteristicDomains) {
+			versionResources.add(characteristicTFdomains_file);
+			versionResources.addAll(Arrays.asList(characteristicDomains_files));
+		}
+		return versionResources.toArray(new String[] {});
+	}
+	
+	// settings which affect the prediction results
+	private String getVersionOptions() throws IOException {
+		
+		String options = "prokaryote=" + prokaryote + ",useCharacteristicDomains=" + useCharacteristicDomains + ",numBlastIter=" + numBlastIter;
+		if (useSmithWaterman) {
+			options += ",searchEngine=" + (useKmerPrefilter ? KmerIndex.searchName : SmithWatermanSearch.searchName);
+		}
+		
+		// results of the cascade mode depend on the first-stage model and the band
+		if (cascadeModel != null) {
+			InputStream is = new FileInputStream(cascadeModel_file);
+			try {
+				options += ",cascade=" + BlastDBcache.getChecksum(is) + ":" + cascadeLower + ":" + cascadeUpper;
+			} finally {
+				is.close();
 			}
+		}
+		return options;
+	}
+	
+	// opens the journal of a resumable batch run, the intermediate results are kept in the journal directory unless separate stores are given
+	private void openJournal(String journalDir) {
+		
+		if (!journalDir.endsWith("/")) journalDir += "/";
+		if (iprStore == null) {
+			openIPRstore(journalDir + "iprscan/");
+		}
+		if (blastHitCache == null) {
+			blastHitCache = BlastHitCache.getInstance(journalDir + "blast_hits/");
+		}
+		if (predictionCache == null) {
+			openPredictionCache(journalDir + "predictions/");
+		}
+		try {
+			// a journal is only valid for the settings with which it was written
+			journal = new WorkJournal(journalDir + "journal_" + PredictionCache.getVersion(getVersionResources(), getVersionOptions()) + ".log");
 			
-			String[] splitted_header = fasta_seq.substring(0, fasta_seq.indexOf(" ")).trim().split("\\|");
-			
-			tfName = splitted_header[2];
-			uniprot_id = splitted_header[1];
-			species = fasta_seq.substring(fasta_seq.indexOf("OS=")+3, fasta_seq.indexOf("GN=")-1);
-			sequence = fasta_seq.replaceFirst(">.*\\n", "").replaceAll("\\n", "");
-		} 
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			System.out.println("Error. Work journal could not be opened: " + exc.getMessage());
+			System.exit(0);
+		}
+	}
+	
+	// loads reference data kept in memory across predictions (used by the prediction server)
+	void preloadReferenceData() {
+		
+		ReferenceData.getResourceList(relDomainsTF_file);
+		ReferenceData.getResourceList(relDomainsSuper_file);
+		ReferenceData.getResourceMap(tfName2class_file);
+		ReferenceData.getResourceList(relGOterms_file);
+		ReferenceData.getResourceList(characteristicTFdomains_file);
+		for (String domainFile: characteristicDomains_files) {
+			ReferenceData.getResourceList(domainFile);
+		}
+		prepareClassifiers();
+		prepareBlastDatabases();
+		ReferenceData.getLabels(tfnontfDBfastaFile, false);
+		ReferenceData.getLabels(tfDBfastaFile, true);
+	}
+	
+	// reads domain lists and mappings required for the classification
+	private void prepareReferenceData() {
+		
+		relDomains_TFclass = ReferenceData.getResourceList(relDomainsTF_file);
+		relDomains_Superclass = ReferenceData.getResourceList(relDomainsSuper_file);
+		tfName2class = ReferenceData.getResourceMap(tfName2class_file);
+		
+		relGOterms = ReferenceData.getResourceList(relGOterms_file);
 		
 		// read characteristic domains (if desired)
 		if (useCharacteristicDomains) {
 			
 			domain2tf = new HashMap<String, Integer>();
-			List<String> tfDomains = BasicTools.readResource2List(characteristicTFdomains_file);
+			List<String> tfDomains = ReferenceData.getResourceList(characteristicTFdomains_file);
 			for (String domainID: tfDomains) {
 				domain2tf.put(domainID, TF);
 			}
 			
 			domain2superclass = new HashMap<String, Integer>();
 			for (int i=0; i<characteristicDomains_files.length; i++) {
-				List<String> currDomains = BasicTools.readResource2List(characteristicDomains_files[i]);
+				List<String> currDomains = ReferenceData.getResourceList(characteristicDomains_files[i]);
 				for (String domainID: currDomains) {
 					domain2superclass.put(domainID, i);
 				}
 			}
 		}
+	}
+	
+	// reads input sequences and reference data, returns false if the input is invalid
+	boolean prepareInput() {
+		
+		prepareReferenceData();
+		query_file = input_file;
+		
+		// if UniProt ID was given --> retrieve sequence and species from UniProt
+		if (uniprot_id != null) {
+			UniProtClient uniprot_client = new UniProtClient();
+			String fasta_seq = uniprot_client.getUniProtSequence(uniprot_id.toUpperCase(), true);
+			
+			// Stop, if given UniProt ID is invalid
+			if (fasta_seq == null) {
+				logger.log(Level.SEVERE, "Error. Invalid UniProt ID or Entry name: " + uniprot_id + ".");
+				writeHTMLerrorOutput(InvalidUniProtError);
+				return false;
+			}
+			
+			String[] splitted_header = fasta_seq.substring(0, fasta_seq.indexOf(" ")).trim().split("\\|");
+			
+			tfName = splitted_header[2];
+			uniprot_id = splitted_header[1];
+			species = fasta_seq.substring(fasta_seq.indexOf("OS=")+3, fasta_seq.indexOf("GN=")-1);
+			sequence = fasta_seq.replaceFirst(">.*\\n", "").replaceAll("\\n", "");
+		} 
 		
 		if (batchMode) {
 			// BatchMode --> parse sequences from given FASTA file (and shorten long headers)
-			sequences = BasicTools.readFASTA(fasta_file);
+			Map<String, String> sequences = BasicTools.readFASTA(fasta_file);
+			records = new PredictionRecords(sequences);
 			
 			// Stop, if FASTA file contains duplicated headers
 			if (sequences.containsKey(BasicTools.duplicatedHeaderKey)) {
 				logger.log(Level.SEVERE, "Error. FASTA file contains duplicated headers.");
 				writeHTMLerrorOutput(DuplicatedHeaderError);
-				System.exit(0);
+				return false;
 			}
 			// Stop, if maximum number of sequences allowed for Batch mode was exceeded
 			if ((sequences.size() > maxNumSequencesBatchMode) && !standAloneMode) {
 				logger.log(Level.SEVERE, "Error. Maximum number of sequences allowed in Batch Mode: " + maxNumSequencesBatchMode + 
 						   		   ". FASTA file contains " + sequences.size() + " sequences.");
 				writeHTMLerrorOutput(TooManySequencesError);
-				System.exit(0);
+				return false;
 			}
 			
-			sequence_ids = sequences.keySet().toArray(new String[] {});
-			BasicTools.writeFASTA(sequences, input_file);
+			BasicTools.writeFASTA(sequences, query_file);
 			
 		} else {
 			// SingleQueryMode --> add default header and write protein sequence to file
@@ -427,12 +801,12 @@ public class Predict {
 			//			String[] fastaSeq = new String[inputSeq.length+1];
 			//			fastaSeq[0] = ">" + tfName;
 			try {
-				BufferedWriter bw = new BufferedWriter(new FileWriter(new File(input_file)));
+				BufferedWriter bw = new BufferedWriter(new FileWriter(new File(query_file)));
 				bw.append('>');
 				bw.append(tfName);
 				bw.append('\n');
 
-			sequence_ids = new String[] {tfName};
+			records = new PredictionRecords(new String[] {tfName}, new String[] {sequence});
 			for (int i=0; i<inputSeq.length; i++) {
 					//					fastaSeq[i+1] = inputSeq[i];
 					bw.append(inputSeq[i]);
@@ -444,14 +818,399 @@ public class Predict {
 				exc.printStackTrace();
 			}
 		}
+		return true;
+	}
+	
+	// processes the input FASTA file in chunks and appends the results of each chunk to the reports,
+	// so that memory usage does not depend on the number of sequences (returns false if the input is invalid)
+	boolean runStreamingBatchMode() {
+		
+		prepareReferenceData();
+		
+		// Stop, if FASTA file contains duplicated headers (checked before any sequence is processed)
+		int numSequences;
+		try {
+			numSequences = FastaChunkReader.countSequences(fasta_file);
+		} catch (IOException exc) {
+			logger.log(Level.SEVERE, "Error. FASTA file could not be read: " + fasta_file);
+			exc.printStackTrace();
+			return false;
+		}
+		if (numSequences < 0) {
+			logger.log(Level.SEVERE, "Error. FASTA file contains duplicated headers.");
+			writeHTMLerrorOutput(DuplicatedHeaderError);
+			return false;
+		}
+		prepareClassifiers();
+		
+		String chunkPrefix = input_file.isEmpty() ? basedir + "query.fasta" : input_file;
+		BufferedWriter htmlWriter = null;
+		BufferedWriter sabineWriter = null;
+		FastaChunkReader reader = null;
+		try {
+			if (!standAloneMode) {
+				htmlWriter = new BufferedWriter(new FileWriter(new File(html_outfile)));
+				writeHTMLheader(htmlWriter);
+			}
+			if (sabine_outfile != null) {
+				sabineWriter = new BufferedWriter(new FileWriter(new File(sabine_outfile)));
+			}
+			
+			reader = new FastaChunkReader(fasta_file);
+			int numProcessed = 0;
+			int chunkCnt = 1;
+			Map<String, String> chunk;
+			while (!(chunk = reader.nextChunk(chunkSize)).isEmpty()) {
+				if (standAloneMode) {
+					out.println("\n  Processing sequences " + (numProcessed + 1) + "-" + (numProcessed + chunk.size()) + " of " + numSequences + ".");
+				}
+				records = new PredictionRecords(chunk);
+				query_file = chunkPrefix.replace(".fasta", ".chunk" + chunkCnt++ + ".fasta");
+				BasicTools.writeFASTA(chunk, query_file);
+				
+				predict();
+				
+				// append results of current chunk to the reports
+				if (standAloneMode) {
+					writeConsoleOutput(numProcessed);
+					out.flush();
+				} else {
+					writeHTMLresults(htmlWriter, numProcessed);
+					htmlWriter.flush();
+				}
+				if (sabineWriter != null) {
+					writeSABINEresults(sabineWriter, numProcessed);
+					sabineWriter.flush();
+				}
+				numProcessed += records.size();
+				
+				deleteChunkFiles(query_file);
+				clearResults();
+			}
+			
+			// close HTML file
+			if (htmlWriter != null) {
+				htmlWriter.write("</body>\n");
+				htmlWriter.write("</html>\n");
+			}
+			
+		} catch (IOException exc) {
+			exc.printStackTrace();
+			
+		} finally {
+			try {
+				if (reader != null) reader.close();
+				if (htmlWriter != null) htmlWriter.close();
+				if (sabineWriter != null) sabineWriter.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Predicts the given sequences. The settings, classifiers and databases
+	 * have to be prepared before (see {@link #Predict(Predict)}).
+	 * 
+	 * @param sequences map from sequence identifiers to sequences
+	 * @param queryFile FASTA file to which the sequences are written for
+	 *        InterProScan (deleted afterwards together with all other
+	 *        temporary files of the chunk)
+	 * @return prediction results of the given sequences in input order
+	 */
+	PredictionRecords predictChunk(Map<String, String> sequences, String queryFile) {
+		
+		if (relDomains_TFclass == null) {
+			prepareReferenceData();
+		}
+		records = new PredictionRecords(sequences);
+		query_file = queryFile;
+		BasicTools.writeFASTA(sequences, query_file);
+		try {
+			predict();
+			return records;
+		} finally {
+			deleteChunkFiles(query_file);
+			clearResults();
+		}
+	}
+	
+	// resets all per-sequence results, so that the next chunk of sequences can be processed
+	private void clearResults() {
+		
+		records = null;
+		pending = null;
+		seq2domain = null;
+		IPRdomains = null;
+		seq2bindingDomain = null;
+	}
+	
+	// deletes the temporary FASTA and BLAST files generated for the given chunk of sequences
+	private static void deleteChunkFiles(String chunkFile) {
+		
+		File chunk = new File(chunkFile).getAbsoluteFile();
+		final String prefix = chunk.getName().replace(".fasta", ".");
+		File[] chunkFiles = chunk.getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix);
+			}
+		});
+		if (chunkFiles != null) {
+			for (File file: chunkFiles) {
+				file.delete();
+			}
+		}
 	}
 	
-	private void prepareClassifiers() {
+	// runs InterProScan, PSI-BLAST and the classification for all sequences which were not predicted before,
+	// identical sequences are only processed once
+	void predict() {
+		
+		// index of the first record with the same sequence (identical sequences are only processed once)
+		int[] original = new int[records.size()];
+		List<Integer> newIndices = new ArrayList<Integer>();
+		Map<String, Integer> sequence2index = new HashMap<String, Integer>();
+		for (int i=0; i<records.size(); i++) {
+			original[i] = i;
+			String seq = records.getSequence(i).toUpperCase();
+			Integer origIndex = sequence2index.get(seq);
+			if (origIndex != null) {
+				original[i] = origIndex;
+				continue;
+			}
+			sequence2index.put(seq, i);
+			
+			PredictionCache.Entry cachedResult = null;
+			if (predictionCache != null) {
+				cachedResult = predictionCache.get(seq);
+			}
+			if (cachedResult != null) {
+				records.setEntry(i, cachedResult);
+			} else {
+				newIndices.add(i);
+			}
+		}
+		
+		// only sequences without cached result are processed
+		pending = new int[newIndices.size()];
+		for (int i=0; i<pending.length; i++) {
+			pending[i] = newIndices.get(i);
+		}
+		if (journal != null && standAloneMode) {
+			writeJournalStatus(newIndices);
+		}
+		
+		// all sequences predicted by this run, including those decided by the first stage of the cascade
+		int[] predicted = pending;
+		
+		// only sequences within the uncertainty band of the first stage are processed by InterProScan and PSI-BLAST
+		if (cascadeModel != null && pending.length > 0) {
+			long start = System.nanoTime();
+			int numSequences = pending.length;
+			long numResidues = getNumResidues(pending);
+			pending = runCascade();
+			stageStatistics.add(StageStatistics.Stage.CASCADE, numSequences, numResidues, start);
+		}
+		if (pending.length < records.size() && pending.length > 0 && batchMode) {
+			Map<String, String> newSequences = new LinkedHashMap<String, String>();
+			for (int index: pending) {
+				newSequences.put(records.getID(index), records.getSequence(index));
+			}
+			BasicTools.writeFASTA(newSequences, query_file);
+		}
+		if (pending.length > 0) {
+			long start = System.nanoTime();
+			runInterproScan();
+			stageStatistics.add(StageStatistics.Stage.INTERPROSCAN, pending.length, getNumResidues(pending), start);
+			journalInterProScan();
+			
+			// each search is only run for the sequences whose prediction depends on its result
+			// (sequences classified as TF by the first stage of the cascade are only searched for the superclass)
+			int[] nonTrivial = findTrivialPredictions();
+			int[] tfSearch = selectCascadeTFs(nonTrivial, false);
+			start = System.nanoTime();
+			runPsiBlast(tfSearch, false);
+			stageStatistics.add(StageStatistics.Stage.TF_SEARCH, tfSearch.length, getNumResidues(tfSearch), start);
+			journalSearch(tfSearch, false);
+			
+			start = System.nanoTime();
+			int[] tfCandidates = BasicTools.concatenateArrays(classifyTFs(tfSearch), selectCascadeTFs(nonTrivial, true));
+			stageStatistics.add(StageStatistics.Stage.TF_CLASSIFICATION, tfSearch.length, getNumResidues(tfSearch), start);
+			
+			start = System.nanoTime();
+			runPsiBlast(tfCandidates, true);
+			stageStatistics.add(StageStatistics.Stage.SUPERCLASS_SEARCH, tfCandidates.length, getNumResidues(tfCandidates), start);
+			journalSearch(tfCandidates, true);
+			
+			start = System.nanoTime();
+			performClassification(tfCandidates);
+			stageStatistics.add(StageStatistics.Stage.SUPERCLASS_CLASSIFICATION, tfCandidates.length, getNumResidues(tfCandidates), start);
+		} else {
+			seq2job = new HashMap<String, String>();
+		}
+		
+		// cache only sequences for which a prediction was possible, as failed searches would be cached otherwise
+		if (predictionCache != null) {
+			for (int index: predicted) {
+				if (records.isPredictionPossible(index)) {
+					predictionCache.put(records.getSequence(index).toUpperCase(), records.getEntry(index));
+				}
+			}
+		}
+		journalStage(WorkJournal.Stage.CLASSIFIED, predicted);
+		
+		// copy results to duplicated sequences
+		for (int i=0; i<records.size(); i++) {
+			if (original[i] != i) {
+				records.setEntry(i, records.getEntry(original[i]));
+				String origSeqID = records.getID(original[i]);
+				if (seq2job.containsKey(origSeqID)) {
+					seq2job.put(records.getID(i), seq2job.get(origSeqID));
+				}
+			}
+		}
+		
+		if (predictionCache != null && standAloneMode) {
+			out.println("\n  Prediction cache: " + predictionCache.getHits() + " hit(s), " + predictionCache.getMisses() + " miss(es).");
+		}
+		writeRecords();
+	}
+	
+	// records the sequences whose InterProScan results were added to the store
+	private void journalInterProScan() {
+		
+		if (journal == null) {
+			return;
+		}
+		List<Integer> stored = new ArrayList<Integer>();
+		try {
+			for (int index: pending) {
+				if (iprStore.contains(records.getSequence(index))) {
+					stored.add(index);
+				}
+			}
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+		}
+		journalStage(WorkJournal.Stage.INTERPROSCAN, BasicTools.Integer2int(stored.toArray(new Integer[] {})));
+	}
+	
+	// records the sequences which were searched successfully (their hits are kept in the hit cache)
+	private void journalSearch(int[] indices, boolean superPred) {
+		
+		if (journal == null) {
+			return;
+		}
+		List<Integer> searched = new ArrayList<Integer>();
+		for (int index: indices) {
+			if (records.isSearched(index, superPred)) {
+				searched.add(index);
+			}
+		}
+		journalStage(superPred ? WorkJournal.Stage.SUPERCLASS_SEARCH : WorkJournal.Stage.TF_SEARCH, BasicTools.Integer2int(searched.toArray(new Integer[] {})));
+	}
+	
+	private void journalStage(WorkJournal.Stage stage, int[] indices) {
+		
+		if (journal == null || indices.length == 0) {
+			return;
+		}
+		List<String> sequences = new ArrayList<String>(indices.length);
+		for (int index: indices) {
+			sequences.add(records.getSequence(index));
+		}
+		try {
+			journal.append(stage, sequences);
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			System.out.println("Error. Work journal could not be written. The run can only be resumed up to the last completed stage.");
+			exc.printStackTrace();
+		}
+	}
+	
+	// reports the sequences which were completed or partially processed by an earlier run
+	private void writeJournalStatus(List<Integer> newIndices) {
+		
+		int numCompleted = 0;
+		int numPartial = 0;
+		Set<Integer> pendingIndices = new HashSet<Integer>(newIndices);
+		Set<String> sequences = new HashSet<String>();
+		for (int i=0; i<records.size(); i++) {
+			String seq = records.getSequence(i).toUpperCase();
+			if (!sequences.add(seq) || !journal.contains(seq)) {
+				continue;
+			}
+			if (journal.isCompleted(WorkJournal.Stage.CLASSIFIED, seq) && !pendingIndices.contains(i)) {
+				numCompleted++;
+			} else {
+				numPartial++;
+			}
+		}
+		if (numCompleted + numPartial > 0) {
+			out.println("\n  Work journal: " + numCompleted + " sequence(s) completed and " + numPartial + " sequence(s) partially processed by an earlier run.");
+		}
+	}
+	
+	void closeJournal() {
+		
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+			journal = null;
+		}
+	}
+	
+	// opens the JSON Lines and TSV outputs (if requested)
+	void openRecordWriters() throws IOException {
+		
+		if (json_outfile != null) {
+			recordWriters.add(new PredictionRecordWriter(json_outfile, PredictionRecordWriter.Format.JSON_LINES, flushInterval));
+		}
+		if (tsv_outfile != null) {
+			recordWriters.add(new PredictionRecordWriter(tsv_outfile, PredictionRecordWriter.Format.TSV, flushInterval));
+		}
+	}
+	
+	// appends the predictions of the current sequences to the JSON Lines and TSV outputs
+	private void writeRecords() {
+		
+		try {
+			for (PredictionRecordWriter writer: recordWriters) {
+				for (int i=0; i<records.size(); i++) {
+					writer.write(records, i);
+				}
+			}
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			exc.printStackTrace();
+		}
+	}
+	
+	void closeRecordWriters() {
+		
+		for (PredictionRecordWriter writer: recordWriters) {
+			try {
+				writer.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+		recordWriters.clear();
+	}
+	
+	void prepareClassifiers() {
 
-		// load TF/Non-TF and superclass classifier
+		// load TF/Non-TF and superclass classifier (WEKA models are only read if they cannot be scored directly)
 		try {
-			tfClassifier = (Classifier) weka.core.SerializationHelper.read(Resource.class.getResourceAsStream(tfClassifier_file));			 
-			superClassifier = (Classifier) weka.core.SerializationHelper.read(Resource.class.getResourceAsStream(superClassifier_file));
+			tfScorer = ReferenceData.getLinearScorer(tfClassifier_file, blastDBcacheDir);
+			superScorer = ReferenceData.getLinearScorer(superClassifier_file, blastDBcacheDir);
+			tfClassifier = (tfScorer == null) ? ReferenceData.getClassifier(tfClassifier_file) : null;
+			superClassifier = (superScorer == null) ? ReferenceData.getClassifier(superClassifier_file) : null;
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -464,23 +1223,23 @@ public class Predict {
 	}
     
 	 // execute iprscan and get results
-	private void runInterproScan() {
+	void runInterproScan() {
 
 		// HACK: line can be excluded for testing purposes
-		IPRrun InterProScanRunner = new IPRrun(silent);
+		IPRrun InterProScanRunner = new IPRrun(silent, iprStore);
 		AnimatedChar an = null;
 		if (standAloneMode) {
-			System.out.print("\n  Fetching domains from InterProScan. This may take several minutes... ");
+			out.print("\n  Fetching domains from InterProScan. This may take several minutes... ");
 			
 			an = new AnimatedChar();
 			//an.setOutputStream(System.out);
 			//an.showAnimatedChar();
 		}
-		List<String[]> IPRoutput = InterProScanRunner.run(input_file, iprpath, basedir, useWeb, standAloneMode);
+		List<String[]> IPRoutput = InterProScanRunner.run(query_file, iprpath, basedir, useWeb, standAloneMode);
 		seq2job = InterProScanRunner.getSeq2job();
 		if (standAloneMode) {
 			//an.hideAnimatedChar();
-			System.out.println();
+			out.println();
 		}
 		
 		// HACK: lines can be included for testing purposes
@@ -503,8 +1262,9 @@ public class Predict {
 		// process result
 		seq2bindingDomain = IPRprocess.filterIPRdomains(seq2domain, IPRdomains, relGOterms, tfName2class);
 		if (standAloneMode || !silent) {
-			for	(String seq: sequence_ids) {
-				System.out.println("\nProcessed " + seq + ":");
+			for	(int index: pending) {
+				String seq = records.getID(index);
+				out.println("\nProcessed " + seq + ":");
 				int numDomains = 0;
 				if (seq2domain.get(seq) != null) {
 					numDomains = seq2domain.get(seq).domain_ids.size();
@@ -521,229 +1281,500 @@ public class Predict {
 				if (seq2bindingDomain.get(seq) != null) {
 					numBindingDomains = seq2bindingDomain.get(seq).binding_domains.size();
 				}
-				System.out.println("  " + numDomains + " InterPro domain(s) found.");
-				System.out.println("  " + numDomainsTFclass + " / " + numDomains + " InterPro domain(s) are relevant for TF/Non-TF classification.");
-				System.out.println("  " + numDomainsSuperclass + " / " + numDomains + " InterPro domain(s) are relevant for Superclass prediction.");
-				System.out.println("  " + numBindingDomains + " / " + numDomains + " InterPro domain(s) were identified as DNA-binding domain(s).");
+				out.println("  " + numDomains + " InterPro domain(s) found.");
+				out.println("  " + numDomainsTFclass + " / " + numDomains + " InterPro domain(s) are relevant for TF/Non-TF classification.");
+				out.println("  " + numDomainsSuperclass + " / " + numDomains + " InterPro domain(s) are relevant for Superclass prediction.");
+				out.println("  " + numBindingDomains + " / " + numDomains + " InterPro domain(s) were identified as DNA-binding domain(s).");
+			}
+		}
+	}
+	
+	// extracts FASTA files and generates databases (if not yet contained in cache)
+	void prepareBlastDatabases() {
+		
+		// extract FASTA files from Jar and generate PSI-BLAST databases (if not yet contained in cache)
+		BlastDBcache dbCache = new BlastDBcache(blastDBcacheDir, blastpath);
+		try {
+			if (useSmithWaterman) {
+				// the Smith-Waterman engine only requires the FASTA files
+				tfnontfDBfastaFile = dbCache.getFastaFile(prokaryote ? tfPredBlastFastaProk : tfPredBlastFasta);
+				tfDBfastaFile = dbCache.getFastaFile(prokaryote ? superPredBlastFastaProk : superPredBlastFasta);
+			}
+			else if(!prokaryote){
+				tfnontfDBfastaFile = dbCache.getDatabase(tfPredBlastFasta);
+				tfDBfastaFile = dbCache.getDatabase(superPredBlastFasta);
+			}
+			else{
+				tfnontfDBfastaFile = dbCache.getDatabase(tfPredBlastFastaProk);
+				tfDBfastaFile = dbCache.getDatabase(superPredBlastFastaProk);
+			}
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			System.out.println("Error. BLAST database could not be created.");
+			exc.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Generates the databases (if necessary) and searches the given sequences
+	 * in the database of the TF/Non-TF prediction or in the database of the
+	 * superclass prediction.
+	 * 
+	 * @param indices records of the sequences to be searched
+	 * @param superPred {@code true} for the database of the superclass prediction
+	 * @throws CancellationException if the thread was interrupted, as the
+	 *         sequences cannot be classified without the hits of all searches
+	 */
+	void runPsiBlast(int[] indices, boolean superPred) {
+		
+		// the databases are also needed to read the labels of the hits
+		if (tfnontfDBfastaFile == null || tfDBfastaFile == null) {
+			prepareBlastDatabases();
+		}
+		if (indices.length == 0) {
+			return;
+		}
+		if (batchMode && blastBatchSize > 0 && !useSmithWaterman) {
+			runPsiBlastBatches(indices, superPred);
+			return;
+		}
+		
+		// blast query sequences against TF or TF/non-TF database
+		String dbFastaFile = superPred ? tfDBfastaFile : tfnontfDBfastaFile;
+		String hitsSuffix = superPred ? ".super.hits" : ".tf.hits";
+		
+		// run searches of all sequences in a bounded pool of worker threads (queries and reports are passed through pipes)
+		// longest sequences first, as the pool starts the jobs in the order of the queue
+		Map<Integer, String> index2seq = new LinkedHashMap<Integer, String>();
+		for (int index: indices) {
+			index2seq.put(index, records.getSequence(index));
+		}
+		List<Integer> order = CostModel.getLongestFirst(index2seq);
+		if (standAloneMode || !silent) {
+			printMakespanEstimate(order, dbFastaFile, superPred);
+		}
+		String queryName = new File(query_file).getName();
+		Collection<BlastJob> queue = new ArrayList<BlastJob>();
+		for (int index: order) {
+			String reportName = queryName.replace(".fasta", hitsSuffix);
+			if (batchMode) {
+				reportName = queryName.replace(".fasta", ".seq" + (index + 1) + hitsSuffix);
 			}
+			queue.add(new BlastJob(index, reportName, dbFastaFile, superPred));
 		}
-	}
-	
-	// generates databases, runs BLAST on query sequence and extracts hits 
-	private void runPsiBlast() {
 		
-		// copy FASTA files from Jar to temporary directory
-		String blast_db_dir = basedir + (prokaryote ? "blast_db_prok/" : "blast_db/");
-
-		if (! new File(blast_db_dir).exists() && ! new File(blast_db_dir).mkdir()) {
-			System.out.println("Error. Could not create directory for BLAST database.");
+		ExecutorService exec = Executors.newFixedThreadPool(Math.min(numThreads, queue.size()));
+		try {
+			for (Future<Void> res : exec.invokeAll(queue)) {
+				res.get();
+			}
+		} catch (InterruptedException e) {
+			exec.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Search of " + queue.size() + " sequence(s) was interrupted.");
+		} catch (ExecutionException e) {
+			logger.severe(e.getMessage());
+			e.printStackTrace();
+		} finally {
+			exec.shutdown();
 		}
-		if(!prokaryote){
-			tfnontfDBfastaFile = blast_db_dir + new File(tfPredBlastFasta).getName();
-			tfDBfastaFile = blast_db_dir + new File(superPredBlastFasta).getName();
+		CostModel.getDefault().save();
+	}
+	
+	// total length of the given sequences
+	private long getNumResidues(int[] indices) {
+		long numResidues = 0;
+		for (int index: indices) {
+			numResidues += records.getSequence(index).length();
 		}
-		else{
-			tfnontfDBfastaFile = blast_db_dir + new File(tfPredBlastFastaProk).getName();
-			tfDBfastaFile = blast_db_dir + new File(superPredBlastFastaProk).getName();
+		return numResidues;
+	}
+	
+	// prints the time needed for the searches of all sequences without cached hits (if runtimes of the search were observed)
+	private void printMakespanEstimate(List<Integer> indices, String dbFastaFile, boolean superPred) {
+		
+		List<String> uncached = new ArrayList<String>();
+		try {
+			for (int index: indices) {
+				if (blastHitCache == null || !blastHitCache.contains(records.getSequence(index), dbFastaFile, getSearchName())) {
+					uncached.add(records.getSequence(index));
+				}
+			}
+		} catch (IOException exc) {
+			logger.warning(exc.getMessage());
+			return;
 		}
-
-		if(!prokaryote){
-			BasicTools.copy(tfPredBlastFasta, tfnontfDBfastaFile, true);
-			BasicTools.copy(superPredBlastFasta, tfDBfastaFile, true);
+		String stage = CostModel.getStageName(getSearchName(), dbFastaFile);
+		String estimate = CostModel.getDefault().getMakespanEstimate(stage, uncached, Math.min(numThreads, CpuBudget.getGlobal().getSize()));
+		if (estimate != null && !uncached.isEmpty()) {
+			out.println("\n  " + (superPred ? "Superclass" : "TF/Non-TF") + " search. " + estimate + ".");
 		}
-		else{
-			BasicTools.copy(tfPredBlastFastaProk, tfnontfDBfastaFile, true);
-			BasicTools.copy(superPredBlastFastaProk, tfDBfastaFile, true);
+	}
+	
+	// name of the hit tables of the searches of single sequences in the hit cache
+	private String getSearchName() {
+		if (useSmithWaterman) {
+			return useKmerPrefilter ? KmerIndex.searchName : SmithWatermanSearch.searchName;
 		}
-
+		return "iter" + numBlastIter;
+	}
+	
+	// searches all given sequences which are not yet contained in the hit cache with one PSI-BLAST process per batch
+	void runPsiBlastBatches(int[] indices, boolean superPred) {
 		
-		// generate PSI-BLAST databases from FASTA files
-		String createDB_cmd = blastpath + "bin/makeblastdb";
-		if (BasicTools.isWindows()) createDB_cmd = "\"" + createDB_cmd + "\"";
-		String createDB_cmdTF = createDB_cmd +  " -in " + tfnontfDBfastaFile + " -out " + tfnontfDBfastaFile + ".db" + " -dbtype prot";
-		String createDB_cmdSuper = createDB_cmd + " -in " + tfDBfastaFile + " -out " + tfDBfastaFile + ".db" + " -dbtype prot";
-		BasicTools.runCommand(createDB_cmdTF , false);
-		BasicTools.runCommand(createDB_cmdSuper, false);
-		
-		// blast query sequences against TF and TF/non-TF database
-		String blastHitsFileTF = input_file.replace(".fasta", ".tf.hits");
-		String blastHitsFileSuper = input_file.replace(".fasta", ".super.hits");
-		
-		// if given FASTA file contains multiple sequences --> split into single sequences
-		Map<String, String> seq2fasta = new HashMap<String, String>();
-		int seqCnt = 1;
-		if (batchMode) {
-			for (String seqID: sequence_ids) {
-				String currFastaFile = input_file.replace(".fasta", ".seq" + seqCnt++ + ".fasta");
-				BasicTools.writeFASTA(seqID, sequences.get(seqID), currFastaFile);
-				seq2fasta.put(seqID, currFastaFile);
+		String searchName = "iter" + numBlastIter;
+		String dbFastaFile = superPred ? tfDBfastaFile : tfnontfDBfastaFile;
+		List<Integer> uncached = new ArrayList<Integer>();
+		for (int index: indices) {
+			Map<String, Double> blastHits = null;
+			try {
+				if (blastHitCache != null) {
+					blastHits = blastHitCache.get(records.getSequence(index), dbFastaFile, searchName);
+				}
+			} catch (IOException exc) {
+				logger.severe(exc.getMessage());
+			}
+			if (blastHits != null) {
+				records.setBlastHits(index, blastHits, superPred);
+			} else {
+				uncached.add(index);
 			}
-		} else {
-			seq2fasta.put(sequence_ids[0], input_file);
 		}
+		
+		int batchCnt = 1;
+		for (int start=0; start<uncached.size(); start+=blastBatchSize) {
+			List<Integer> batch = uncached.subList(start, Math.min(start + blastBatchSize, uncached.size()));
 			
-		seqCnt = 1;
-		for (String seqID: sequence_ids) {
-			String runBLAST_cmd = blastpath + "bin/psiblast";
-			if (BasicTools.isWindows()) runBLAST_cmd = "\"" + runBLAST_cmd + "\"";
-			String currHitsFileTF = blastHitsFileTF;
-			String currHitsFileSuper = blastHitsFileSuper;
-			if (batchMode) {
-				currHitsFileTF = blastHitsFileTF.replace(".tf.hits", ".seq" + seqCnt++ + ".tf.hits");
-				currHitsFileSuper = blastHitsFileSuper.replace(".super.hits", ".seq" + seqCnt + ".super.hits");
+			// queries are named by their position in the batch, as sequence IDs may contain whitespace or be ambiguous
+			Map<String, String> queries = new LinkedHashMap<String, String>();
+			for (int i=0; i<batch.size(); i++) {
+				queries.put("query" + i, records.getSequence(batch.get(i)));
 			}
-			String runBLAST_cmdTF = runBLAST_cmd + " -query " + seq2fasta.get(seqID) + " -num_iterations " + numBlastIter +  " -out " + currHitsFileTF + " -db " +  tfnontfDBfastaFile + ".db";
-			String runBLAST_cmdSuper = runBLAST_cmd + " -query " + seq2fasta.get(seqID) + " -num_iterations " + numBlastIter +  " -out " + currHitsFileSuper + " -db " +  tfDBfastaFile + ".db";
-			BasicTools.runCommand(runBLAST_cmdTF, false);
-			BasicTools.runCommand(runBLAST_cmdSuper, false);
+			String reportName = new File(query_file).getName().replace(".fasta", (superPred ? ".super" : ".tf") + ".batch" + batchCnt++ + ".hits");
+			
 			try {
-				if(!prokaryote){
-					seq2blastHitsTF.put(seqID, getBlastHits(currHitsFileTF));
-					seq2blastHitsSuper.put(seqID, getBlastHits(currHitsFileSuper));
-				}
-				else{
-					seq2blastHitsTF.put(seqID, getBlastHitsProk(new File(currHitsFileTF)));
-					seq2blastHitsSuper.put(seqID, getBlastHitsProk(new File(currHitsFileSuper)));
-				}
-
-			} catch (NumberFormatException | IOException exc) {
+				setBlastHits(batch, searchBatch(batch, queries, dbFastaFile, reportName), superPred);
+				
+			} catch (InterruptedIOException exc) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException(exc.getMessage());
+				
+			} catch (IOException exc) {
 				logger.severe(exc.getMessage());
 				exc.printStackTrace();
 			}
 		}
 	}
-
-	/**
-	 * Read PSI-BLAST output from temporary files
-	 */
-	private Map<String, Double> getBlastHitsProk(File blastHitsFile) throws NumberFormatException, IOException {
-		return BasicTools.parseBLASTHitsProk(blastHitsFile);
+	
+	private void setBlastHits(List<Integer> batch, List<Map<String, Double>> batchHits, boolean superPred) {
+		for (int i=0; i<batch.size(); i++) {
+			records.setBlastHits(batch.get(i), batchHits.get(i), superPred);
+		}
 	}
-
-	private Map<String, Double> getBlastHits(String blastHitsFile) { 
+	
+	// runs PSI-BLAST for all sequences of a batch and returns the hits of the first iteration in the order of the batch
+	private List<Map<String, Double>> searchBatch(List<Integer> batch, Map<String, String> queries, String dbFastaFile, String reportName) throws IOException {
+		
+		PsiBlastRunner psiBlast = new PsiBlastRunner(blastpath, dbFastaFile + ".db", numBlastIter, numThreads);
+		psiBlast.setReportDir(blastReportDir);
+		Map<String, Map<String, Double>> queryHits = psiBlast.search(queries, reportName);
+		
+		List<Map<String, Double>> batchHits = new ArrayList<Map<String, Double>>(batch.size());
+		for (int i=0; i<batch.size(); i++) {
+			Map<String, Double> blastHits = queryHits.get("query" + i);
+			if (blastHits == null) {
+				throw new IOException("PSI-BLAST output " + reportName + " does not contain the results of sequence " + records.getID(batch.get(i)));
+			}
+			if (prokaryote) {
+				BasicTools.correctHitIDsProk(blastHits);
+			}
+			if (blastHitCache != null) {
+				blastHitCache.put(records.getSequence(batch.get(i)), dbFastaFile, "iter" + numBlastIter, blastHits);
+			}
+			batchHits.add(blastHits);
+		}
+		return batchHits;
+	}
+	
+	// job object: runs the PSI-BLAST search of one sequence in one database and stores the extracted hits
+	class BlastJob implements Callable<Void> {
+		
+		int index;
+		String reportName;
+		String dbFastaFile;
+		boolean superPred;
+		
+		public BlastJob(int index, String reportName, String dbFastaFile, boolean superPred) {
+			this.index = index;
+			this.reportName = reportName;
+			this.dbFastaFile = dbFastaFile;
+			this.superPred = superPred;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Void call() throws Exception {
 			
-		List<String> hitsTable = BasicTools.readFile2List(blastHitsFile, false);
+			try {
+				records.setBlastHits(index, getBlastHits(), superPred);
 
-			// skip header
-			int lineIdx = 0;
-			String line;
-			while (lineIdx < hitsTable.size() && !(line = hitsTable.get(lineIdx)).startsWith("Sequences producing significant alignments")) {
-				lineIdx++;
+			} catch (NumberFormatException | IOException exc) {
+				logger.severe(exc.getMessage());
+				exc.printStackTrace();
 			}
-			lineIdx = lineIdx + 2; 
+			return null;
+		}
+		
+		// runs the search only if the hits of the sequence are not contained in the cache
+		private Map<String, Double> getBlastHits() throws NumberFormatException, IOException {
 			
-			// read hits and corresponding bit scores
-			Map<String, Double> blastHits = new HashMap<String, Double>();
-			while (lineIdx < hitsTable.size() && !hitsTable.get(lineIdx).isEmpty() && !(line = hitsTable.get(lineIdx)).startsWith(">")) {
-
-				StringTokenizer strtok = new StringTokenizer(line);
-				String hitID = strtok.nextToken();
-				String nextToken;
-				while ((nextToken = strtok.nextToken()).startsWith("GO:"));  // skip GO terms in non-TF headers
-				double hitScore = Double.parseDouble(nextToken); 
-				blastHits.put(hitID, hitScore);
-				lineIdx++;
+			String sequence = records.getSequence(index);
+			String searchName = getSearchName();
+			if (blastHitCache != null) {
+				Map<String, Double> blastHits = blastHitCache.get(sequence, dbFastaFile, searchName);
+				if (blastHits != null) {
+					return blastHits;
+				}
+			}
+			Map<String, Double> blastHits;
+			if (useSmithWaterman) {
+				KmerIndex prefilter = useKmerPrefilter ? KmerIndex.getInstance(dbFastaFile) : null;
+				CpuBudget cpuBudget = CpuBudget.getGlobal();
+				int permits;
+				try {
+					permits = cpuBudget.acquire(1);
+				} catch (InterruptedException exc) {
+					throw new InterruptedIOException("Search of " + records.getID(index) + " was interrupted.");
+				}
+				try {
+					long start = System.nanoTime();
+					blastHits = SmithWatermanSearch.getInstance(dbFastaFile).search(sequence, prefilter);
+					CostModel.getDefault().addObservation(CostModel.getStageName(searchName, dbFastaFile), sequence.length(), System.nanoTime() - start);
+				} finally {
+					cpuBudget.release(permits);
+				}
+			} else {
+				// hits of the first iteration correspond to the hits used to compute the training features
+				PsiBlastRunner psiBlast = new PsiBlastRunner(blastpath, dbFastaFile + ".db", numBlastIter, 1);
+				psiBlast.setReportDir(blastReportDir);
+				psiBlast.setCostModel(CostModel.getDefault(), CostModel.getStageName(searchName, dbFastaFile));
+				blastHits = psiBlast.search(records.getID(index), sequence, reportName);
+			}
+			if (prokaryote) {
+				BasicTools.correctHitIDsProk(blastHits);
+			}
+			if (blastHitCache != null) {
+				blastHitCache.put(sequence, dbFastaFile, searchName, blastHits);
 			}
 			return blastHits;
+		}
 	}
 
 	
 	
-	private void performClassification() {
-    
-		// check if trivial prediction is possible based on characteristic domains detected by InterProScan
-		for (String seq: sequence_ids) {
-			predictionTrivial.put(seq, false);
+	/**
+	 * Scores all pending sequences by the first stage of the cascade. Sequences
+	 * below the uncertainty band are classified as Non-TF, sequences above the
+	 * band are classified as TF and are only searched for the superclass.
+	 * 
+	 * @return records of the sequences which are passed to InterProScan
+	 */
+	private int[] runCascade() {
+		
+		cascadeTFs.clear();
+		List<Integer> escalated = new ArrayList<Integer>();
+		for (int index: pending) {
+			double probTF = cascadeModel.getProbTF(records.getSequence(index));
+			if (probTF < cascadeLower) {
+				records.setPredictionPossible(index, true);
+				records.setPredictionTrivial(index, false);
+				records.setTF(index, false);
+				records.setProbDistTFclass(index, new double[] {1 - probTF, probTF});
+				continue;
+			}
+			if (probTF > cascadeUpper) {
+				records.setPredictionPossible(index, true);
+				records.setProbDistTFclass(index, new double[] {1 - probTF, probTF});
+				cascadeTFs.add(index);
+			}
+			escalated.add(index);
+		}
+		return BasicTools.Integer2int(escalated.toArray(new Integer[]{}));
+	}
+	
+	// returns the given records which were (or were not) classified as TF by the first stage of the cascade
+	private int[] selectCascadeTFs(int[] indices, boolean cascadeTF) {
+		
+		List<Integer> selected = new ArrayList<Integer>();
+		for (int index: indices) {
+			if (cascadeTFs.contains(index) == cascadeTF) {
+				selected.add(index);
+			}
+		}
+		return BasicTools.Integer2int(selected.toArray(new Integer[]{}));
+	}
+	
+	/**
+	 * Checks if a trivial prediction is possible based on the characteristic
+	 * domains detected by InterProScan. The prediction of these sequences does
+	 * not depend on any PSI-BLAST search.
+	 * 
+	 * @return records of all pending sequences without trivial prediction
+	 */
+	int[] findTrivialPredictions() {
+		
+		for (int index: pending) {
+			records.setPredictionTrivial(index, false);
 		}
 		if (useCharacteristicDomains) {
 			for (String seqID: seq2domain.keySet()) {
+				int index = records.indexOf(seqID);
+				if (index < 0) {
+					continue;
+				}
 				ArrayList<String> currDomainIDs = seq2domain.get(seqID).domain_ids;
 				for (String domainID: currDomainIDs) {
 					if (domain2superclass.containsKey(domainID)) {
 						int predSuperClass = domain2superclass.get(domainID);
-						predictionTrivial.put(seqID, true);
-						seqIsTF.put(seqID, true);
-						probDist_TFclass.put(seqID, new Double[] {0.0, 1.0});
-						predictedSuperclass.put(seqID, predSuperClass);
-						Double[] superClassDist = new Double[] {0.0, 0.0, 0.0, 0.0, 0.0};
+						records.setPredictionTrivial(index, true);
+						records.setTF(index, true);
+						records.setProbDistTFclass(index, new double[] {0.0, 1.0});
+						records.setPredictedSuperclass(index, predSuperClass);
+						double[] superClassDist = new double[PredictionRecords.numSuperclasses];
 						superClassDist[predSuperClass] = 1.0;
-						probDist_Superclass.put(seqID, superClassDist);
+						records.setProbDistSuperclass(index, superClassDist);
 						break;
 					}
 				}
 			}
 		}
 		
+		List<Integer> nonTrivial = new ArrayList<Integer>();
+		for (int index: pending) {
+			if (!records.isPredictionTrivial(index)) {
+				nonTrivial.add(index);
+			} else {
+				records.setPredictionPossible(index, true);
+			}
+		}
+		return BasicTools.Integer2int(nonTrivial.toArray(new Integer[]{}));
+	}
+	
+	/**
+	 * Performs the TF/Non-TF classification of the given sequences based on
+	 * the hits of the TF/Non-TF search.
+	 * 
+	 * @param indices records of the sequences without trivial prediction
+	 * @return records of all sequences which may be TFs, i.e., for which the
+	 *         superclass search is required
+	 */
+	int[] classifyTFs(int[] indices) {
+		
 		// create Bit score percentile feature vectors
-		Map<String, String> sequencesTF = BasicTools.readFASTA(tfnontfDBfastaFile, true);
-		Map<String, String> sequencesSuper = BasicTools.readFASTA(tfDBfastaFile, true);
-		Map<String, Integer> seq2labelTF = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequencesTF.keySet(), false, false);
-		Map<String, Integer> seq2labelSuper = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequencesSuper.keySet(), true, false);
-		Map<String, Instance> seq2percFeatTF = createPercentileFeatureVectors(seq2blastHitsTF, seq2labelTF, false);
-		Map<String, Instance> seq2percFeatSuper = createPercentileFeatureVectors(seq2blastHitsSuper, seq2labelSuper, true);
+		Map<String, Integer> seq2labelTF = ReferenceData.getLabels(tfnontfDBfastaFile, false);
+		Map<String, double[]> seq2percFeatTF = createPercentileFeatureVectors(records.getBlastHits(indices, false), seq2labelTF, false);
 		
 		// flag all sequences for which no prediction is possible
 		// (i.e., none of the IPRdomains which are relevant for TF/Non-TF classification was found)
-		for (String seq: sequence_ids) {
-			if (predictionTrivial.get(seq)) {
-				predictionPossible.put(seq, true);
-			} else {
-				predictionPossible.put(seq, false);
+		List<Integer> batchTF = new ArrayList<Integer>();
+		List<double[]> featuresTF = new ArrayList<double[]>();
+		for (int index: indices) {
+			double[] features = seq2percFeatTF.get(records.getID(index));
+			records.setPredictionPossible(index, features != null);
+			if (features != null) {
+				batchTF.add(index);
+				featuresTF.add(features);
+			}
+		}
+		
+		// perform TF/Non-TF classification of all sequences in one batch
+		try {
+			double[][] probDistsTF = classifyBatch(tfScorer, tfClassifier, tfClassifier_file, featuresTF);
+			for (int i=0; i<probDistsTF.length; i++) {
+				double[] currProbDistTF = probDistsTF[i];
+				if (currProbDistTF.length == 1) {
+					currProbDistTF = new double[] {currProbDistTF[0], 1-currProbDistTF[0]};
+				}
+				records.setProbDistTFclass(batchTF.get(i), currProbDistTF);
+			}
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		
+		// sequences classified as Non-TF may still be identified as TF by a characteristic domain
+		List<Integer> tfCandidates = new ArrayList<Integer>();
+		for (int index: batchTF) {
+			if (records.getProbDistTFclass(index) != null && records.getProbTFclass(index, TF) >= records.getProbTFclass(index, Non_TF)) {
+				tfCandidates.add(index);
+			} else if (hasCharacteristicTFdomain(records.getID(index))) {
+				tfCandidates.add(index);
 			}
 		}
-		for (String seq: seq2percFeatTF.keySet()) {
-			if (seq2percFeatTF.get(seq) != null) {
-				predictionPossible.put(seq, true);
+		return BasicTools.Integer2int(tfCandidates.toArray(new Integer[]{}));
+	}
+	
+	private boolean hasCharacteristicTFdomain(String seq) {
+		
+		if (!useCharacteristicDomains) {
+			return false;
+		}
+		IprEntry seq2DomainEntry = seq2domain.get(seq);
+		if (seq2DomainEntry != null) {
+			for (String domainID: seq2DomainEntry.domain_ids) {
+				if (domain2tf.containsKey(domainID)) {
+					return true;
+				}
 			}
 		}
+		return false;
+	}
+	
+	/**
+	 * Decides which sequences are TFs, predicts the superclass of the given
+	 * TF candidates based on the hits of the superclass search and assigns the
+	 * DNA-binding domains.
+	 * 
+	 * @param tfCandidates records of the sequences searched in the database of
+	 *        the superclass prediction
+	 */
+	void performClassification(int[] tfCandidates) {
+		
+		Map<String, Integer> seq2labelSuper = ReferenceData.getLabels(tfDBfastaFile, true);
+		Map<String, double[]> seq2percFeatSuper = createPercentileFeatureVectors(records.getBlastHits(tfCandidates, true), seq2labelSuper, true);
 		
 		// perform all classification steps if feature vector could be created
 		try {
-			for (String seq: seq2percFeatTF.keySet()) {
-				if (predictionPossible.get(seq)) {				
-					if (!predictionTrivial.get(seq)) {
-						seqIsTF.put(seq, false);
+			List<Integer> batchSuper = new ArrayList<Integer>();
+			List<double[]> featuresSuper = new ArrayList<double[]>();
+			for (int index: pending) {
+				String seq = records.getID(index);
+				if (records.isPredictionPossible(index)) {
+					if (!records.isPredictionTrivial(index)) {
+						records.setTF(index, false);
 					}
-					annotatedClassAvailable.put(seq, false);
-					domainsPredicted.put(seq, false);
+					records.setAnnotatedClassAvailable(index, false);
+					records.setDomainsPredicted(index, false);
 					
-					// perform TF/Non-TF classification
-					if (!predictionTrivial.get(seq)) {
-						Instance featVectorTF = seq2percFeatTF.get(seq);
-						double[] currProbDistTF = tfClassifier.distributionForInstance(featVectorTF);
-						if (currProbDistTF.length == 1) {
-							currProbDistTF = new double[] {currProbDistTF[0], 1-currProbDistTF[0]};
-						}
-						probDist_TFclass.put(seq, BasicTools.double2Double(currProbDistTF));
-						if (currProbDistTF[TF] >= currProbDistTF[Non_TF] && seq2percFeatSuper.containsKey(seq)) {
-							seqIsTF.put(seq, true);
+					// evaluate TF/Non-TF classification
+					if (!records.isPredictionTrivial(index)) {
+						if (records.getProbTFclass(index, TF) >= records.getProbTFclass(index, Non_TF) && seq2percFeatSuper.containsKey(seq)) {
+							records.setTF(index, true);
 						} 
 					}
 					
 					// if not yet identified as TF, try identification via characteristic domains
-					if (!seqIsTF.get(seq) && useCharacteristicDomains) {
-						IprEntry seq2DomainEntry = seq2domain.get(seq);
-						if (seq2DomainEntry != null) {
-							ArrayList<String> currDomainIDs = seq2DomainEntry.domain_ids;
-							for (String domainID: currDomainIDs) {
-								if (domain2tf.containsKey(domainID)) {
-									seqIsTF.put(seq, true);
-									probDist_TFclass.put(seq, new Double[] {0.0, 1.0});
-									break;
-								}
-							}
-						}
+					if (!records.isTF(index) && hasCharacteristicTFdomain(seq)) {
+						records.setTF(index, true);
+						records.setProbDistTFclass(index, new double[] {0.0, 1.0});
 					}
 		    		
-					// if sequence was classified as TF --> predict superclass
-					if (seqIsTF.get(seq)) {
-						if (!predictionTrivial.get(seq)) {
-							Instance featVectorSuper = seq2percFeatSuper.get(seq);
-							double[] currProbDistSuper = superClassifier.distributionForInstance(featVectorSuper);
-							probDist_Superclass.put(seq, BasicTools.double2Double(currProbDistSuper));
-
-							int maxIndex = BasicTools.getMaxIndex(currProbDistSuper);
-							predictedSuperclass.put(seq, maxIndex);
+					// if sequence was classified as TF --> predict superclass (see below)
+					if (records.isTF(index)) {
+						if (!records.isPredictionTrivial(index) && seq2percFeatSuper.get(seq) != null) {
+							batchSuper.add(index);
+							featuresSuper.add(seq2percFeatSuper.get(seq));
 						}
 						
 						// predict DNA-binding domain
@@ -751,17 +1782,24 @@ public class Predict {
 				    	
 				    	if (ipr_res != null) {
 				    		if (!ipr_res.anno_transfac_class.isEmpty()) {
-				    			annotatedClassAvailable.put(seq, true);
-				    			annotatedClass.put(seq, ipr_res.anno_transfac_class);
+				    			records.setAnnotatedClassAvailable(index, true);
+				    			records.setAnnotatedClass(index, ipr_res.anno_transfac_class);
 				    		} 
 				    		if (!ipr_res.binding_domains.isEmpty()) {
-				    			domainsPredicted.put(seq, true);
-				    			bindingDomains.put(seq, ipr_res.binding_domains.toArray(new String[]{}));
+				    			records.setDomainsPredicted(index, true);
+				    			records.setBindingDomains(index, ipr_res.binding_domains.toArray(new String[]{}));
 				    		}
 				    	}
 					}
 				}
 			}
+			
+			// predict superclass of all sequences classified as TF in one batch
+			double[][] probDistsSuper = classifyBatch(superScorer, superClassifier, superClassifier_file, featuresSuper);
+			for (int i=0; i<probDistsSuper.length; i++) {
+				records.setProbDistSuperclass(batchSuper.get(i), probDistsSuper[i]);
+				records.setPredictedSuperclass(batchSuper.get(i), BasicTools.getMaxIndex(probDistsSuper[i]));
+			}
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
@@ -808,7 +1846,7 @@ public class Predict {
 						
 			} else if (errorType == TooManySequencesError) {
 				bw.write("<h3> Maximum number of sequences allowed in Batch Mode: " + maxNumSequencesBatchMode + "<br>\n" +
-			   		   "Number of sequences in given FASTA file: " + sequences.size() + "</h3>\n");
+			   		   "Number of sequences in given FASTA file: " + records.size() + "</h3>\n");
 				
 			} else if (errorType == DuplicatedHeaderError) {
 				bw.write("<h3>FASTA file contains duplicated headers.</h3>\n");
@@ -827,94 +1865,14 @@ public class Predict {
 		}
 	}
 	
-	private void writeHTMLoutput() {
+	void writeHTMLoutput() {
 		
 		try {
 			BufferedWriter bw = new BufferedWriter(new FileWriter(new File(html_outfile)));
 			
 			writeHTMLheader(bw);
 		
-			for (int i=0; i<sequence_ids.length; i++) {
-				String seq = sequence_ids[i];
-				
-				if (i > 0) {
-					bw.write("<br><hr>\n\n");
-				}
-				
-				if (batchMode) {
-					bw.write("<h1><span style=\"color:#000000\">Results report: </span>" + seq + "</h1>\n");
-				}
-				bw.write("<h2>TF/Non-TF prediction:</h2>\n");
-				if (predictionPossible.get(seq)) {
-					
-					String[] outcomesTF = getClassificationOutcomes(BasicTools.Double2double(probDist_TFclass.get(seq)));
-					bw.write("<table>\n");
-					bw.write("  <tr><th></th><th>Probability<th></tr>\n");
-					bw.write("  <tr><th> TF </th><td class=\"" + outcomesTF[TF] + "\"> " + df.format(probDist_TFclass.get(seq)[TF]) + " </td></tr>\n");
-					bw.write("  <tr><th> Non-TF </th><td class=\"" + outcomesTF[Non_TF] + "\"> " + df.format(probDist_TFclass.get(seq)[Non_TF]) + " </td></tr>\n");
-					bw.write("</table>\n\n");
-					bw.write("<br>\n\n");
-					    
-					bw.write("<h2>Superclass prediction:</h2>\n");
-					if (seqIsTF.get(seq)) {
-						String[] outcomesSuper = getClassificationOutcomes(BasicTools.Double2double(probDist_Superclass.get(seq)));
-						bw.write("<table>\n");
-						bw.write("  <tr><th></th><th> Probability </th></tr>\n");
-						bw.write("  <tr><th> Basic domain </th><td class=\"" + outcomesSuper[Basic_domain] + "\"> " + df.format(probDist_Superclass.get(seq)[Basic_domain]) + " </td></tr>\n");
-						bw.write("  <tr><th> Zinc finger </th><td class=\"" + outcomesSuper[Zinc_finger] + "\"> " + df.format(probDist_Superclass.get(seq)[Zinc_finger]) + " </td></tr>\n");
-						bw.write("  <tr><th> Helix-turn-helix </th><td class=\"" + outcomesSuper[Helix_turn_helix] + "\"> " + df.format(probDist_Superclass.get(seq)[Helix_turn_helix]) + " </td></tr>\n");
-						bw.write("  <tr><th> Beta scaffold </th><td class=\"" + outcomesSuper[Beta_scaffold] + "\"> " + df.format(probDist_Superclass.get(seq)[Beta_scaffold]) + " </td></tr>\n");
-						bw.write("  <tr><th> Other </th><td class=\"" + outcomesSuper[Other] + "\"> " + df.format(probDist_Superclass.get(seq)[Other]) + " </td></tr>\n");
-						bw.write("</table>\n\n");
-						bw.write("<br>\n\n");    	
-						
-						bw.write("<h2>Annotated structural class:</h2>\n");
-			    		if (annotatedClassAvailable.get(seq)) {	
-							bw.write("<h3>" + getAnnotatedSuperclass(annotatedClass.get(seq)) + " (<a href=\"" + transfacClassURL + "\" target=\"_blank\">" + annotatedClass.get(seq) + "</a>) </h3>\n");
-							bw.write("The annotated structual class was obtained from the <a href=\"" + transfacPublicURL + "\" target=\"_blank\">TRANSFAC Public</a> database.\n");
-							bw.write("<br><br><br>\n\n");
-						} else {
-				    		bw.write("<h3>Not available</h3>\n");
-				    		bw.write("The annotated structural class could not be obtained from the <a href=\"" + transfacPublicURL + "\" target=\"_blank\">TRANSFAC Public</a> database.");
-				    		bw.write("<br><br><br>\n\n");
-				    	}
-					    
-			    		// include result image from InterProScan into HTML report
-					    if (!seq2job.isEmpty() && seq2job.containsKey(seq)) {
-					    	String job = seq2job.get(seq);
-							bw.write("<table>\n");
-							bw.write("  <tr><th> <img src=\"" + job + ".svg.svg\"/>" + "</th></tr>\n");	
-							bw.write("  <tr><th> Illustration generated by <a href=https://www.ebi.ac.uk/Tools/services/web/toolresult.ebi?jobId="+job+"&tool=iprscan&analysis=visual target=\"_blank\"> InterProScan </a> </th></tr>\n");
-							bw.write("</table>\n\n");
-							bw.write("<br>\n\n");
-					    }
-			    		bw.write("<h2>DNA-binding domain(s):</h2>\n");
-					    if (domainsPredicted.get(seq)) {
-							bw.write("<table>\n");
-							bw.write("  <tr><th> Domain ID </th><th> Start </th><th> End </th></tr>\n");	
-					    	
-							for (String domain : bindingDomains.get(seq)) {
-								String[] splitted_domain = domain.replace("    ", "\t").split("\t");
-								String currLink =  "<a href=\"" + interproPrefix + splitted_domain[0] + "\" target=\"_blank\"> " + splitted_domain[0] + " </a>";
-								bw.write("  <tr><td> "+ currLink + " </td><td> "+ splitted_domain[1] +" </td><td> " + splitted_domain[2] +" </td></tr>\n"); 
-							}
-							bw.write("</table>\n\n");
-							bw.write("<br>\n\n");
-							
-					    } else {
-				    		bw.write("<h2>No DNA-binding domain found.</h2>\n");
-				    	}
-					    
-				    // if sequence was classified as Non-TF --> display message 
-					} else {
-						bw.write("<h3>No prediction possible.</h3>");
-				    	bw.write("The given sequence was classified as a Non-TF. As all further classification steps (e.g., superclass and DNA-binding domain prediction) require a TF sequence, these steps were not performed.");
-					}
-			    } else {
-			    	bw.write("<h3>No prediction possible.</h3>");
-			    	bw.write("BLAST did not find any significant hits in the protein sequence database. Consequently, TFpredict could not perform the prediction task.");
-			    }
-			}
+			writeHTMLresults(bw, 0);
 			
 			// close HTML file
 			bw.write("</body>\n");
@@ -928,133 +1886,230 @@ public class Predict {
 		}
 	}
 	
-	private void writeConsoleOutput() {
+	// writes the HTML report of the current sequences (offset: number of sequences already written to the report)
+	private void writeHTMLresults(BufferedWriter bw, int offset) throws IOException {
+		
+		for (int i=0; i<records.size(); i++) {
+			String seq = records.getID(i);
+			
+			if (i + offset > 0) {
+				bw.write("<br><hr>\n\n");
+			}
+			
+			if (batchMode) {
+				bw.write("<h1><span style=\"color:#000000\">Results report: </span>" + seq + "</h1>\n");
+			}
+			bw.write("<h2>TF/Non-TF prediction:</h2>\n");
+			if (records.isPredictionPossible(i)) {
+				
+				String[] outcomesTF = getClassificationOutcomes(records.getProbDistTFclass(i));
+				bw.write("<table>\n");
+				bw.write("  <tr><th></th><th>Probability<th></tr>\n");
+				bw.write("  <tr><th> TF </th><td class=\"" + outcomesTF[TF] + "\"> " + df.format(records.getProbTFclass(i, TF)) + " </td></tr>\n");
+				bw.write("  <tr><th> Non-TF </th><td class=\"" + outcomesTF[Non_TF] + "\"> " + df.format(records.getProbTFclass(i, Non_TF)) + " </td></tr>\n");
+				bw.write("</table>\n\n");
+				bw.write("<br>\n\n");
+				    
+				bw.write("<h2>Superclass prediction:</h2>\n");
+				if (records.isTF(i)) {
+					String[] outcomesSuper = getClassificationOutcomes(records.getProbDistSuperclass(i));
+					bw.write("<table>\n");
+					bw.write("  <tr><th></th><th> Probability </th></tr>\n");
+					bw.write("  <tr><th> Basic domain </th><td class=\"" + outcomesSuper[Basic_domain] + "\"> " + df.format(records.getProbSuperclass(i, Basic_domain)) + " </td></tr>\n");
+					bw.write("  <tr><th> Zinc finger </th><td class=\"" + outcomesSuper[Zinc_finger] + "\"> " + df.format(records.getProbSuperclass(i, Zinc_finger)) + " </td></tr>\n");
+					bw.write("  <tr><th> Helix-turn-helix </th><td class=\"" + outcomesSuper[Helix_turn_helix] + "\"> " + df.format(records.getProbSuperclass(i, Helix_turn_helix)) + " </td></tr>\n");
+					bw.write("  <tr><th> Beta scaffold </th><td class=\"" + outcomesSuper[Beta_scaffold] + "\"> " + df.format(records.getProbSuperclass(i, Beta_scaffold)) + " </td></tr>\n");
+					bw.write("  <tr><th> Other </th><td class=\"" + outcomesSuper[Other] + "\"> " + df.format(records.getProbSuperclass(i, Other)) + " </td></tr>\n");
+					bw.write("</table>\n\n");
+					bw.write("<br>\n\n");    	
+					
+					bw.write("<h2>Annotated structural class:</h2>\n");
+		    		if (records.isAnnotatedClassAvailable(i)) {	
+						bw.write("<h3>" + getAnnotatedSuperclass(records.getAnnotatedClass(i)) + " (<a href=\"" + transfacClassURL + "\" target=\"_blank\">" + records.getAnnotatedClass(i) + "</a>) </h3>\n");
+						bw.write("The annotated structual class was obtained from the <a href=\"" + transfacPublicURL + "\" target=\"_blank\">TRANSFAC Public</a> database.\n");
+						bw.write("<br><br><br>\n\n");
+					} else {
+			    		bw.write("<h3>Not available</h3>\n");
+			    		bw.write("The annotated structural class could not be obtained from the <a href=\"" + transfacPublicURL + "\" target=\"_blank\">TRANSFAC Public</a> database.");
+			    		bw.write("<br><br><br>\n\n");
+			    	}
+				    
+		    		// include result image from InterProScan into HTML report
+				    if (!seq2job.isEmpty() && seq2job.containsKey(seq)) {
+				    	String job = seq2job.get(seq);
+						bw.write("<table>\n");
+						bw.write("  <tr><th> <img src=\"" + job + ".svg.svg\"/>" + "</th></tr>\n");	
+						bw.write("  <tr><th> Illustration generated by <a href=https://www.ebi.ac.uk/Tools/services/web/toolresult.ebi?jobId="+job+"&tool=iprscan&analysis=visual target=\"_blank\"> InterProScan </a> </th></tr>\n");
+						bw.write("</table>\n\n");
+						bw.write("<br>\n\n");
+				    }
+		    		bw.write("<h2>DNA-binding domain(s):</h2>\n");
+				    if (records.isDomainsPredicted(i)) {
+						bw.write("<table>\n");
+						bw.write("  <tr><th> Domain ID </th><th> Start </th><th> End </th></tr>\n");	
+				    	
+						for (String domain : records.getBindingDomains(i)) {
+							String[] splitted_domain = domain.replace("    ", "\t").split("\t");
+							String currLink =  "<a href=\"" + interproPrefix + splitted_domain[0] + "\" target=\"_blank\"> " + splitted_domain[0] + " </a>";
+							bw.write("  <tr><td> "+ currLink + " </td><td> "+ splitted_domain[1] +" </td><td> " + splitted_domain[2] +" </td></tr>\n"); 
+						}
+						bw.write("</table>\n\n");
+						bw.write("<br>\n\n");
+						
+				    } else {
+			    		bw.write("<h2>No DNA-binding domain found.</h2>\n");
+			    	}
+				    
+			    // if sequence was classified as Non-TF --> display message 
+				} else {
+					bw.write("<h3>No prediction possible.</h3>");
+			    	bw.write("The given sequence was classified as a Non-TF. As all further classification steps (e.g., superclass and DNA-binding domain prediction) require a TF sequence, these steps were not performed.");
+				}
+		    } else {
+		    	bw.write("<h3>No prediction possible.</h3>");
+		    	bw.write("BLAST did not find any significant hits in the protein sequence database. Consequently, TFpredict could not perform the prediction task.");
+		    }
+		}
+	}
+	
+	void writeConsoleOutput() {
+		writeConsoleOutput(0);
+	}
+	
+	// writes the console report of the current sequences (offset: number of sequences already written to the report)
+	private void writeConsoleOutput(int offset) {
 		
 		String hline = "  -----------------------";
 		
-		for (int i=0; i<sequence_ids.length; i++) {
-			String seq = sequence_ids[i];
+		for (int i=0; i<records.size(); i++) {
+			String seq = records.getID(i);
 			
-			if (i > 0) {
-				System.out.println("__________________________________________");
+			if (i + offset > 0) {
+				out.println("__________________________________________");
 			}
 			
-			System.out.println("\n==========================================");
-			System.out.println("Results report for sequence: " + seq);
-			System.out.println("==========================================\n");
+			out.println("\n==========================================");
+			out.println("Results report for sequence: " + seq);
+			out.println("==========================================\n");
 			
-			if (predictionPossible.get(seq)) {
-				System.out.println("  TF/Non-TF prediction:");
-				System.out.println(hline);
-				System.out.println("                Probability");
-				System.out.println("  TF            " + df.format(probDist_TFclass.get(seq)[TF]));
-				System.out.println("  Non-TF        " + df.format(probDist_TFclass.get(seq)[Non_TF]) + "\n");
+			if (records.isPredictionPossible(i)) {
+				out.println("  TF/Non-TF prediction:");
+				out.println(hline);
+				out.println("                Probability");
+				out.println("  TF            " + df.format(records.getProbTFclass(i, TF)));
+				out.println("  Non-TF        " + df.format(records.getProbTFclass(i, Non_TF)) + "\n");
 
-				if (seqIsTF.get(seq)) {
-					System.out.println("  Superclass prediction:");
-					System.out.println(hline);
-					System.out.println("                      Probability");
-					System.out.println("  Basic domain        " + df.format(probDist_Superclass.get(seq)[Basic_domain]));
-					System.out.println("  Zinc finger         " + df.format(probDist_Superclass.get(seq)[Zinc_finger]));
-					System.out.println("  Helix-turn-helix    " + df.format(probDist_Superclass.get(seq)[Helix_turn_helix]));
-					System.out.println("  Beta scaffold       " + df.format(probDist_Superclass.get(seq)[Beta_scaffold]));
-					System.out.println("  Other               " + df.format(probDist_Superclass.get(seq)[Other]) + "\n");
+				if (records.isTF(i)) {
+					out.println("  Superclass prediction:");
+					out.println(hline);
+					out.println("                      Probability");
+					out.println("  Basic domain        " + df.format(records.getProbSuperclass(i, Basic_domain)));
+					out.println("  Zinc finger         " + df.format(records.getProbSuperclass(i, Zinc_finger)));
+					out.println("  Helix-turn-helix    " + df.format(records.getProbSuperclass(i, Helix_turn_helix)));
+					out.println("  Beta scaffold       " + df.format(records.getProbSuperclass(i, Beta_scaffold)));
+					out.println("  Other               " + df.format(records.getProbSuperclass(i, Other)) + "\n");
 					
-					if (annotatedClassAvailable.get(seq)) {	
-						System.out.println("  Annotated structural class:");
-						System.out.println(hline);
-						System.out.println("  " + getAnnotatedSuperclass(annotatedClass.get(seq)) + " (" + annotatedClass.get(seq) + ") \n");
+					if (records.isAnnotatedClassAvailable(i)) {	
+						out.println("  Annotated structural class:");
+						out.println(hline);
+						out.println("  " + getAnnotatedSuperclass(records.getAnnotatedClass(i)) + " (" + records.getAnnotatedClass(i) + ") \n");
 					}
 					
-					if (domainsPredicted.get(seq)) {
-						System.out.println("  DNA-binding domain(s):");
-						System.out.println(hline);
-						System.out.println("  Domain ID \t Start \t End");
-						for (String domain : bindingDomains.get(seq)) {
+					if (records.isDomainsPredicted(i)) {
+						out.println("  DNA-binding domain(s):");
+						out.println(hline);
+						out.println("  Domain ID \t Start \t End");
+						for (String domain : records.getBindingDomains(i)) {
 							String[] splitted_domain = domain.replace("    ", "\t").split("\t");
-							System.out.println("  " + splitted_domain[0] + " \t " + splitted_domain[1] + " \t " + splitted_domain[2]); 
+							out.println("  " + splitted_domain[0] + " \t " + splitted_domain[1] + " \t " + splitted_domain[2]); 
 						}
 					
 					} else {
-						System.out.println("  DNA-binding domain could not be predicted.\n");
+						out.println("  DNA-binding domain could not be predicted.\n");
 					}
 				}
 				
 			} else {
-				System.out.println("  No prediction possible.\n");
+				out.println("  No prediction possible.\n");
 			}
 		}
 	}
 	
-	private void writeSABINEoutput() {
+	void writeSABINEoutput() {
 			
 		try {
 			BufferedWriter bw = new BufferedWriter(new FileWriter(new File(sabine_outfile)));
 			
-			for (int i=0; i<sequence_ids.length; i++) {
-				String seq = sequence_ids[i];
+			writeSABINEresults(bw, 0);
+			bw.flush();
+			bw.close();
+			
+		} catch(IOException ioe) {
+			System.out.println(ioe.getMessage());
+			System.out.println("IOException occurred while writing input file for SABINE.");
+		}
+	}
+	
+	// writes the SABINE input file entries of the current sequences (offset: number of sequences already written to the file)
+	private void writeSABINEresults(BufferedWriter bw, int offset) throws IOException {
+		
+		for (int i=0; i<records.size(); i++) {
+			String seq = records.getID(i);
+			
+			if (i + offset > 0) {
+				bw.write("//\nXX\n");
+			}
+			
+			if (batchMode) {
+				bw.write("NA  " + seq + "\n");
+			} else {
+				bw.write("NA  " + tfName + "\n");
+			}
+			bw.write("XX  \n");
+			bw.write("SP  " + species + "\n");
+			bw.write("XX  \n");
+			if (uniprot_id != null) {
+				bw.write("RF  " + uniprot_id + "\n");
+				bw.write("XX  \n");
+			}
+			
+			if (records.isPredictionPossible(i) && records.isTF(i)) {
 				
-				if (i > 0) {
-					bw.write("//\nXX\n");
+				if (records.isAnnotatedClassAvailable(i)) {
+					bw.write("CL  " + expandTransfacClass(records.getAnnotatedClass(i)) + "\n");
+				} else {
+					bw.write("CL  " + records.getPredictedSuperclass(i) + ".0.0.0.0" + "\n");
 				}
-				
+				bw.write("XX  \n");
+	
+				// write sequence
+				String[] wrapped_seq;
 				if (batchMode) {
-					bw.write("NA  " + seq + "\n");
+					wrapped_seq = BasicTools.wrapString(records.getSequence(i));
 				} else {
-					bw.write("NA  " + tfName + "\n");
+					wrapped_seq = BasicTools.wrapString(sequence);
+				}
+				for (String line: wrapped_seq) {
+					bw.write("S1  " + line + "\n"); 
 				}
 				bw.write("XX  \n");
-				bw.write("SP  " + species + "\n");
-				bw.write("XX  \n");
-				if (uniprot_id != null) {
-					bw.write("RF  " + uniprot_id + "\n");
-					bw.write("XX  \n");
+						
+				// write domains
+				if (records.isDomainsPredicted(i)) {
+					for (String domain : records.getBindingDomains(i)) {
+						bw.write("FT  " + domain + "\n");
+					}
+					bw.write("XX\n");
 				}
 				
-				if (predictionPossible.get(seq) && seqIsTF.get(seq)) {
-					
-					if (annotatedClassAvailable.get(seq)) {
-						bw.write("CL  " + expandTransfacClass(annotatedClass.get(seq)) + "\n");
-					} else {
-						bw.write("CL  " + predictedSuperclass.get(seq) + ".0.0.0.0" + "\n");
-					}
-					bw.write("XX  \n");
-		
-					// write sequence
-					String[] wrapped_seq;
-					if (batchMode) {
-						wrapped_seq = BasicTools.wrapString(sequences.get(seq));
-					} else {
-						wrapped_seq = BasicTools.wrapString(sequence);
-					}
-					for (String line: wrapped_seq) {
-						bw.write("S1  " + line + "\n"); 
-					}
-					bw.write("XX  \n");
-							
-					// write domains
-					if (domainsPredicted.get(seq)) {
-						for (String domain : bindingDomains.get(seq)) {
-							bw.write("FT  " + domain + "\n");
-						}
-						bw.write("XX\n");
-					}
-					
-				// Protein was either not classified (no IPR domains found) or classified as Non-TF
+			// Protein was either not classified (no IPR domains found) or classified as Non-TF
+			} else {
+				if (records.isPredictionPossible(i)) {
+					bw.write("CL  Non-TF\nXX\n");
 				} else {
-					if (predictionPossible.get(seq)) {
-						bw.write("CL  Non-TF\nXX\n");
-					} else {
-						bw.write("CL  Unknown\nXX\n");
-					}
+					bw.write("CL  Unknown\nXX\n");
 				}
 			}
-			bw.flush();
-			bw.close();
-			
-		} catch(IOException ioe) {
-			System.out.println(ioe.getMessage());
-			System.out.println("IOException occurred while writing input file for SABINE.");
 		}
 	}
 	
@@ -1124,7 +2179,7 @@ public class Predict {
 	/*
 	 * function used to create the bit score percentile feature vectors for TF/non-TF and superclass prediction
 	 */
-	private static Map<String, Instance> createPercentileFeatureVectors(Map<String, Map<String, Double>> seq2blastHits, Map<String, Integer> seq2label, boolean superPred) {
+	private Map<String, double[]> createPercentileFeatureVectors(Map<String, Map<String, Double>> seq2blastHits, Map<String, Integer> seq2label, boolean superPred) {
 		Map<String, double[]> seq2feat;
 		if(!prokaryote){
 			PercentileFeatureGenerator percFeatGen = new PercentileFeatureGenerator(seq2blastHits, seq2label, superPred);
@@ -1136,14 +2191,83 @@ public class Predict {
 			percFeatGen.computeFeaturesFromBlastResult(seq2blastHits);
 			seq2feat = percFeatGen.getFeatures();
 		}
-
+		return seq2feat;
+	}
+	
+	/**
+	 * Creates an instance with the given feature values (and class value 0)
+	 * which refers to the shared header of all feature vectors of this length.
+	 * 
+	 * @param features
+	 * @return
+	 */
+	static Instance createInstance(double[] features) {
+		
+		double[] values = Arrays.copyOf(features, features.length + 1);
+		Instance inst = new SparseInstance(1.0, values);
+		inst.setDataset(ReferenceData.getFeatureHeader(features.length));
+		
+		return inst;
+	}
+	
+	/**
+	 * Computes the class probabilities of all given instances in one pass.
+	 * 
+	 * @param classifier
+	 * @param insts
+	 * @return class probabilities (one row per instance)
+	 * @throws Exception
+	 */
+	static double[][] distributionForInstances(Classifier classifier, Instances insts) throws Exception {
 		
-		Map<String, Instance> seq2fvector = new HashMap<String, Instance>();
-		for  (String seqID: seq2feat.keySet()) {
-			String currFeatVec = BasicTools.doubleArrayToLibSVM(seq2feat.get(seqID));
-			seq2fvector.put(seqID, getInst("0 " + currFeatVec));
+		double[][] probDists = new double[insts.numInstances()][];
+		// WEKA classifiers are shared by concurrent predictions, but their filters are not thread-safe
+		synchronized (classifier) {
+			for (int i=0; i<insts.numInstances(); i++) {
+				probDists[i] = classifier.distributionForInstance(insts.instance(i));
+			}
+		}
+		return probDists;
+	}
+	
+	/*
+	 * scores the given feature vectors in one batch (one row of class probabilities per feature vector)
+	 * with the weights of the linear model if available and with the WEKA classifier otherwise
+	 */
+	static double[][] classifyBatch(LinearScorer scorer, Classifier classifier, String modelFile, List<double[]> featureVectors) throws Exception {
+		
+		double[][] probDists = new double[featureVectors.size()][];
+		if (featureVectors.isEmpty()) {
+			return probDists;
+		}
+		if (scorer != null) {
+			for (int i=0; i<featureVectors.size(); i++) {
+				double[] probDist = new double[scorer.getNumValues()];
+				if (scorer.distributionForInstance(featureVectors.get(i), probDist)) {
+					probDists[i] = probDist;
+				}
+			}
+		}
+		
+		// feature vectors with missing values are scored by the WEKA classifier
+		List<Integer> remaining = new ArrayList<Integer>();
+		for (int i=0; i<probDists.length; i++) {
+			if (probDists[i] == null) remaining.add(i);
+		}
+		if (!remaining.isEmpty()) {
+			if (classifier == null) {
+				classifier = ReferenceData.getClassifier(modelFile);
+			}
+			Instances batch = new Instances(ReferenceData.getFeatureHeader(featureVectors.get(0).length), remaining.size());
+			for (int i: remaining) {
+				batch.add(createInstance(featureVectors.get(i)));
+			}
+			double[][] remainingProbDists = distributionForInstances(classifier, batch);
+			for (int i=0; i<remaining.size(); i++) {
+				probDists[remaining.get(i)] = remainingProbDists[i];
+			}
 		}
-		return seq2fvector;
+		return probDists;
 	}
 
 	/**
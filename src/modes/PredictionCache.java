@@ -0,0 +1,258 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import io.BlastDBcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of prediction results. Results are stored per sequence in a
+ * directory named by the version of the classifiers and BLAST databases, so
+ * that the cache is invalidated automatically whenever a model file or a
+ * database changes. Recently used entries are additionally kept in memory.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class PredictionCache {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(PredictionCache.class.getName());
+
+	/**
+	 * Maximum number of entries kept in memory.
+	 */
+	public static final int defaultMaxEntriesInMemory = 10000;
+
+	private String versionDir;
+	private Map<String, Entry> recentEntries;
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Prediction result of a single sequence.
+	 */
+	public static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		Double[] probDist_TFclass;
+		Double[] probDist_Superclass;
+		Integer predictedSuperclass;
+		String annotatedClass;
+		String[] bindingDomains;
+		boolean predictionPossible;
+		boolean predictionTrivial;
+		boolean seqIsTF;
+		boolean annotatedClassAvailable;
+		boolean domainsPredicted;
+	}
+
+	/**
+	 *
+	 * @param cacheDir directory in which the results are stored
+	 * @param versionResources resources (e.g., model files and BLAST FASTA files) which determine the prediction results
+	 * @param options further settings which affect the prediction results
+	 * @throws IOException
+	 */
+	public PredictionCache(String cacheDir, String[] versionResources, String options) throws IOException {
+		this(cacheDir, versionResources, options, defaultMaxEntriesInMemory);
+	}
+
+	/**
+	 *
+	 * @param cacheDir directory in which the results are stored
+	 * @param versionResources resources (e.g., model files and BLAST FASTA files) which determine the prediction results
+	 * @param options further settings which affect the prediction results
+	 * @param maxEntriesInMemory
+	 * @throws IOException
+	 */
+	public PredictionCache(String cacheDir, String[] versionResources, String options, final int maxEntriesInMemory) throws IOException {
+
+		if (!cacheDir.endsWith("/")) cacheDir += "/";
+		versionDir = cacheDir + getVersion(versionResources, options) + "/";
+		if (!new File(versionDir).exists() && !new File(versionDir).mkdirs() && !new File(versionDir).exists()) {
+			throw new IOException("Could not create directory for prediction cache: " + versionDir);
+		}
+
+		recentEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PredictionCache.Entry> eldest) {
+				return size() > maxEntriesInMemory;
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param versionResources
+	 * @param options
+	 * @return checksum identifying the given resources and settings
+	 * @throws IOException
+	 */
+	static String getVersion(String[] versionResources, String options) throws IOException {
+
+		StringBuilder version = new StringBuilder(options);
+		for (String resource: versionResources) {
+			version.append('\t');
+			version.append(BlastDBcache.getResourceChecksum(resource));
+		}
+		return getDigest(version.toString());
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return cached result for the given sequence or null if the sequence was not yet predicted
+	 */
+	public Entry get(String sequence) {
+
+		String key = getDigest(sequence);
+		Entry entry;
+		synchronized (recentEntries) {
+			entry = recentEntries.get(key);
+		}
+		if (entry == null) {
+			entry = readEntry(key);
+			if (entry != null) {
+				synchronized (recentEntries) {
+					recentEntries.put(key, entry);
+				}
+			}
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @param entry
+	 */
+	public void put(String sequence, Entry entry) {
+
+		String key = getDigest(sequence);
+		synchronized (recentEntries) {
+			recentEntries.put(key, entry);
+		}
+		writeEntry(key, entry);
+	}
+
+	/**
+	 *
+	 * @return number of sequences found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 *
+	 * @return number of sequences not found in the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private File getEntryFile(String key) {
+		return new File(versionDir + key.substring(0, 2) + "/" + key);
+	}
+
+	private Entry readEntry(String key) {
+
+		File entryFile = getEntryFile(key);
+		if (!entryFile.exists()) {
+			return null;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(entryFile));
+			try {
+				return (Entry) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException | ClassNotFoundException exc) {
+			logger.warning("Could not read cached prediction " + entryFile + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	// entries are written to a temporary file first, so that concurrent readers never see incomplete entries
+	private void writeEntry(String key, Entry entry) {
+
+		File entryFile = getEntryFile(key);
+		entryFile.getParentFile().mkdirs();
+		try {
+			File tmpFile = File.createTempFile(entryFile.getName() + ".", ".tmp", entryFile.getParentFile());
+			try {
+				ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmpFile));
+				try {
+					out.writeObject(entry);
+				} finally {
+					out.close();
+				}
+				tmpFile.renameTo(entryFile);
+			} finally {
+				// no-op if the file was renamed
+				tmpFile.delete();
+			}
+		} catch (IOException exc) {
+			logger.warning("Could not write cached prediction " + entryFile + ": " + exc.getMessage());
+		}
+	}
+
+	/**
+	 *
+	 * @param text
+	 * @return hexadecimal checksum of the given text
+	 */
+	static String getDigest(String text) {
+		try {
+			return BlastDBcache.getChecksum(new ByteArrayInputStream(text.getBytes("UTF-8")));
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+}
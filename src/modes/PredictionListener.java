@@ -0,0 +1,61 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+/**
+ * Receives the results of a {@link StreamingPrediction}. The methods are
+ * never called concurrently, so implementations do not have to be
+ * thread-safe. As long as {@link #onResult(PredictionResult)} has not
+ * returned, no further sequences are read from the input, i.e., a slow
+ * listener throttles the prediction.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public interface PredictionListener {
+
+	/**
+	 * Called once for each input sequence as soon as its prediction is
+	 * available. Results of different chunks may be delivered in a different
+	 * order than the sequences were read.
+	 *
+	 * @param result
+	 */
+	public void onResult(PredictionResult result);
+
+	/**
+	 * Called at most once if the input could not be read or a chunk could not
+	 * be predicted. No further sequences are read afterwards, but the results
+	 * of chunks which are already running are still delivered.
+	 *
+	 * @param exc
+	 */
+	public void onError(Throwable exc);
+
+	/**
+	 * Called after the results of all sequences were delivered, unless
+	 * {@link #onError(Throwable)} was called.
+	 */
+	public void onComplete();
+}
@@ -0,0 +1,228 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes one machine-readable line per sequence as soon as the prediction of
+ * the sequence is available. Each line contains the TF probability, the
+ * probabilities of the superclasses, the annotated TRANSFAC class and the
+ * intervals of the DNA-binding domains. Lines are collected in a buffer of
+ * fixed size ({@link #bufferSize}) and the output is flushed after every
+ * {@code flushInterval} lines, so that other programs can read the results
+ * while the remaining sequences are processed.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class PredictionRecordWriter implements Closeable {
+
+	/**
+	 * Output formats.
+	 */
+	enum Format {
+		/**
+		 * One JSON object per line.
+		 */
+		JSON_LINES,
+		/**
+		 * Tab-separated values with a header line.
+		 */
+		TSV;
+	}
+
+	/**
+	 * Number of characters buffered before the output is written.
+	 */
+	static final int bufferSize = 1 << 16;
+
+	private static final String[] tsvColumns = new String[] {"id", "prediction_possible", "tf", "prob_tf", "prob_basic_domain", "prob_zinc_finger", "prob_helix_turn_helix", "prob_beta_scaffold", "prob_other", "superclass", "annotated_class", "binding_domains"};
+	private static final int[] superclasses = new int[] {Predict.Basic_domain, Predict.Zinc_finger, Predict.Helix_turn_helix, Predict.Beta_scaffold, Predict.Other};
+
+	private Format format;
+	private BufferedWriter bw;
+	private int flushInterval;
+	private int numUnflushed = 0;
+
+	/**
+	 *
+	 * @param outfile
+	 * @param format
+	 * @param flushInterval number of lines after which the output is flushed
+	 *        (0: the output is only written if the buffer is full)
+	 * @throws IOException
+	 */
+	PredictionRecordWriter(String outfile, Format format, int flushInterval) throws IOException {
+
+		this.format = format;
+		this.flushInterval = flushInterval;
+		bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outfile), "UTF-8"), bufferSize);
+		if (format == Format.TSV) {
+			for (int i=0; i<tsvColumns.length; i++) {
+				if (i > 0) bw.write('\t');
+				bw.write(tsvColumns[i]);
+			}
+			bw.write('\n');
+			bw.flush();
+		}
+	}
+
+	/**
+	 * Writes the prediction of the given record.
+	 *
+	 * @param records
+	 * @param index
+	 * @throws IOException
+	 */
+	void write(PredictionRecords records, int index) throws IOException {
+
+		if (format == Format.JSON_LINES) {
+			bw.write(toJSON(records, index));
+		} else {
+			bw.write(toTSV(records, index));
+		}
+		bw.write('\n');
+
+		numUnflushed++;
+		if (flushInterval > 0 && numUnflushed >= flushInterval) {
+			flush();
+		}
+	}
+
+	void flush() throws IOException {
+		bw.flush();
+		numUnflushed = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		bw.close();
+	}
+
+	static String toJSON(PredictionRecords records, int index) {
+
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"id\": ").append(Server.toJSONstring(records.getID(index)));
+		json.append(", \"predictionPossible\": ").append(records.isPredictionPossible(index));
+		if (records.isPredictionPossible(index)) {
+			json.append(", \"tf\": ").append(records.isTF(index));
+			json.append(", \"probTF\": ").append(records.getProbTFclass(index, Predict.TF));
+			if (records.isTF(index)) {
+				json.append(", \"probSuperclass\": {");
+				for (int i=0; i<superclasses.length; i++) {
+					if (i > 0) json.append(", ");
+					json.append(Server.toJSONstring(Predict.superclassNames[superclasses[i]])).append(": ").append(records.getProbSuperclass(index, superclasses[i]));
+				}
+				json.append('}');
+				json.append(", \"superclass\": ").append(Server.toJSONstring(getSuperclassName(records, index)));
+				json.append(", \"annotatedClass\": ").append(Server.toJSONstring(getAnnotatedClass(records, index)));
+				json.append(", \"bindingDomains\": [");
+				String[][] domains = getBindingDomains(records, index);
+				for (int i=0; i<domains.length; i++) {
+					if (i > 0) json.append(", ");
+					json.append("{\"id\": ").append(Server.toJSONstring(domains[i][0]));
+					json.append(", \"start\": ").append(toJSONnumber(domains[i][1]));
+					json.append(", \"end\": ").append(toJSONnumber(domains[i][2])).append('}');
+				}
+				json.append(']');
+			}
+		}
+		json.append('}');
+		return json.toString();
+	}
+
+	private static String toTSV(PredictionRecords records, int index) {
+
+		StringBuilder tsv = new StringBuilder(128);
+		tsv.append(records.getID(index).replace('\t', ' ').replace('\n', ' '));
+		tsv.append('\t').append(records.isPredictionPossible(index));
+		if (records.isPredictionPossible(index)) {
+			tsv.append('\t').append(records.isTF(index));
+			tsv.append('\t').append(records.getProbTFclass(index, Predict.TF));
+		} else {
+			tsv.append("\t\t");
+		}
+		boolean superclassPredicted = records.isPredictionPossible(index) && records.isTF(index);
+		for (int superclass: superclasses) {
+			tsv.append('\t');
+			if (superclassPredicted) tsv.append(records.getProbSuperclass(index, superclass));
+		}
+		tsv.append('\t');
+		if (superclassPredicted && getSuperclassName(records, index) != null) {
+			tsv.append(getSuperclassName(records, index));
+		}
+		tsv.append('\t');
+		if (superclassPredicted && getAnnotatedClass(records, index) != null) {
+			tsv.append(getAnnotatedClass(records, index));
+		}
+		tsv.append('\t');
+		if (superclassPredicted) {
+			String[][] domains = getBindingDomains(records, index);
+			for (int i=0; i<domains.length; i++) {
+				if (i > 0) tsv.append(';');
+				tsv.append(domains[i][0]).append(':').append(domains[i][1]).append('-').append(domains[i][2]);
+			}
+		}
+		return tsv.toString();
+	}
+
+	static String getSuperclassName(PredictionRecords records, int index) {
+		int superclass = records.getPredictedSuperclass(index);
+		return (superclass >= 0) ? Predict.superclassNames[superclass] : null;
+	}
+
+	static String getAnnotatedClass(PredictionRecords records, int index) {
+		return records.isAnnotatedClassAvailable(index) ? records.getAnnotatedClass(index) : null;
+	}
+
+	// splits the binding domains into InterPro ID, start and end position
+	static String[][] getBindingDomains(PredictionRecords records, int index) {
+
+		if (!records.isDomainsPredicted(index)) {
+			return new String[0][];
+		}
+		String[] domains = records.getBindingDomains(index);
+		String[][] splittedDomains = new String[domains.length][];
+		for (int i=0; i<domains.length; i++) {
+			splittedDomains[i] = domains[i].replace("    ", "\t").split("\t");
+		}
+		return splittedDomains;
+	}
+
+	private static String toJSONnumber(String value) {
+		try {
+			return String.valueOf(Integer.parseInt(value.trim()));
+		} catch (NumberFormatException exc) {
+			return Server.toJSONstring(value);
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import io.BasicTools;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Input sequences and prediction results of the sequences which are processed
+ * by {@link Predict}. Each record is addressed by the position of its sequence
+ * in the input, so that the reports are written by iterating over the records
+ * in this order. The class probabilities, the predicted superclass and the
+ * result flags are stored in primitive arrays, and the identifiers are
+ * resolved by a single dictionary.
+ * <p>
+ * Records are written concurrently by the PSI-BLAST jobs, but each job only
+ * sets the hits of its own record.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class PredictionRecords {
+
+	/**
+	 * Number of classes of the TF/Non-TF prediction.
+	 */
+	static final int numTFclasses = 2;
+
+	/**
+	 * Number of classes of the superclass prediction.
+	 */
+	static final int numSuperclasses = 5;
+
+	// bits of the result flags
+	private static final byte possibleFlag = 1;
+	private static final byte trivialFlag = 2;
+	private static final byte tfFlag = 4;
+	private static final byte annotatedClassFlag = 8;
+	private static final byte domainsFlag = 16;
+	private static final byte probDistTFflag = 32;
+	private static final byte probDistSuperFlag = 64;
+
+	private String[] ids;
+	private String[] sequences;
+	private Map<String, Integer> id2index;
+
+	private double[] probDistTF;
+	private double[] probDistSuper;
+	private byte[] predictedSuperclass;
+	private byte[] flags;
+	private String[] annotatedClass;
+	private String[][] bindingDomains;
+	private Map<String, Double>[] blastHitsTF;
+	private Map<String, Double>[] blastHitsSuper;
+
+	/**
+	 *
+	 * @param sequences map from sequence identifiers to sequences in input
+	 *        order
+	 */
+	PredictionRecords(Map<String, String> sequences) {
+		this(sequences.keySet().toArray(new String[] {}), sequences.values().toArray(new String[] {}));
+	}
+
+	/**
+	 *
+	 * @param ids sequence identifiers
+	 * @param sequences sequences with the same order as {@code ids}
+	 */
+	@SuppressWarnings("unchecked")
+	PredictionRecords(String[] ids, String[] sequences) {
+
+		int numRecords = ids.length;
+		this.ids = ids;
+		this.sequences = sequences;
+		id2index = new HashMap<String, Integer>(2 * numRecords);
+		for (int i=0; i<numRecords; i++) {
+			id2index.put(ids[i], i);
+		}
+		probDistTF = new double[numTFclasses * numRecords];
+		probDistSuper = new double[numSuperclasses * numRecords];
+		predictedSuperclass = new byte[numRecords];
+		Arrays.fill(predictedSuperclass, (byte) -1);
+		flags = new byte[numRecords];
+		annotatedClass = new String[numRecords];
+		bindingDomains = new String[numRecords][];
+		blastHitsTF = (Map<String, Double>[]) new Map<?, ?>[numRecords];
+		blastHitsSuper = (Map<String, Double>[]) new Map<?, ?>[numRecords];
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return index of the record of the given sequence or -1 if the sequence
+	 *         is unknown
+	 */
+	int indexOf(String id) {
+		Integer index = id2index.get(id);
+		return (index != null) ? index.intValue() : -1;
+	}
+
+	String getID(int index) {
+		return ids[index];
+	}
+
+	String getSequence(int index) {
+		return sequences[index];
+	}
+
+	boolean isPredictionPossible(int index) {
+		return getFlag(index, possibleFlag);
+	}
+
+	void setPredictionPossible(int index, boolean value) {
+		setFlag(index, possibleFlag, value);
+	}
+
+	boolean isPredictionTrivial(int index) {
+		return getFlag(index, trivialFlag);
+	}
+
+	void setPredictionTrivial(int index, boolean value) {
+		setFlag(index, trivialFlag, value);
+	}
+
+	boolean isTF(int index) {
+		return getFlag(index, tfFlag);
+	}
+
+	void setTF(int index, boolean value) {
+		setFlag(index, tfFlag, value);
+	}
+
+	boolean isAnnotatedClassAvailable(int index) {
+		return getFlag(index, annotatedClassFlag);
+	}
+
+	void setAnnotatedClassAvailable(int index, boolean value) {
+		setFlag(index, annotatedClassFlag, value);
+	}
+
+	boolean isDomainsPredicted(int index) {
+		return getFlag(index, domainsFlag);
+	}
+
+	void setDomainsPredicted(int index, boolean value) {
+		setFlag(index, domainsFlag, value);
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @param classIndex {@link Predict#Non_TF} or {@link Predict#TF}
+	 * @return
+	 */
+	double getProbTFclass(int index, int classIndex) {
+		return probDistTF[numTFclasses * index + classIndex];
+	}
+
+	double[] getProbDistTFclass(int index) {
+		if (!getFlag(index, probDistTFflag)) {
+			return null;
+		}
+		return Arrays.copyOfRange(probDistTF, numTFclasses * index, numTFclasses * (index + 1));
+	}
+
+	void setProbDistTFclass(int index, double[] probDist) {
+		System.arraycopy(probDist, 0, probDistTF, numTFclasses * index, numTFclasses);
+		setFlag(index, probDistTFflag, true);
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @param classIndex superclass (e.g., {@link Predict#Zinc_finger})
+	 * @return
+	 */
+	double getProbSuperclass(int index, int classIndex) {
+		return probDistSuper[numSuperclasses * index + classIndex];
+	}
+
+	double[] getProbDistSuperclass(int index) {
+		if (!getFlag(index, probDistSuperFlag)) {
+			return null;
+		}
+		return Arrays.copyOfRange(probDistSuper, numSuperclasses * index, numSuperclasses * (index + 1));
+	}
+
+	void setProbDistSuperclass(int index, double[] probDist) {
+		System.arraycopy(probDist, 0, probDistSuper, numSuperclasses * index, numSuperclasses);
+		setFlag(index, probDistSuperFlag, true);
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return predicted superclass or -1 if no superclass was predicted
+	 */
+	int getPredictedSuperclass(int index) {
+		return predictedSuperclass[index];
+	}
+
+	void setPredictedSuperclass(int index, int superclass) {
+		predictedSuperclass[index] = (byte) superclass;
+	}
+
+	String getAnnotatedClass(int index) {
+		return annotatedClass[index];
+	}
+
+	void setAnnotatedClass(int index, String value) {
+		annotatedClass[index] = value;
+	}
+
+	String[] getBindingDomains(int index) {
+		return bindingDomains[index];
+	}
+
+	void setBindingDomains(int index, String[] domains) {
+		bindingDomains[index] = domains;
+	}
+
+	void setBlastHits(int index, Map<String, Double> hits, boolean superPred) {
+		if (superPred) {
+			blastHitsSuper[index] = hits;
+		} else {
+			blastHitsTF[index] = hits;
+		}
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @param superPred {@code true} for the database of the superclass
+	 *        prediction
+	 * @return {@code true} if the record was searched successfully
+	 */
+	boolean isSearched(int index, boolean superPred) {
+		return (superPred ? blastHitsSuper : blastHitsTF)[index] != null;
+	}
+
+	/**
+	 *
+	 * @param indices records whose hits are returned
+	 * @param superPred {@code true} for the hits in the database of the
+	 *        superclass prediction
+	 * @return map from sequence identifiers to the hits of all given records
+	 *         which were searched successfully
+	 */
+	Map<String, Map<String, Double>> getBlastHits(int[] indices, boolean superPred) {
+
+		Map<String, Double>[] hits = superPred ? blastHitsSuper : blastHitsTF;
+		Map<String, Map<String, Double>> seq2blastHits = new LinkedHashMap<String, Map<String, Double>>();
+		for (int index: indices) {
+			if (hits[index] != null) {
+				seq2blastHits.put(ids[index], hits[index]);
+			}
+		}
+		return seq2blastHits;
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return the prediction results of the given record
+	 */
+	PredictionCache.Entry getEntry(int index) {
+
+		PredictionCache.Entry entry = new PredictionCache.Entry();
+		if (getFlag(index, probDistTFflag)) {
+			entry.probDist_TFclass = BasicTools.double2Double(getProbDistTFclass(index));
+		}
+		if (getFlag(index, probDistSuperFlag)) {
+			entry.probDist_Superclass = BasicTools.double2Double(getProbDistSuperclass(index));
+		}
+		if (predictedSuperclass[index] >= 0) {
+			entry.predictedSuperclass = Integer.valueOf(predictedSuperclass[index]);
+		}
+		entry.annotatedClass = annotatedClass[index];
+		entry.bindingDomains = bindingDomains[index];
+		entry.predictionPossible = isPredictionPossible(index);
+		entry.predictionTrivial = isPredictionTrivial(index);
+		entry.seqIsTF = isTF(index);
+		entry.annotatedClassAvailable = isAnnotatedClassAvailable(index);
+		entry.domainsPredicted = isDomainsPredicted(index);
+
+		return entry;
+	}
+
+	/**
+	 * Sets the prediction results of the given record.
+	 *
+	 * @param index
+	 * @param entry
+	 */
+	void setEntry(int index, PredictionCache.Entry entry) {
+
+		if (entry.probDist_TFclass != null) setProbDistTFclass(index, BasicTools.Double2double(entry.probDist_TFclass));
+		if (entry.probDist_Superclass != null) setProbDistSuperclass(index, BasicTools.Double2double(entry.probDist_Superclass));
+		if (entry.predictedSuperclass != null) setPredictedSuperclass(index, entry.predictedSuperclass);
+		if (entry.annotatedClass != null) annotatedClass[index] = entry.annotatedClass;
+		if (entry.bindingDomains != null) bindingDomains[index] = entry.bindingDomains;
+		setPredictionPossible(index, entry.predictionPossible);
+		setPredictionTrivial(index, entry.predictionTrivial);
+		setTF(index, entry.seqIsTF);
+		setAnnotatedClassAvailable(index, entry.annotatedClassAvailable);
+		setDomainsPredicted(index, entry.domainsPredicted);
+	}
+
+	private boolean getFlag(int index, byte flag) {
+		return (flags[index] & flag) != 0;
+	}
+
+	private void setFlag(int index, byte flag, boolean value) {
+		if (value) {
+			flags[index] |= flag;
+		} else {
+			flags[index] &= ~flag;
+		}
+	}
+}
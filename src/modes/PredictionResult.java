@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+/**
+ * Prediction of one sequence as delivered by {@link StreamingPrediction}. The
+ * result is immutable and does not refer to the records of the prediction,
+ * so that it can be kept after the prediction of its chunk was finished.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class PredictionResult {
+
+	private String id;
+	private boolean predictionPossible;
+	private boolean tf;
+	private double probTF;
+	private double[] probSuperclass;
+	private String superclass;
+	private String annotatedClass;
+	private String[][] bindingDomains;
+	private String json;
+
+	PredictionResult(PredictionRecords records, int index) {
+
+		id = records.getID(index);
+		predictionPossible = records.isPredictionPossible(index);
+		if (predictionPossible) {
+			tf = records.isTF(index);
+			probTF = records.getProbTFclass(index, Predict.TF);
+			if (tf) {
+				probSuperclass = records.getProbDistSuperclass(index);
+				superclass = PredictionRecordWriter.getSuperclassName(records, index);
+				annotatedClass = PredictionRecordWriter.getAnnotatedClass(records, index);
+				bindingDomains = PredictionRecordWriter.getBindingDomains(records, index);
+			}
+		}
+		json = PredictionRecordWriter.toJSON(records, index);
+	}
+
+	/**
+	 *
+	 * @return identifier of the sequence
+	 */
+	public String getID() {
+		return id;
+	}
+
+	/**
+	 *
+	 * @return {@code false} if no BLAST hits and no InterPro domains were
+	 *         found for the sequence
+	 */
+	public boolean isPredictionPossible() {
+		return predictionPossible;
+	}
+
+	/**
+	 *
+	 * @return {@code true} if the sequence was classified as TF
+	 */
+	public boolean isTF() {
+		return tf;
+	}
+
+	/**
+	 *
+	 * @return probability that the sequence is a TF ({@code NaN} if no
+	 *         prediction was possible)
+	 */
+	public double getProbTF() {
+		return predictionPossible ? probTF : Double.NaN;
+	}
+
+	/**
+	 *
+	 * @param superclass {@link Predict#Basic_domain},
+	 *        {@link Predict#Zinc_finger}, {@link Predict#Helix_turn_helix},
+	 *        {@link Predict#Beta_scaffold} or {@link Predict#Other}
+	 * @return probability of the given superclass ({@code NaN} if the
+	 *         sequence was not classified as TF)
+	 */
+	public double getProbSuperclass(int superclass) {
+		return (probSuperclass != null) ? probSuperclass[superclass] : Double.NaN;
+	}
+
+	/**
+	 *
+	 * @return name of the predicted superclass or {@code null}
+	 */
+	public String getSuperclass() {
+		return superclass;
+	}
+
+	/**
+	 *
+	 * @return annotated TRANSFAC class or {@code null}
+	 */
+	public String getAnnotatedClass() {
+		return annotatedClass;
+	}
+
+	/**
+	 *
+	 * @return InterPro ID, start and end position of each predicted
+	 *         DNA-binding domain
+	 */
+	public String[][] getBindingDomains() {
+		return (bindingDomains != null) ? bindingDomains : new String[0][];
+	}
+
+	/**
+	 *
+	 * @return the result as JSON object (as written by the option
+	 *         {@code -jsonOutfile})
+	 */
+	public String toJSON() {
+		return json;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return json;
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import features.DomainFeatureGenerator;
+import io.BasicTools;
+import io.BlastDBcache;
+import io.ObjectRW;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import liblinear.LinearScorer;
+import resources.Resource;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Keeps the reference data needed by {@link Predict} in memory, so that
+ * classifiers, domain lists and the labels of the BLAST database sequences are
+ * only loaded once per JVM. All returned objects are shared and must not be
+ * modified by the caller.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class ReferenceData {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(ReferenceData.class.getName());
+
+	/**
+	 * Suffix of the files in which the extracted {@link LinearScorer}s are stored.
+	 */
+	private static final String scorerSuffix = ".scorer";
+
+	private static final Map<String, List<String>> resourceLists = new ConcurrentHashMap<String, List<String>>();
+	private static final Map<String, Map<String, String>> resourceMaps = new ConcurrentHashMap<String, Map<String, String>>();
+	private static final Map<String, Classifier> classifiers = new ConcurrentHashMap<String, Classifier>();
+	private static final Map<String, LinearScorer> scorers = new ConcurrentHashMap<String, LinearScorer>();
+	// model resources which cannot be scored by a LinearScorer
+	private static final Set<String> unsupportedScorers = Collections.synchronizedSet(new HashSet<String>());
+	private static final Map<String, Map<String, Integer>> fastaLabels = new ConcurrentHashMap<String, Map<String, Integer>>();
+	private static final Map<Integer, Instances> featureHeaders = new ConcurrentHashMap<Integer, Instances>();
+
+	/**
+	 *
+	 * @param resourceName
+	 * @return lines of the given resource
+	 */
+	static List<String> getResourceList(String resourceName) {
+
+		List<String> list = resourceLists.get(resourceName);
+		if (list == null) {
+			list = BasicTools.readResource2List(resourceName);
+			resourceLists.put(resourceName, list);
+		}
+		return list;
+	}
+
+	/**
+	 *
+	 * @param resourceName
+	 * @return serialized map read from the given resource
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, String> getResourceMap(String resourceName) {
+
+		Map<String, String> map = resourceMaps.get(resourceName);
+		if (map == null) {
+			map = (Map<String, String>) ObjectRW.readFromResource(resourceName);
+			resourceMaps.put(resourceName, map);
+		}
+		return map;
+	}
+
+	/**
+	 *
+	 * @param modelFile
+	 * @return deserialized classifier from the given model resource
+	 * @throws Exception
+	 */
+	static synchronized Classifier getClassifier(String modelFile) throws Exception {
+
+		Classifier classifier = classifiers.get(modelFile);
+		if (classifier == null) {
+			classifier = (Classifier) weka.core.SerializationHelper.read(Resource.class.getResourceAsStream(modelFile));
+			classifiers.put(modelFile, classifier);
+		}
+		return classifier;
+	}
+
+	/**
+	 * Returns the {@link LinearScorer} of the given model resource. The scorer
+	 * is extracted from the deserialized classifier only once and stored in a
+	 * subdirectory of the cache directory named by the checksum of the model
+	 * resource, so that later runs neither have to read the WEKA model nor to
+	 * extract the scorer again.
+	 *
+	 * @param modelFile
+	 * @param cacheDir directory in which the extracted scorers are stored
+	 * @return scorer of the given model or {@code null} if the model is not a
+	 *         supported linear model (see {@link LinearScorer#create(Classifier)})
+	 * @throws Exception
+	 */
+	static synchronized LinearScorer getLinearScorer(String modelFile, String cacheDir) throws Exception {
+
+		LinearScorer scorer = scorers.get(modelFile);
+		if (scorer != null || unsupportedScorers.contains(modelFile)) {
+			return scorer;
+		}
+
+		if (!cacheDir.endsWith("/")) cacheDir += "/";
+		String scorerDir = cacheDir + BlastDBcache.getResourceChecksum(modelFile) + "/";
+		File scorerFile = new File(scorerDir + new File(modelFile).getName() + scorerSuffix);
+		if (scorerFile.exists()) {
+			scorer = readScorer(scorerFile);
+		}
+		if (scorer == null) {
+			scorer = LinearScorer.create(getClassifier(modelFile));
+			if (scorer == null) {
+				unsupportedScorers.add(modelFile);
+				return null;
+			}
+			writeScorer(scorer, scorerFile);
+		}
+		scorers.put(modelFile, scorer);
+		return scorer;
+	}
+
+	// returns null if the file cannot be read (e.g., if it was written by another version)
+	private static LinearScorer readScorer(File scorerFile) {
+
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new FileInputStream(scorerFile));
+			try {
+				return (LinearScorer) ois.readObject();
+			} finally {
+				ois.close();
+			}
+		} catch (Exception exc) {
+			logger.warning("Could not read " + scorerFile + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	// the scorer is written to a temporary file first, so that other processes never read an incomplete file
+	private static void writeScorer(LinearScorer scorer, File scorerFile) {
+
+		File dir = scorerFile.getParentFile();
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+			logger.warning("Could not create directory " + dir);
+			return;
+		}
+		try {
+			File tmpFile = File.createTempFile(scorerFile.getName(), ".tmp", dir);
+			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmpFile));
+			try {
+				oos.writeObject(scorer);
+			} finally {
+				oos.close();
+			}
+			Files.move(tmpFile.toPath(), scorerFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException exc) {
+			logger.warning("Could not write " + scorerFile + ": " + exc.getMessage());
+		}
+	}
+
+	/**
+	 *
+	 * @param fastaFile FASTA file of a BLAST database
+	 * @param superPred
+	 * @return labels of the sequences in the given FASTA file
+	 */
+	static Map<String, Integer> getLabels(String fastaFile, boolean superPred) {
+
+		String key = fastaFile + "\t" + superPred;
+		Map<String, Integer> seq2label = fastaLabels.get(key);
+		if (seq2label == null) {
+			Map<String, String> sequences = BasicTools.readFASTA(fastaFile, true);
+			seq2label = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequences.keySet(), superPred, false);
+			fastaLabels.put(key, seq2label);
+		}
+		return seq2label;
+	}
+
+	/**
+	 * Returns the header of feature vectors with the given number of features.
+	 * The header corresponds to the one created by {@code LibSVMLoader} for the
+	 * feature vectors (numeric attributes "att_1", "att_2", ... followed by a
+	 * numeric class attribute).
+	 *
+	 * @param numFeatures
+	 * @return shared header of feature vectors
+	 */
+	static Instances getFeatureHeader(int numFeatures) {
+
+		Instances header = featureHeaders.get(numFeatures);
+		if (header == null) {
+			ArrayList<Attribute> atts = new ArrayList<Attribute>(numFeatures + 1);
+			for (int i=0; i<numFeatures; i++) {
+				atts.add(new Attribute("att_" + (i+1)));
+			}
+			atts.add(new Attribute("class"));
+			header = new Instances("features", atts, 0);
+			header.setClassIndex(numFeatures);
+			featureHeaders.put(numFeatures, header);
+		}
+		return header;
+	}
+}
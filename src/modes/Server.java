@@ -0,0 +1,345 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import io.BasicTools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Resident prediction server which keeps classifiers, domain lists and BLAST
+ * databases in memory and runs the {@link Predict} pipeline for FASTA files
+ * posted to a local HTTP endpoint. The following endpoints are provided:
+ * <ul>
+ * <li>{@code POST /predict} FASTA file in the request body. Optional query
+ * parameter: {@code species}. A JSON object containing the console, HTML and
+ * SABINE reports is returned. Each prediction is run in a new job directory
+ * created by the server; clients cannot choose any paths on the server.</li>
+ * <li>{@code GET /health} returns 200 as long as the server is running.</li>
+ * <li>{@code GET /ready} returns 200 once all reference data was loaded and
+ * 503 before.</li>
+ * </ul>
+ * Each request is processed by its own {@link Predict} instance which shares
+ * the settings and reference data of the server, so that up to
+ * {@link #numHandlerThreads} predictions run concurrently. The job directories
+ * are temporary unless an output directory is given when the server is
+ * started ({@code -outputDir}); then they are kept in this directory and their
+ * path is returned as field {@code jobDir}.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class Server {
+
+	private static final Logger logger = Logger.getLogger(Server.class.getName());
+
+	public static final int defaultPort = 8642;
+	public static final String defaultBindAddress = "127.0.0.1";
+	private static final int numHandlerThreads = 4;
+
+	private static volatile boolean ready = false;
+
+	/**
+	 * Query parameters of the command line mode which would let clients choose
+	 * paths on the server.
+	 */
+	private static final String[] rejectedParams = {"basedir", "htmlOutfile", "sabineOutfile"};
+
+	public static void main(CommandLine cmd) throws Exception {
+
+		int port = defaultPort;
+		if (cmd.hasOption("port")) {
+			port = Integer.parseInt(cmd.getOptionValue("port"));
+		}
+		String bindAddress = defaultBindAddress;
+		if (cmd.hasOption("bindAddress")) {
+			bindAddress = cmd.getOptionValue("bindAddress");
+		}
+
+		// job directories are kept in the output directory (if given)
+		File outputDir = null;
+		if (cmd.hasOption("outputDir")) {
+			outputDir = new File(cmd.getOptionValue("outputDir")).getAbsoluteFile();
+			if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+				System.out.println("Error. Output directory could not be created: " + outputDir);
+				System.exit(1);
+			}
+		}
+
+		// global configuration shared by all predictions
+		final Predict configuration = new Predict();
+		configuration.parseArguments(cmd);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+		server.createContext("/health", new StatusHandler(false));
+		server.createContext("/ready", new StatusHandler(true));
+		server.createContext("/predict", new PredictHandler(configuration, outputDir));
+		server.setExecutor(Executors.newFixedThreadPool(numHandlerThreads));
+		server.start();
+		System.out.println("TFpredict server listening on " + bindAddress + ":" + port);
+
+		// load reference data while the health endpoint is already available
+		long start = System.currentTimeMillis();
+		configuration.preloadReferenceData();
+		ready = true;
+		System.out.println("Reference data loaded in " + ((System.currentTimeMillis() - start)/1000) + " seconds. Server is ready.");
+	}
+
+	// runs the prediction pipeline for the given FASTA file in a new job directory, returns console, HTML and SABINE report and the job directory
+	private static String[] predict(Predict configuration, byte[] fasta, Map<String, String> params, File outputDir) throws IOException {
+
+		// the job directory is always new, so that only reports written by this prediction are returned
+		File jobDirFile;
+		if (outputDir != null) {
+			jobDirFile = Files.createTempDirectory(outputDir.toPath(), "job_").toFile();
+		} else {
+			jobDirFile = Files.createTempDirectory("TFpredict_").toFile();
+		}
+		String jobDir = jobDirFile.getAbsolutePath() + File.separator;
+		Files.write(new File(jobDir + "input.fasta").toPath(), fasta);
+
+		String htmlOutfile = jobDir + "result.html";
+		String sabineOutfile = params.containsKey("species") ? jobDir + "result.sabine" : null;
+
+		String[] reports = new String[4];
+		try {
+			Predict predictor = new Predict(configuration);
+			predictor.basedir = jobDir;
+			predictor.input_file = jobDir + "query.fasta";
+			predictor.fasta_file = jobDir + "input.fasta";
+			predictor.batchMode = true;
+			predictor.standAloneMode = true;
+			predictor.species = params.get("species");
+			predictor.html_outfile = htmlOutfile;
+			predictor.sabine_outfile = sabineOutfile;
+
+			ByteArrayOutputStream console = new ByteArrayOutputStream();
+			predictor.out = new PrintStream(console, true, "UTF-8");
+
+			boolean validInput = predictor.prepareInput();
+			if (validInput) {
+				predictor.prepareClassifiers();
+				predictor.predict();
+				predictor.writeConsoleOutput();
+				predictor.writeHTMLoutput();
+				if (sabineOutfile != null) {
+					predictor.writeSABINEoutput();
+				}
+			}
+			predictor.out.flush();
+			// no console report indicates invalid input, the HTML report contains the error message
+			reports[0] = validInput ? console.toString("UTF-8") : null;
+
+			if (new File(htmlOutfile).exists()) {
+				reports[1] = BasicTools.readFile2String(htmlOutfile);
+			}
+			if (sabineOutfile != null && new File(sabineOutfile).exists()) {
+				reports[2] = BasicTools.readFile2String(sabineOutfile);
+			}
+			if (outputDir != null) {
+				reports[3] = jobDir;
+			}
+
+		} finally {
+			if (outputDir == null) {
+				deleteDir(jobDirFile);
+			}
+		}
+		return reports;
+	}
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file: files) {
+				if (file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+	private static Map<String, String> parseQuery(String query) throws IOException {
+
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair: query.split("&")) {
+			int idx = pair.indexOf('=');
+			if (idx > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	static String toJSONstring(String value) {
+
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder json = new StringBuilder(value.length() + 2);
+		json.append('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':  json.append("\\\""); break;
+			case '\\': json.append("\\\\"); break;
+			case '\n': json.append("\\n"); break;
+			case '\r': json.append("\\r"); break;
+			case '\t': json.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+		return json.toString();
+	}
+
+	private static void sendResponse(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+
+	private static byte[] readBody(InputStream is) throws IOException {
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+		while ((len = is.read(buffer)) != -1) {
+			body.write(buffer, 0, len);
+		}
+		is.close();
+		return body.toByteArray();
+	}
+
+	// answers health and readiness checks
+	static class StatusHandler implements HttpHandler {
+
+		private boolean readiness;
+
+		public StatusHandler(boolean readiness) {
+			this.readiness = readiness;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			if (!readiness) {
+				sendResponse(exchange, 200, "text/plain", "OK\n");
+			} else if (ready) {
+				sendResponse(exchange, 200, "text/plain", "READY\n");
+			} else {
+				sendResponse(exchange, 503, "text/plain", "LOADING\n");
+			}
+		}
+	}
+
+	// runs predictions for posted FASTA files
+	static class PredictHandler implements HttpHandler {
+
+		private Predict configuration;
+		private File outputDir;
+
+		public PredictHandler(Predict configuration, File outputDir) {
+			this.configuration = configuration;
+			this.outputDir = outputDir;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				sendResponse(exchange, 405, "text/plain", "Error. FASTA file has to be sent via POST.\n");
+				return;
+			}
+			if (!ready) {
+				sendResponse(exchange, 503, "text/plain", "Error. Server is still loading reference data.\n");
+				return;
+			}
+			try {
+				Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+				for (String param: rejectedParams) {
+					if (params.containsKey(param)) {
+						readBody(exchange.getRequestBody());
+						sendResponse(exchange, 400, "text/plain", "Error. Paths on the server cannot be chosen by the client (parameter " + param + "). The reports are returned in the response.\n");
+						return;
+					}
+				}
+				byte[] fasta = readBody(exchange.getRequestBody());
+				if (fasta.length == 0) {
+					sendResponse(exchange, 400, "text/plain", "Error. Empty FASTA file.\n");
+					return;
+				}
+				String[] reports = predict(configuration, fasta, params, outputDir);
+
+				if (reports[0] == null) {
+					sendResponse(exchange, 400, "text/html", reports[1] != null ? reports[1] : "Error. Invalid input.\n");
+
+				} else {
+					String json = "{\"console\": " + toJSONstring(reports[0]) + ", \"html\": " + toJSONstring(reports[1]) + ", \"sabine\": " + toJSONstring(reports[2]);
+					if (reports[3] != null) {
+						json += ", \"jobDir\": " + toJSONstring(reports[3]);
+					}
+					sendResponse(exchange, 200, "application/json", json + "}\n");
+				}
+
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, e.getMessage(), e);
+				sendResponse(exchange, 500, "text/plain", "Error. " + e.getMessage() + "\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,536 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import io.BasicTools;
+import io.FastaChunkReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Distributes the prediction of a large FASTA file over several machines
+ * which share a file system. The input is split into shards of consecutive
+ * sequences with a similar number of sequences and residues, which are
+ * described by a manifest in the shard directory. Each machine runs a worker,
+ * which claims unfinished shards one after another by creating a lock file and
+ * runs TFpredict on them in a separate process. Finished shards are marked by
+ * a file and never processed again, failed shards are retried, and shards
+ * whose lock was not renewed by the heartbeat of its worker are taken over by
+ * other workers. Each lock contains a token of its owner, so that a worker
+ * whose shard was taken over discards its results and leaves the lock of the
+ * new owner in place. Finally, the JSON Lines and SABINE outputs of all shards are
+ * merged in input order.
+ *
+ * <pre>
+ * java -cp TFpredict.jar modes.ShardedPrediction plan &lt;fasta_file&gt; &lt;shard_dir&gt; &lt;number_of_shards&gt;
+ * java -cp TFpredict.jar modes.ShardedPrediction run &lt;shard_dir&gt; [-basedir &lt;dir&gt;] [-maxAttempts &lt;n&gt;] [TFpredict options]
+ * java -cp TFpredict.jar modes.ShardedPrediction merge &lt;shard_dir&gt; &lt;json_outfile&gt; [&lt;sabine_outfile&gt;]
+ * </pre>
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class ShardedPrediction {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(ShardedPrediction.class.getName());
+
+	/**
+	 * Name of the manifest in the shard directory.
+	 */
+	public static final String manifestFile = "manifest.tsv";
+
+	/**
+	 * Interval in which a worker renews the lock of its current shard.
+	 */
+	public static final long heartbeatInterval = 60 * 1000;
+
+	/**
+	 * Locks which were not renewed for this time belong to a failed worker.
+	 */
+	public static final long staleLockTimeout = 10 * heartbeatInterval;
+
+	/**
+	 * Number of times a worker runs a failing shard before it proceeds with
+	 * the next shard.
+	 */
+	public static final int defaultMaxAttempts = 3;
+
+	private static final String sabineSeparator = "//\nXX\n";
+
+	private String shardDir;
+	private List<Shard> shards = new ArrayList<Shard>();
+
+	// program run on each shard, which is replaced by tests
+	String mainClass = "main.TFpredictMain";
+
+	// shard of consecutive input sequences as listed in the manifest
+	static class Shard {
+
+		int index;
+		String name;
+		int numSequences;
+		long numResidues;
+
+		Shard(int index, int numSequences, long numResidues) {
+			this.index = index;
+			this.name = String.format("shard_%04d", index);
+			this.numSequences = numSequences;
+			this.numResidues = numResidues;
+		}
+	}
+
+	/**
+	 *
+	 * @param shardDir directory containing the manifest
+	 * @throws IOException
+	 */
+	public ShardedPrediction(String shardDir) throws IOException {
+
+		if (!shardDir.endsWith("/")) shardDir += "/";
+		this.shardDir = shardDir;
+
+		BufferedReader br = new BufferedReader(new FileReader(new File(shardDir + manifestFile)));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("#") || line.isEmpty()) {
+					continue;
+				}
+				String[] fields = line.split("\t");
+				shards.add(new Shard(Integer.parseInt(fields[0]), Integer.parseInt(fields[2]), Long.parseLong(fields[3])));
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Splits the given FASTA file into shards of consecutive sequences and
+	 * writes the shards and the manifest to the shard directory. The costs of a
+	 * sequence are assumed to consist of a constant part and a part
+	 * proportional to its length, which are weighted equally on average.
+	 *
+	 * @param fastaFile
+	 * @param shardDir
+	 * @param numShards
+	 * @return the number of shards, which is smaller than {@code numShards}
+	 *         if the file contains less sequences
+	 * @throws IOException
+	 */
+	public static int plan(String fastaFile, String shardDir, int numShards) throws IOException {
+
+		if (!shardDir.endsWith("/")) shardDir += "/";
+		if (FastaChunkReader.countSequences(fastaFile) < 0) {
+			throw new IOException("FASTA file contains duplicated headers: " + fastaFile);
+		}
+		if (!new File(shardDir).isDirectory() && !new File(shardDir).mkdirs()) {
+			throw new IOException("Could not create shard directory: " + shardDir);
+		}
+
+		// read sequence lengths
+		List<Integer> lengths = new ArrayList<Integer>();
+		long totalLength = 0;
+		FastaChunkReader reader = new FastaChunkReader(fastaFile, true);
+		try {
+			Map<String, String> chunk;
+			while (!(chunk = reader.nextChunk(1000)).isEmpty()) {
+				for (String seq: chunk.values()) {
+					lengths.add(seq.length());
+					totalLength += seq.length();
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		numShards = Math.max(1, Math.min(numShards, lengths.size()));
+
+		// cut the sequences into consecutive shards of similar costs
+		double meanLength = Math.max(1, (double) totalLength / Math.max(1, lengths.size()));
+		double totalCosts = lengths.size() + totalLength / meanLength;
+		List<Shard> shards = new ArrayList<Shard>();
+		double costs = 0;
+		int shardStart = 0;
+		long shardResidues = 0;
+		for (int i=0; i<lengths.size(); i++) {
+			costs += 1 + lengths.get(i) / meanLength;
+			shardResidues += lengths.get(i);
+			int numRemainingSeqs = lengths.size() - i - 1;
+			int numRemainingShards = numShards - shards.size() - 1;
+			boolean targetReached = costs >= (shards.size() + 1) * totalCosts / numShards;
+			if (numRemainingShards == 0 ? numRemainingSeqs == 0 : (targetReached || numRemainingSeqs == numRemainingShards)) {
+				shards.add(new Shard(shards.size(), i + 1 - shardStart, shardResidues));
+				shardStart = i + 1;
+				shardResidues = 0;
+			}
+		}
+
+		// write shards and manifest
+		reader = new FastaChunkReader(fastaFile, true);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(shardDir + manifestFile)));
+		try {
+			bw.write("# input\t" + new File(fastaFile).getAbsolutePath() + "\n");
+			bw.write("# created\t" + new Date() + "\n");
+			bw.write("# shard\tfasta\tsequences\tresidues\n");
+			for (Shard shard: shards) {
+				BasicTools.writeFASTA(reader.nextChunk(shard.numSequences), shardDir + shard.name + ".fasta");
+				bw.write(shard.index + "\t" + shard.name + ".fasta\t" + shard.numSequences + "\t" + shard.numResidues + "\n");
+			}
+		} finally {
+			reader.close();
+			bw.close();
+		}
+		return shards.size();
+	}
+
+	/**
+	 * Processes unfinished shards until all shards are either finished or
+	 * locked by other workers.
+	 *
+	 * @param basedir local directory for temporary files
+	 * @param maxAttempts number of runs of a failing shard
+	 * @param options further options passed to TFpredict
+	 * @return number of shards which were finished by this worker
+	 */
+	public int runWorker(String basedir, int maxAttempts, List<String> options) {
+
+		if (!basedir.endsWith("/")) basedir += "/";
+		int numFinished = 0;
+		for (final Shard shard: shards) {
+			if (isFinished(shard)) {
+				continue;
+			}
+			final String token = lock(shard);
+			if (token == null) {
+				continue;
+			}
+			final File lockFile = getFile(shard, ".lock");
+			ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+			heartbeat.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					if (isOwner(shard, token)) {
+						lockFile.setLastModified(System.currentTimeMillis());
+					}
+				}
+			}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+			File jsonFile = getFile(shard, ".jsonl." + token);
+			File sabineFile = getFile(shard, ".sabine." + token);
+			boolean lost = false;
+			try {
+				for (int attempt=1; attempt<=maxAttempts && !isFinished(shard); attempt++) {
+					logger.info("Processing " + shard.name + " (attempt " + attempt + " of " + maxAttempts + ").");
+					try {
+						boolean success = runShard(shard, basedir + shard.name + "_" + token + "/", jsonFile, sabineFile, options);
+
+						// the results of a worker whose shard was taken over are discarded
+						if (!isOwner(shard, token)) {
+							lost = true;
+							break;
+						}
+						if (success) {
+							moveTo(jsonFile, getFile(shard, ".jsonl"));
+							if (sabineFile.exists()) {
+								moveTo(sabineFile, getFile(shard, ".sabine"));
+							}
+							getFile(shard, ".done").createNewFile();
+							numFinished++;
+						}
+					} catch (IOException exc) {
+						logger.severe(exc.getMessage());
+					} catch (InterruptedException exc) {
+						logger.severe(shard.name + " was interrupted.");
+						Thread.currentThread().interrupt();
+						return numFinished;
+					}
+				}
+				if (lost) {
+					logger.warning(shard.name + " was taken over by another worker.");
+				} else if (!isFinished(shard)) {
+					System.out.println("Error. " + shard.name + " failed " + maxAttempts + " time(s). See " + getFile(shard, ".log") + ".");
+				}
+			} finally {
+				heartbeat.shutdownNow();
+				jsonFile.delete();
+				sabineFile.delete();
+				if (isOwner(shard, token)) {
+					lockFile.delete();
+				}
+			}
+		}
+		return numFinished;
+	}
+
+	// replaces the target file by the given file
+	private static void moveTo(File file, File target) throws IOException {
+		if (!file.renameTo(target)) {
+			target.delete();
+			if (!file.renameTo(target)) {
+				throw new IOException("Could not rename " + file + " to " + target);
+			}
+		}
+	}
+
+	// runs TFpredict on the given shard and checks that a result was written for each sequence
+	private boolean runShard(Shard shard, String basedir, File jsonFile, File sabineFile, List<String> options) throws IOException, InterruptedException {
+
+		File workDir = new File(basedir);
+		if (!workDir.isDirectory() && !workDir.mkdirs()) {
+			throw new IOException("Could not create directory for temporary files: " + basedir);
+		}
+		jsonFile.delete();
+		sabineFile.delete();
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + "/bin/java");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(mainClass);
+		cmd.add(getFile(shard, ".fasta").getPath());
+		cmd.add("-basedir");
+		cmd.add(basedir);
+		cmd.add("-jsonOutfile");
+		cmd.add(jsonFile.getPath());
+		if (options.contains("-species")) {
+			cmd.add("-sabineOutfile");
+			cmd.add(sabineFile.getPath());
+		}
+		cmd.addAll(options);
+
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(getFile(shard, ".log"));
+		Process process = pb.start();
+		int exitCode;
+		try {
+			exitCode = process.waitFor();
+		} catch (InterruptedException exc) {
+			process.destroy();
+			throw exc;
+		} finally {
+			for (File file: workDir.listFiles()) {
+				file.delete();
+			}
+			workDir.delete();
+		}
+
+		if (exitCode != 0) {
+			logger.severe(shard.name + ": TFpredict terminated with exit code " + exitCode + ".");
+			return false;
+		}
+		int numResults = jsonFile.exists() ? BasicTools.readFile2List(jsonFile.getPath(), false).size() : 0;
+		if (numResults != shard.numSequences) {
+			logger.severe(shard.name + ": " + numResults + " of " + shard.numSequences + " sequences were predicted.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @param shard
+	 * @return token of this worker written to the lock or {@code null} if the
+	 *         given shard was not claimed by this worker
+	 */
+	private String lock(Shard shard) {
+
+		File lockFile = getFile(shard, ".lock");
+		String token = UUID.randomUUID().toString();
+		try {
+			if (lockFile.createNewFile()) {
+				writeOwner(lockFile, token);
+				return token;
+			}
+
+			// lock of a failed worker --> only one worker can move the lock away
+			if (System.currentTimeMillis() - lockFile.lastModified() > staleLockTimeout) {
+				File staleLock = getFile(shard, ".lock." + UUID.randomUUID());
+				if (lockFile.renameTo(staleLock)) {
+					if (System.currentTimeMillis() - staleLock.lastModified() <= staleLockTimeout) {
+						// another worker took over the lock in the meantime
+						staleLock.renameTo(lockFile);
+						return null;
+					}
+					staleLock.delete();
+					logger.info("Taking over " + shard.name + " from a failed worker.");
+					if (lockFile.createNewFile()) {
+						writeOwner(lockFile, token);
+						return token;
+					}
+				}
+			}
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+		}
+		return null;
+	}
+
+	private static void writeOwner(File lockFile, String token) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(lockFile));
+		bw.write(token + "\t" + ManagementFactory.getRuntimeMXBean().getName() + "\t" + new Date() + "\n");
+		bw.close();
+	}
+
+	// true if the lock of the given shard contains the given token
+	private boolean isOwner(Shard shard, String token) {
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(getFile(shard, ".lock")));
+			try {
+				String line = br.readLine();
+				return (line != null) && line.startsWith(token + "\t");
+			} finally {
+				br.close();
+			}
+		} catch (IOException exc) {
+			return false;
+		}
+	}
+
+	private boolean isFinished(Shard shard) {
+		return getFile(shard, ".done").exists();
+	}
+
+	private File getFile(Shard shard, String suffix) {
+		return new File(shardDir + shard.name + suffix);
+	}
+
+	/**
+	 * Concatenates the outputs of all shards in input order.
+	 *
+	 * @param jsonOutfile
+	 * @param sabineOutfile {@code null} if no SABINE output is created
+	 * @throws IOException if a shard is not yet finished
+	 */
+	public void merge(String jsonOutfile, String sabineOutfile) throws IOException {
+
+		List<String> unfinished = new ArrayList<String>();
+		for (Shard shard: shards) {
+			if (!isFinished(shard)) {
+				unfinished.add(shard.name);
+			}
+		}
+		if (!unfinished.isEmpty()) {
+			throw new IOException(unfinished.size() + " shard(s) are not finished: " + unfinished);
+		}
+
+		OutputStream os = new FileOutputStream(jsonOutfile);
+		try {
+			for (Shard shard: shards) {
+				append(getFile(shard, ".jsonl"), os);
+			}
+		} finally {
+			os.close();
+		}
+
+		if (sabineOutfile != null) {
+			os = new FileOutputStream(sabineOutfile);
+			try {
+				for (Shard shard: shards) {
+					if (!getFile(shard, ".sabine").exists()) {
+						throw new IOException("SABINE output of " + shard.name + " not found. Run the workers with option -species.");
+					}
+					if (shard.index > 0) {
+						os.write(sabineSeparator.getBytes());
+					}
+					append(getFile(shard, ".sabine"), os);
+				}
+			} finally {
+				os.close();
+			}
+		}
+	}
+
+	private static void append(File file, OutputStream os) throws IOException {
+
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[1 << 16];
+			int len;
+			while ((len = is.read(buffer)) != -1) {
+				os.write(buffer, 0, len);
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length >= 4 && args[0].equals("plan")) {
+			int numShards = plan(args[1], args[2], Integer.parseInt(args[3]));
+			System.out.println(numShards + " shard(s) written to " + args[2] + ".");
+
+		} else if (args.length >= 2 && args[0].equals("run")) {
+			String basedir = System.getProperty("java.io.tmpdir") + "/TFpredict_shards_" + ManagementFactory.getRuntimeMXBean().getName().replaceAll("\\W", "_");
+			int maxAttempts = defaultMaxAttempts;
+			List<String> options = new ArrayList<String>(Arrays.asList(args).subList(2, args.length));
+			for (int i=0; i<options.size() - 1; i++) {
+				if (options.get(i).equals("-basedir")) {
+					basedir = options.remove(i + 1);
+					options.remove(i--);
+				} else if (options.get(i).equals("-maxAttempts")) {
+					maxAttempts = Math.max(1, Integer.parseInt(options.remove(i + 1)));
+					options.remove(i--);
+				}
+			}
+			int numFinished = new ShardedPrediction(args[1]).runWorker(basedir, maxAttempts, options);
+			System.out.println(numFinished + " shard(s) finished by this worker.");
+
+		} else if (args.length >= 3 && args[0].equals("merge")) {
+			new ShardedPrediction(args[1]).merge(args[2], args.length > 3 ? args[3] : null);
+
+		} else {
+			System.out.println("Usage: java -cp TFpredict.jar modes.ShardedPrediction plan <fasta_file> <shard_dir> <number_of_shards>");
+			System.out.println("       java -cp TFpredict.jar modes.ShardedPrediction run <shard_dir> [-basedir <dir>] [-maxAttempts <n>] [TFpredict options]");
+			System.out.println("       java -cp TFpredict.jar modes.ShardedPrediction merge <shard_dir> <json_outfile> [<sabine_outfile>]");
+		}
+	}
+}
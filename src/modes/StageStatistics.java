@@ -0,0 +1,115 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import io.BasicTools;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+
+/**
+ * Counts the sequences and residues processed by each stage of {@link Predict}
+ * and the time spent in the stage, so that the throughput of the stages can be
+ * reported after all sequences were predicted.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class StageStatistics {
+
+	/**
+	 * Stages of the prediction in the order in which they are run.
+	 */
+	enum Stage {
+		CASCADE("First stage (sequence only)"),
+		INTERPROSCAN("InterProScan"),
+		TF_SEARCH("TF/Non-TF search"),
+		TF_CLASSIFICATION("TF/Non-TF classification"),
+		SUPERCLASS_SEARCH("Superclass search"),
+		SUPERCLASS_CLASSIFICATION("Superclass classification");
+
+		final String printName;
+
+		private Stage(String printName) {
+			this.printName = printName;
+		}
+	}
+
+	private long[] numSequences = new long[Stage.values().length];
+	private long[] numResidues = new long[Stage.values().length];
+	private long[] nanos = new long[Stage.values().length];
+
+	/**
+	 *
+	 * @param stage
+	 * @param numSequences number of sequences processed by the stage
+	 * @param numResidues total length of these sequences
+	 * @param startTime value of {@link System#nanoTime()} at the start of the stage
+	 */
+	synchronized void add(Stage stage, int numSequences, long numResidues, long startTime) {
+		this.numSequences[stage.ordinal()] += numSequences;
+		this.numResidues[stage.ordinal()] += numResidues;
+		this.nanos[stage.ordinal()] += System.nanoTime() - startTime;
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @return number of sequences processed by the given stage
+	 */
+	synchronized long getNumSequences(Stage stage) {
+		return numSequences[stage.ordinal()];
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @return number of residues processed by the given stage
+	 */
+	synchronized long getNumResidues(Stage stage) {
+		return numResidues[stage.ordinal()];
+	}
+
+	/**
+	 * Writes the number of sequences, the time and the throughput of all
+	 * stages which were run.
+	 *
+	 * @param out
+	 */
+	synchronized void writeReport(PrintStream out) {
+
+		DecimalFormat df = Predict.createDecimalFormat();
+		int paddingLength = 32;
+		out.println("\n  " + BasicTools.padRight("Stage", paddingLength) + BasicTools.padRight("Sequences", 12) + BasicTools.padRight("Time (s)", 12) + BasicTools.padRight("Sequences/s", 14) + "Residues/s");
+		for (Stage stage: Stage.values()) {
+			if (numSequences[stage.ordinal()] == 0 && nanos[stage.ordinal()] == 0) {
+				continue;
+			}
+			double seconds = nanos[stage.ordinal()] / 1e9;
+			String throughput = (seconds > 0) ? df.format(numSequences[stage.ordinal()] / seconds) : "-";
+			String residueThroughput = (seconds > 0) ? df.format(numResidues[stage.ordinal()] / seconds) : "-";
+			out.println("  " + BasicTools.padRight(stage.printName, paddingLength) + BasicTools.padRight("" + numSequences[stage.ordinal()], 12) + BasicTools.padRight(df.format(seconds), 12) + BasicTools.padRight(throughput, 14) + residueThroughput);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * Predicts sequences which are read one by one from an {@link Iterator}, e.g.,
+ * from a database cursor or a network stream, and delivers the result of each
+ * sequence to a {@link PredictionListener}. The sequences are predicted in
+ * chunks by several workers. A new chunk is only read from the input if a
+ * worker is available, so that at most {@code numWorkers * chunkSize}
+ * sequences are kept in memory, no matter how fast the input can be read.
+ * Each chunk is predicted by its own {@link Predict} instance which shares the
+ * classifiers and databases loaded by the constructor. The workers may also
+ * use the InterProScan web service at the same time: each chunk submits its
+ * jobs with its own client and in its own directory, without redirecting the
+ * console streams of the JVM.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+public class StreamingPrediction {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(StreamingPrediction.class.getName());
+
+	private Predict configuration;
+	private int chunkSize = 100;
+	private int numWorkers = 1;
+	private PrintStream log = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {}
+	});
+
+	// set by the first failed chunk, stops the intake of further sequences
+	private volatile boolean failed;
+
+	/**
+	 * Loads the classifiers and databases.
+	 *
+	 * @param cmd settings of the prediction, see
+	 *        {@link main.TFpredictMain#parseStandAloneArguments(String[])}
+	 */
+	public StreamingPrediction(CommandLine cmd) {
+
+		configuration = new Predict();
+		configuration.parseArguments(cmd);
+		configuration.standAloneMode = true;
+		if (cmd.hasOption("chunkSize")) {
+			chunkSize = configuration.chunkSize;
+		}
+		configuration.preloadReferenceData();
+	}
+
+	/**
+	 *
+	 * @param chunkSize number of sequences predicted at once by one worker
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 *
+	 * @param numWorkers number of chunks predicted in parallel
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = Math.max(1, numWorkers);
+	}
+
+	/**
+	 *
+	 * @param log stream to which the console output of the prediction is
+	 *        written (discarded by default)
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * Predicts all sequences of the given input. The method returns after
+	 * {@link PredictionListener#onComplete()} or
+	 * {@link PredictionListener#onError(Throwable)} was called.
+	 *
+	 * @param sequences entries from sequence identifiers to sequences
+	 * @param listener
+	 */
+	public void run(Iterator<? extends Map.Entry<String, String>> sequences, PredictionListener listener) {
+
+		failed = false;
+		String workDir;
+		boolean tempDir = configuration.basedir.isEmpty();
+		try {
+			if (tempDir) {
+				workDir = Files.createTempDirectory("TFpredict_").toFile().getAbsolutePath() + File.separator;
+			} else {
+				workDir = configuration.basedir;
+				new File(workDir).mkdirs();
+			}
+		} catch (IOException exc) {
+			logger.severe(exc.getMessage());
+			listener.onError(exc);
+			return;
+		}
+
+		Semaphore slots = new Semaphore(numWorkers);
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		try {
+			Map.Entry<String, String> next = null;
+			int chunkCnt = 1;
+			while (!failed) {
+				slots.acquire();
+				Map<String, String> chunk = new LinkedHashMap<String, String>();
+				try {
+					if (next == null && sequences.hasNext()) {
+						next = sequences.next();
+					}
+					// a duplicated identifier starts the next chunk, as the records are identified by their IDs
+					while (next != null && chunk.size() < chunkSize && !chunk.containsKey(next.getKey())) {
+						chunk.put(next.getKey(), next.getValue().replaceAll("\\s+", ""));
+						next = sequences.hasNext() ? sequences.next() : null;
+					}
+				} catch (RuntimeException exc) {
+					slots.release();
+					fail(listener, exc);
+					break;
+				}
+				if (chunk.isEmpty()) {
+					slots.release();
+					break;
+				}
+				workers.execute(new ChunkJob(chunk, workDir + "stream.chunk" + chunkCnt++ + ".fasta", slots, listener));
+			}
+
+		} catch (InterruptedException exc) {
+			fail(listener, exc);
+			Thread.currentThread().interrupt();
+
+		} finally {
+			// running chunks still use the working directory
+			slots.acquireUninterruptibly(numWorkers);
+			workers.shutdown();
+			if (tempDir) {
+				deleteDir(new File(workDir));
+			}
+		}
+		if (!failed) {
+			synchronized (listener) {
+				listener.onComplete();
+			}
+		}
+	}
+
+	// reports the first error, all further errors are only logged
+	private void fail(PredictionListener listener, Throwable exc) {
+
+		synchronized (listener) {
+			if (failed) {
+				logger.warning(exc.getMessage());
+				return;
+			}
+			failed = true;
+			listener.onError(exc);
+		}
+	}
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file: files) {
+				if (file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+	// predicts one chunk and frees the slot of its worker after all results were delivered
+	private class ChunkJob implements Runnable {
+
+		private Map<String, String> chunk;
+		private String queryFile;
+		private Semaphore slots;
+		private PredictionListener listener;
+
+		ChunkJob(Map<String, String> chunk, String queryFile, Semaphore slots, PredictionListener listener) {
+			this.chunk = chunk;
+			this.queryFile = queryFile;
+			this.slots = slots;
+			this.listener = listener;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+
+			try {
+				Predict predictor = new Predict(configuration);
+				predictor.batchMode = true;
+				predictor.basedir = new File(queryFile).getParent() + File.separator;
+				predictor.out = log;
+				PredictionRecords records = predictor.predictChunk(chunk, queryFile);
+				for (int i=0; i<records.size(); i++) {
+					PredictionResult result = new PredictionResult(records, i);
+					synchronized (listener) {
+						listener.onResult(result);
+					}
+				}
+
+			} catch (Throwable exc) {
+				exc.printStackTrace();
+				fail(listener, exc);
+
+			} finally {
+				slots.release();
+			}
+		}
+	}
+}
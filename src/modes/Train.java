@@ -22,8 +22,16 @@
  */
 package modes;
 
+import features.DomainFeatureGenerator;
 import io.BasicTools;
+import io.CpuBudget;
+
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import liblinear.WekaClassifier;
 import liblinear.WekaLauncher;
 import org.apache.commons.cli.CommandLine;
@@ -50,6 +58,10 @@ public class Train {
 	
 	private static boolean multithreading = false;
 	
+	// labeled sequences and output file of the first stage of the cascade mode
+	private static String cascadeFasta;
+	private static String cascadeModelFile;
+	
 	private static void parseArguments(CommandLine cmd) {
 
 		if(cmd.hasOption("prokaryote")) {
@@ -84,7 +96,19 @@ public class Train {
 		
 		if(cmd.hasOption("multiThreading")) {
 			multithreading = true;
-		}	
+		}
+		
+		if(cmd.hasOption("cpuBudget")) {
+			CpuBudget.getGlobal().setSize(Integer.parseInt(cmd.getOptionValue("cpuBudget")));
+		}
+		
+		if(cmd.hasOption("cascadeFasta")) {
+			cascadeFasta = cmd.getOptionValue("cascadeFasta");
+		}
+		
+		if(cmd.hasOption("cascadeModel")) {
+			cascadeModelFile = cmd.getOptionValue("cascadeModel");
+		}
 	}
 	
 	private static void compareClassifiers(String featureFile, String resultsDir, String modelFileDir, int numMultiruns, int numFolds, boolean nestedCV) {	
@@ -121,9 +145,57 @@ public class Train {
 		}
 	}
 	
+	/*
+	 * trains the sequence-only first stage of the cascade mode on the labeled sequences of the given FASTA file
+	 * (TF/Non-TF label in the third field of the header as in the BLAST databases) and reports the accuracy
+	 * of the first stage versus the fraction of sequences passed to the second stage
+	 */
+	private static void trainCascade(String fastaFile, String modelFile, int numFolds) {
+		
+		Map<String, String> sequences = BasicTools.readFASTA(fastaFile, true);
+		Map<String, Integer> seq2label = DomainFeatureGenerator.getLabelsFromFastaHeaders(sequences.keySet(), false, false);
+		List<String> seqs = new ArrayList<String>();
+		List<Integer> labels = new ArrayList<Integer>();
+		for (String header: sequences.keySet()) {
+			seqs.add(sequences.get(header));
+			labels.add(seq2label.get(header));
+		}
+		
+		long start = System.currentTimeMillis();
+		double[] probTF = CascadeModel.crossValidate(seqs, labels, CascadeModel.defaultC, numFolds);
+		CascadeModel model = CascadeModel.train(seqs, labels, CascadeModel.defaultC);
+		long end = System.currentTimeMillis();
+		
+		try {
+			model.write(modelFile);
+		} catch (IOException exc) {
+			exc.printStackTrace();
+			System.out.println("Error. Cascade model could not be written: " + modelFile);
+			return;
+		}
+		
+		if (!silent) {
+			System.out.println("\n==========================");
+			System.out.println("First stage of the cascade:");
+			System.out.println("==========================");
+			System.out.println("  " + seqs.size() + " sequences, " + numFolds + "-fold cross-validation\n");
+			CascadeModel.writeReport(probTF, labels, System.out);
+			System.out.println("\n  Model written to " + modelFile);
+			System.out.println("  Runtime of training: " + Math.round((end-start)/1000) + " sec.");
+		}
+	}
+	
 	public static void main(CommandLine cmd) {
 	
 		parseArguments(cmd);
+		if (cascadeFasta != null) {
+			if (cascadeModelFile == null) {
+				System.out.println("Error. Output file of the cascade model has to be provided (-cascadeModel).");
+				return;
+			}
+			trainCascade(cascadeFasta, cascadeModelFile, folds);
+			return;
+		}
 		compareClassifiers(featureFile, classResultsDir, modelFileDir, multiruns, folds, nestedCV);
 	}
 } 
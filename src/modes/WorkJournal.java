@@ -0,0 +1,238 @@
+/*
+ * $Id$
+ * $URL$
+ * This file is part of the program TFpredict. TFpredict performs the
+ * identification and structural characterization of transcription factors.
+ *
+ * Copyright (C) 2010-2014 Center for Bioinformatics Tuebingen (ZBIT),
+ * University of Tuebingen by Johannes Eichner, Florian Topf, Andreas Draeger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package modes;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Durable record of the stages which were completed for each sequence of a
+ * batch prediction, so that an interrupted run can be resumed. The results of
+ * the stages are kept in the InterProScan store, the BLAST hit cache and the
+ * prediction cache; a stage is only recorded after its results were written
+ * to these stores. If a stored result is missing nevertheless, the stage is
+ * simply run again.
+ * <p>
+ * The journal is a text file to which one line per sequence and stage
+ * (stage name and digest of the sequence) is appended. It is forced to disk
+ * after each stage. A line which was only written partially by an interrupted
+ * process is removed when the journal is opened. The journal is locked while
+ * it is open, so that it cannot be used by two processes at the same time.
+ *
+ * @author Andreas Dr&auml;ger
+ * @version $Rev$
+ * @since 1.4
+ */
+class WorkJournal implements Closeable {
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final transient Logger logger = Logger.getLogger(WorkJournal.class.getName());
+
+	/**
+	 * Stages which are recorded in the journal.
+	 */
+	enum Stage {
+		INTERPROSCAN,
+		TF_SEARCH,
+		SUPERCLASS_SEARCH,
+		CLASSIFIED;
+	}
+
+	private File journalFile;
+	private RandomAccessFile journal;
+	private FileLock lock;
+
+	// completed stages of each sequence digest (one bit per stage)
+	private Map<String, Integer> completedStages = new HashMap<String, Integer>();
+	private int[] numCompleted = new int[Stage.values().length];
+
+	/**
+	 *
+	 * @param journalFile
+	 * @throws IOException if the journal could not be read or is used by
+	 *         another process
+	 */
+	WorkJournal(String journalFile) throws IOException {
+
+		this.journalFile = new File(journalFile);
+		File dir = this.journalFile.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+			throw new IOException("Could not create directory for work journal: " + dir);
+		}
+		journal = new RandomAccessFile(this.journalFile, "rw");
+		try {
+			lock = journal.getChannel().tryLock();
+		} catch (OverlappingFileLockException exc) {
+			// already opened within this process
+			lock = null;
+		}
+		if (lock == null) {
+			journal.close();
+			throw new IOException("Work journal is used by another process: " + journalFile);
+		}
+
+		// remove incomplete line written by an interrupted process
+		long length = readJournal();
+		if (length < journal.length()) {
+			logger.warning("Removing incomplete entry at the end of the work journal " + journalFile);
+			journal.setLength(length);
+			journal.getChannel().force(true);
+		}
+		journal.seek(length);
+	}
+
+	// reads all complete lines and returns their total length
+	private long readJournal() throws IOException {
+
+		InputStream is = new BufferedInputStream(new FileInputStream(journalFile));
+		long length = 0;
+		try {
+			StringBuilder line = new StringBuilder();
+			long pos = 0;
+			int b;
+			while ((b = is.read()) != -1) {
+				pos++;
+				if (b != '\n') {
+					line.append((char) b);
+					continue;
+				}
+				String[] entry = line.toString().split("\t");
+				line.setLength(0);
+				length = pos;
+				try {
+					if (entry.length == 2) {
+						markCompleted(Stage.valueOf(entry[0]), entry[1]);
+						continue;
+					}
+				} catch (IllegalArgumentException exc) {
+					// unknown stage, reported below
+				}
+				logger.warning("Invalid entry in work journal " + journalFile + ": " + entry[0]);
+			}
+		} finally {
+			is.close();
+		}
+		return length;
+	}
+
+	private boolean markCompleted(Stage stage, String digest) {
+
+		Integer stages = completedStages.get(digest);
+		int bit = 1 << stage.ordinal();
+		if (stages != null && (stages & bit) != 0) {
+			return false;
+		}
+		completedStages.put(digest, (stages == null) ? bit : stages | bit);
+		numCompleted[stage.ordinal()]++;
+		return true;
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @param sequence
+	 * @return {@code true} if the given stage was completed for the sequence
+	 */
+	synchronized boolean isCompleted(Stage stage, String sequence) {
+		Integer stages = completedStages.get(getDigest(sequence));
+		return (stages != null) && (stages & (1 << stage.ordinal())) != 0;
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return {@code true} if any stage was completed for the sequence
+	 */
+	synchronized boolean contains(String sequence) {
+		return completedStages.containsKey(getDigest(sequence));
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @return number of sequences for which the given stage was completed
+	 */
+	synchronized int getNumCompleted(Stage stage) {
+		return numCompleted[stage.ordinal()];
+	}
+
+	/**
+	 * Records that the given stage was completed for the given sequences. The
+	 * journal is forced to disk before the method returns.
+	 *
+	 * @param stage
+	 * @param sequences
+	 * @throws IOException
+	 */
+	synchronized void append(Stage stage, Collection<String> sequences) throws IOException {
+
+		Set<String> digests = new LinkedHashSet<String>();
+		StringBuilder lines = new StringBuilder();
+		for (String sequence: sequences) {
+			String digest = getDigest(sequence);
+			Integer stages = completedStages.get(digest);
+			if ((stages == null || (stages & (1 << stage.ordinal())) == 0) && digests.add(digest)) {
+				lines.append(stage.name()).append('\t').append(digest).append('\n');
+			}
+		}
+		if (lines.length() == 0) {
+			return;
+		}
+		journal.write(lines.toString().getBytes("US-ASCII"));
+		journal.getChannel().force(false);
+		for (String digest: digests) {
+			markCompleted(stage, digest);
+		}
+	}
+
+	private static String getDigest(String sequence) {
+		return PredictionCache.getDigest(sequence.toUpperCase());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (lock != null) {
+			lock.release();
+			lock = null;
+		}
+		journal.close();
+	}
+}
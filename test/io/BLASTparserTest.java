@@ -1,10 +1,13 @@
 /**
- * 
+ *
  */
 package io;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 
 /**
  * @author draeger
@@ -13,13 +16,132 @@ import java.io.IOException;
 public class BLASTparserTest {
 
 	/**
-	 * 
+	 *
 	 * @param args
 	 * @throws NumberFormatException
 	 * @throws IOException
 	 */
 	public static void main(String args[]) throws NumberFormatException, IOException {
-		BasicTools.parseBLASTHitsProk(new File(BLASTparserTest.class.getResource(args[0]).getFile()));
+		testTabularReport();
+		testPairwiseReport();
+		testIterations();
+		testQueries();
+		testMultiQueryReport();
+		System.out.println("All tests passed.");
+	}
+
+	// PSI-BLAST 2.2.27+ report of one query written with -outfmt "7 stitle bitscore"
+	private static void testTabularReport() throws IOException {
+
+		Map<String, Double> hits = BasicTools.parseBLASTHitsProk(getResource("psiblast_7742678566970923940_hits.txt"));
+		check(hits.size() == 500, "500 hits expected, found " + hits.size());
+		check(hits.get("patA_UTI89_C3511|Q1R6Q7|nonTF|2.6.1.82|GO:0033094,GO:0009447,GO:0030170") == 943, "score of the best hit");
+		check(hits.get("argD2_blr4582|Q89LG2|nonTF|2.6.1.11|GO:0003992,GO:0006526,GO:0005737,GO:0030170") == 160, "score of a hit with several alignments");
+		check(hits.get("hemL_PBPRA0529|Q6LUS3|nonTF|5.4.3.8|GO:0005737,GO:0042286,GO:00") == 127, "score of the last hit");
+		for (double score: hits.values()) {
+			check(127 <= score && score <= 943, "score out of range: " + score);
+		}
+	}
+
+	// the same search in the pairwise format must not be read as a report without hits
+	private static void testPairwiseReport() {
+
+		try {
+			BasicTools.parseBLASTHitsProk(getResource("psiblast_pairwise_hits.txt"));
+			check(false, "pairwise report was accepted");
+		} catch (IOException exc) {
+			// expected
+		}
+		try {
+			BlastHitParser.parseHits(toStream(""), 1);
+			check(false, "empty report was accepted");
+		} catch (IOException exc) {
+			// expected
+		}
+	}
+
+	private static void testIterations() throws IOException {
+
+		String report = "# PSIBLAST 2.2.27+\n# Iteration: 1\n# Query: query0\n# Database: TF.fasta\n# Fields: subject title, bit score\n# 3 hits found\n"
+			+ "hitA|P1|TF|1.2.3 description\t100\n"
+			+ "hitB|P2|TF|1.2.3\t42.4\n"
+			+ "hitB|P2|TF|1.2.3\t50.5\n"
+			+ "# PSIBLAST 2.2.27+\n# Iteration: 2\n# Query: query0\n# Database: TF.fasta\n# Fields: subject title, bit score\n# 2 hits found\n"
+			+ "hitA|P1|TF|1.2.3 description\t120\n"
+			+ "hitC|P3|TF|1.2.3\t80.0\n"
+			+ "# Search has CONVERGED!\n# BLAST processed 1 queries\n";
+
+		Map<String, Double> hits = BlastHitParser.parseHits(toStream(report), 1);
+		check(hits.size() == 2, "hits of iteration 1 expected, found " + hits.keySet());
+		check(hits.get("hitA|P1|TF|1.2.3") == 100, "score of iteration 1 expected");
+		check(hits.get("hitB|P2|TF|1.2.3") == 50.5, "highest score of several alignments expected");
+
+		Map<String, Map<String, Double>> queryHits = BlastHitParser.parseHitsPerQuery(toStream(report), 1);
+		check(queryHits.size() == 1 && queryHits.get("query0").equals(hits), "iteration 1 expected per query");
+
+		hits = BlastHitParser.parseHits(toStream(report), BlastHitParser.lastIteration);
+		check(hits.size() == 2 && hits.get("hitA|P1|TF|1.2.3") == 120 && hits.containsKey("hitC|P3|TF|1.2.3"), "hits of the last iteration expected");
+	}
+
+	private static void testQueries() throws IOException {
+
+		String report = "# PSIBLAST 2.2.27+\n# Iteration: 1\n# Query: query0\n# Database: TF.fasta\n# Fields: subject title, bit score\n# 1 hits found\n"
+			+ "hitA|P1|TF|1.2.3\t100\n"
+			+ "# PSIBLAST 2.2.27+\n# Iteration: 2\n# Query: query0\n# Database: TF.fasta\n# Fields: subject title, bit score\n# 1 hits found\n"
+			+ "hitB|P2|TF|1.2.3\t90\n"
+			+ "# PSIBLAST 2.2.27+\n# Iteration: 1\n# Query: query1\n# Database: TF.fasta\n# Fields: subject title, bit score\n# 1 hits found\n"
+			+ "hitC|P3|TF|1.2.3\t70\n"
+			+ "# BLAST processed 2 queries\n";
+
+		Map<String, Map<String, Double>> queryHits = BlastHitParser.parseHitsPerQuery(toStream(report), 1);
+		check(queryHits.size() == 2, "two queries expected, found " + queryHits.keySet());
+		check(queryHits.get("query0").size() == 1 && queryHits.get("query0").get("hitA|P1|TF|1.2.3") == 100, "hits of query0");
+		check(queryHits.get("query1").size() == 1 && queryHits.get("query1").get("hitC|P3|TF|1.2.3") == 70, "hits of query1");
+	}
+
+	// report of one psiblast call for a batch of queries named by their position (as written by PsiBlastRunner)
+	private static void testMultiQueryReport() throws IOException {
+
+		String patA = "patA_Ecok1_30890_APECO1_3343|A1AFZ3|nonTF|2.6.1.82|GO:0033094,GO:0009447,GO:0030170";
+		String hemL = "hemL_HSM_0850|B0UST3|nonTF|5.4.3.8|GO:0005737,GO:0042286,GO:000";
+		Map<String, Map<String, Double>> queryHits = BlastHitParser.parseHitsPerQuery(getResource("psiblast_multiquery_hits.txt"), 1);
+		check(queryHits.keySet().toString().equals("[query0, query1, query2]"), "each query expected once, found " + queryHits.keySet());
+
+		Map<String, Double> hits = queryHits.get("query0");
+		check(hits.size() == 4, "4 hits of query0 expected, found " + hits.size());
+		check(hits.get(patA) == 943, "score of query0 from iteration 1");
+		check(!hits.containsKey("hemL1_BT9727_0442|Q6HNS8|nonTF|5.4.3.8|GO:0005737,GO:0042286,GO"), "hit of iteration 2 returned for query0");
+
+		hits = queryHits.get("query1");
+		check(hits != null && hits.isEmpty(), "no hits of query1 expected, found " + hits);
+
+		hits = queryHits.get("query2");
+		check(hits.size() == 3, "3 hits of query2 expected, found " + hits.keySet());
+		check(hits.get(patA) == 88.2, "hit of query0 leaked into query2");
+		check(hits.get(hemL) == 80.3, "highest score of several alignments expected");
+		check(hits.get("hemL_Shal_1021|B0TIQ0|nonTF|5.4.3.8|GO:0005737,GO:0042286,GO:00") == 212, "score of query2 from iteration 1");
+		check(queryHits.get("query0").get(patA) == 943 && !queryHits.get("query0").containsKey(hemL), "hit of query2 leaked into query0");
+
+		InputStream is = BLASTparserTest.class.getResourceAsStream("psiblast_multiquery_hits.txt");
+		try {
+			check(BlastHitParser.parseHitsPerQuery(is, 1).equals(queryHits), "stream and file parsed differently");
+		} finally {
+			is.close();
+		}
+	}
+
+	private static File getResource(String name) {
+		return new File(BLASTparserTest.class.getResource(name).getFile());
+	}
+
+	private static ByteArrayInputStream toStream(String report) {
+		return new ByteArrayInputStream(report.getBytes());
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
 	}
 
 }
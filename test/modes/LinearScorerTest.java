@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package modes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import liblinear.LinearScorer;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * Scores the same feature vectors with the {@link LinearScorer} (as done by
+ * {@link Predict#classifyBatch(LinearScorer, Classifier, String, List)}) and
+ * with {@link Classifier#distributionForInstance(weka.core.Instance)} of the
+ * bundled linear SVM models and checks that both return the same values.
+ *
+ * @author draeger
+ *
+ */
+public class LinearScorerTest {
+
+	private static final double epsilon = 1e-9;
+
+	/**
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		// percentile feature vectors: 5 percentiles of the bit scores of each class
+		compare("models/tfPred/svmLinear.model", 2 * 5);
+		compare("models/superPred/svmLinear.model", 5 * 5);
+		System.out.println("All tests passed.");
+	}
+
+	private static void compare(String modelFile, int numFeatures) throws Exception {
+
+		Classifier classifier = ReferenceData.getClassifier(modelFile);
+		LinearScorer scorer = LinearScorer.create(classifier);
+		check(scorer != null, modelFile + " is not supported by the scorer");
+
+		List<double[]> featureVectors = createFeatureVectors(numFeatures);
+		for (double[] features: featureVectors) {
+			boolean missing = false;
+			for (double value: features) {
+				missing |= Double.isNaN(value);
+			}
+			check(missing == (scorer.distributionForInstance(features) == null), "vectors with missing values have to be scored by WEKA");
+		}
+		double[][] actual = Predict.classifyBatch(scorer, classifier, modelFile, featureVectors);
+
+		Instances batch = new Instances(ReferenceData.getFeatureHeader(numFeatures), featureVectors.size());
+		for (double[] features: featureVectors) {
+			batch.add(Predict.createInstance(features));
+		}
+		double[][] expected = Predict.distributionForInstances(classifier, batch);
+
+		for (int i=0; i<featureVectors.size(); i++) {
+			String vector = modelFile + ", feature vector " + Arrays.toString(featureVectors.get(i));
+			check(actual[i].length == expected[i].length, vector + ": " + actual[i].length + " values instead of " + expected[i].length);
+			for (int k=0; k<expected[i].length; k++) {
+				check(Math.abs(actual[i][k] - expected[i][k]) <= epsilon, vector + ": " + Arrays.toString(actual[i]) + " instead of " + Arrays.toString(expected[i]));
+			}
+		}
+	}
+
+	// dense, sparse, zero-heavy and constant vectors as well as vectors with missing values (scored by WEKA)
+	private static List<double[]> createFeatureVectors(int numFeatures) {
+
+		Random random = new Random(42);
+		List<double[]> featureVectors = new ArrayList<double[]>();
+		featureVectors.add(new double[numFeatures]);
+		for (int j=0; j<numFeatures; j++) {
+			double[] single = new double[numFeatures];
+			single[j] = 1 + random.nextDouble() * 999;
+			featureVectors.add(single);
+		}
+		for (int i=0; i<50; i++) {
+			double[] dense = new double[numFeatures];
+			double[] sparse = new double[numFeatures];
+			for (int j=0; j<numFeatures; j++) {
+				dense[j] = random.nextDouble() * 1000;
+				sparse[j] = (random.nextDouble() < 0.1) ? random.nextDouble() * 1000 : 0;
+			}
+			featureVectors.add(dense);
+			featureVectors.add(sparse);
+		}
+		double[] constant = new double[numFeatures];
+		Arrays.fill(constant, 100);
+		featureVectors.add(constant);
+
+		double[] missing = new double[numFeatures];
+		missing[0] = Double.NaN;
+		featureVectors.add(missing);
+		double[] missingDense = new double[numFeatures];
+		for (int j=0; j<numFeatures; j++) {
+			missingDense[j] = (j % 3 == 1) ? Double.NaN : random.nextDouble() * 1000;
+		}
+		featureVectors.add(missingDense);
+		return featureVectors;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
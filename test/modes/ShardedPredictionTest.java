@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package modes;
+
+import io.BasicTools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs plan, worker and merge on a FASTA file and checks that the merged
+ * records are in input order. Instead of TFpredict, each shard is processed by
+ * {@link EchoPrediction}, which reads the shard like the batch mode of
+ * TFpredict.
+ *
+ * @author draeger
+ *
+ */
+public class ShardedPredictionTest {
+
+	/**
+	 * Writes one JSON line per sequence of the given FASTA file in the order
+	 * returned by {@link BasicTools#readFASTA(String)}.
+	 */
+	public static class EchoPrediction {
+
+		public static void main(String[] args) throws IOException {
+
+			List<String> options = Arrays.asList(args);
+			String jsonOutfile = options.get(options.indexOf("-jsonOutfile") + 1);
+			Map<String, String> sequences = BasicTools.readFASTA(args[0]);
+			BufferedWriter bw = new BufferedWriter(new FileWriter(jsonOutfile));
+			for (String id: sequences.keySet()) {
+				bw.write("{\"sequence_id\":\"" + id + "\"}\n");
+			}
+			bw.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		File dir = Files.createTempDirectory("TFpredict_shards_").toFile();
+		String fastaFile = dir + "/input.fasta";
+		List<String> expected = new ArrayList<String>();
+		BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+		for (int i=0; i<60; i++) {
+			String id = "seq" + ((i * 37) % 101);
+			expected.add(id);
+			bw.write(">" + id + "\nMSKQQIGVVGMAVMGRNLALNIESRGYTVSIFNRSREK".substring(0, 10 + i % 25) + "\n");
+		}
+		bw.close();
+
+		int numShards = ShardedPrediction.plan(fastaFile, dir + "/shards", 3);
+		check(numShards == 3, "3 shards expected, planned " + numShards);
+
+		ShardedPrediction sharded = new ShardedPrediction(dir + "/shards");
+		sharded.mainClass = EchoPrediction.class.getName();
+		int numFinished = sharded.runWorker(dir + "/work", 1, new ArrayList<String>());
+		check(numFinished == numShards, numFinished + " of " + numShards + " shards finished");
+
+		String jsonOutfile = dir + "/merged.jsonl";
+		sharded.merge(jsonOutfile, null);
+		List<String> ids = new ArrayList<String>();
+		for (String line: BasicTools.readFile2List(jsonOutfile, false)) {
+			ids.add(line.replaceAll(".*\"sequence_id\":\"([^\"]*)\".*", "$1"));
+		}
+		check(ids.equals(expected), "records not in input order: " + ids);
+
+		deleteDir(dir);
+		System.out.println("All tests passed.");
+	}
+
+	private static void deleteDir(File dir) {
+		for (File file: dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}